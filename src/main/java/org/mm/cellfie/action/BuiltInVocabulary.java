@@ -0,0 +1,91 @@
+package org.mm.cellfie.action;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.EntityType;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLAnnotationProperty;
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLDataProperty;
+import org.semanticweb.owlapi.model.OWLDatatype;
+import org.semanticweb.owlapi.model.OWLEntity;
+import org.semanticweb.owlapi.model.OWLNamedIndividual;
+import org.semanticweb.owlapi.model.OWLObjectProperty;
+import org.semanticweb.owlapi.vocab.Namespaces;
+import org.semanticweb.owlapi.vocab.OWL2Datatype;
+import org.semanticweb.owlapi.vocab.OWLRDFVocabulary;
+
+/**
+ * Ready-made entities for the built-in vocabulary and datatypes, e.g.,
+ * {@code rdfs:label}, {@code owl:Thing} or {@code xsd:string}, keyed by their prefixed
+ * names with the standard prefixes. The table is built once, so resolving a built-in
+ * name costs a single hash lookup and allocates nothing.
+ */
+public final class BuiltInVocabulary
+{
+   @SuppressWarnings("unchecked")
+   private static final Class<? extends OWLEntity>[] ENTITY_CLASSES = new Class[] {
+         OWLClass.class, OWLObjectProperty.class, OWLDataProperty.class, OWLAnnotationProperty.class,
+         OWLNamedIndividual.class, OWLDatatype.class };
+
+   private static final EntityType<?>[] ENTITY_TYPES = {
+         EntityType.CLASS, EntityType.OBJECT_PROPERTY, EntityType.DATA_PROPERTY, EntityType.ANNOTATION_PROPERTY,
+         EntityType.NAMED_INDIVIDUAL, EntityType.DATATYPE };
+
+   private static final Map<String, OWLEntity[]> ENTITIES_BY_NAME = createTable(OWLManager.getOWLDataFactory());
+
+   private BuiltInVocabulary()
+   {
+      // NO-OP
+   }
+
+   /**
+    * Returns the built-in entity with the given prefixed name and type, or {@code null}
+    * if the name is not a built-in name with a standard prefix.
+    */
+   @Nullable
+   public static <T extends OWLEntity> T get(String prefixedName, Class<T> entityType)
+   {
+      OWLEntity[] entities = ENTITIES_BY_NAME.get(prefixedName);
+      if (entities == null) {
+         return null;
+      }
+      for (int i = 0; i < ENTITY_CLASSES.length; i++) {
+         if (ENTITY_CLASSES[i].isAssignableFrom(entityType)) {
+            return entityType.cast(entities[i]);
+         }
+      }
+      return null;
+   }
+
+   private static Map<String, OWLEntity[]> createTable(OWLDataFactory dataFactory)
+   {
+      Set<IRI> builtInIris = new HashSet<>(OWLRDFVocabulary.BUILT_IN_VOCABULARY_IRIS);
+      for (OWL2Datatype datatype : OWL2Datatype.values()) {
+         builtInIris.add(datatype.getIRI());
+      }
+      Map<String, OWLEntity[]> table = new HashMap<>();
+      for (IRI iri : builtInIris) {
+         for (Namespaces ns : Namespaces.values()) {
+            String namespace = ns.toString();
+            String iriString = iri.toString();
+            if (iriString.startsWith(namespace) && iriString.length() > namespace.length()) {
+               OWLEntity[] entities = new OWLEntity[ENTITY_TYPES.length];
+               for (int i = 0; i < ENTITY_TYPES.length; i++) {
+                  entities[i] = dataFactory.getOWLEntity(ENTITY_TYPES[i], iri);
+               }
+               String prefixedName = ns.name().toLowerCase() + ":" + iriString.substring(namespace.length());
+               table.put(prefixedName, entities);
+            }
+         }
+      }
+      return table;
+   }
+}
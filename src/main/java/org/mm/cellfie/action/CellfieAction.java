@@ -34,7 +34,8 @@ public class CellfieAction extends ProtegeOWLAction
    @Override
    public void actionPerformed(ActionEvent e)
    {
-      File file = dialogManager.showOpenFileChooser(null, "Open Excel Workbook", "xlsx, xls", "Excel Workbook (.xlsx, .xls)");
+      File file = dialogManager.showOpenFileChooser(null, "Open Workbook", "xlsx, xls, csv, tsv",
+            "Excel Workbook or Delimited Text (.xlsx, .xls, .csv, .tsv)");
       if (file != null) {
          String filename = file.getAbsolutePath();
          try {
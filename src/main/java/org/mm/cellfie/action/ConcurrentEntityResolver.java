@@ -0,0 +1,360 @@
+package org.mm.cellfie.action;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Nonnull;
+
+import org.mm.core.OWLEntityResolver;
+import org.mm.exceptions.EntityCreationException;
+import org.mm.exceptions.EntityNotFoundException;
+import org.protege.editor.owl.model.OWLModelManager;
+import org.protege.editor.owl.model.entity.OWLEntityCreationException;
+import org.protege.editor.owl.model.entity.OWLEntityCreationSet;
+import org.protege.editor.owl.model.entity.OWLEntityFactory;
+import org.semanticweb.owlapi.model.EntityType;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLEntity;
+import org.semanticweb.owlapi.vocab.OWLRDFVocabulary;
+
+/**
+ * An entity resolver that can be called from many generation threads at once. Names
+ * are looked up in a {@link SignatureSnapshot} taken on the event dispatch thread
+ * instead of the live Protege entity finder, so all threads see the same ontology
+ * signature.
+ * Names that are not an entity rendering are then looked up as labels in a
+ * {@link LabelIndex}.
+ * <p>
+ * New entities are kept in a concurrent map keyed by name and type, so two threads
+ * creating the same name get the same entity. Their declarations are collected in an
+ * {@link EntityCreationBatch}. The entities are made by the Protege entity factory one
+ * at a time, since the factory is not meant to be called concurrently.
+ * <p>
+ * The calls are counted and timed in the {@link ResolverStatistics} of the resolver.
+ */
+public class ConcurrentEntityResolver implements OWLEntityResolver
+{
+   private final SignatureSnapshot snapshot;
+   private final PrefixTable prefixTable;
+   private final LabelIndex labelIndex;
+   private final EntityCreationBatch creationBatch;
+   private final OWLDataFactory dataFactory;
+   private final OWLEntityFactory entityFactory;
+   private final Object entityFactoryLock = new Object();
+
+   private final ConcurrentMap<EntityKey, OWLEntity> createdEntities = new ConcurrentHashMap<>();
+   private final UnknownEntityCache unknownEntities = new UnknownEntityCache();
+
+   private final ResolverStatistics statistics = new ResolverStatistics();
+
+   public ConcurrentEntityResolver(@Nonnull OWLModelManager modelManager, @Nonnull SignatureSnapshot snapshot,
+         @Nonnull PrefixTable prefixTable, @Nonnull LabelIndex labelIndex, @Nonnull EntityCreationBatch creationBatch)
+   {
+      checkNotNull(modelManager);
+      this.snapshot = checkNotNull(snapshot);
+      this.prefixTable = checkNotNull(prefixTable);
+      this.labelIndex = checkNotNull(labelIndex);
+      this.creationBatch = checkNotNull(creationBatch);
+      dataFactory = modelManager.getOWLDataFactory();
+      entityFactory = modelManager.getOWLEntityFactory();
+   }
+
+   /**
+    * Looks up the given entity name in the table of built-in names with standard
+    * prefixes, the signature snapshot, the label index and then the built-in vocabulary
+    * with other prefixes, in that order. Names that were not found before are rejected
+    * from the miss cache without another lookup.
+    *
+    * @param entityName
+    *          The entity name in short form, as a prefixed name string or as a label.
+    * @param entityType
+    *          The expected entity type.
+    * @return The entity, or an empty value if the name is unknown.
+    */
+   public <T extends OWLEntity> Optional<T> lookup(String entityName, final Class<T> entityType)
+   {
+      long startTime = System.nanoTime();
+      try {
+         return lookupEntity(entityName, entityType);
+      } finally {
+         statistics.recordLookup(startTime);
+      }
+   }
+
+   private <T extends OWLEntity> Optional<T> lookupEntity(String entityName, final Class<T> entityType)
+   {
+      T builtInEntity = BuiltInVocabulary.get(entityName, entityType);
+      if (builtInEntity != null) {
+         statistics.countBuiltInHit();
+         return Optional.of(builtInEntity);
+      }
+      if (unknownEntities.contains(entityName, entityType)) {
+         statistics.countCacheHit();
+         statistics.countMiss();
+         return Optional.empty();
+      }
+      Optional<T> entity = find(entityName, entityType);
+      if (!entity.isPresent()) {
+         entity = getBuiltInEntity(entityName, entityType);
+      }
+      if (!entity.isPresent()) {
+         statistics.countMiss();
+         unknownEntities.add(entityName, entityType);
+      }
+      return entity;
+   }
+
+   /**
+    * Resolves the given entity name, see {@link #lookup(String, Class)}. The exception
+    * for a name that is not found carries no stack trace, and is shared by all the
+    * lookups of the same unknown name.
+    *
+    * @see OWLProtegeEntityResolver#resolve(String, Class)
+    */
+   @Override
+   public <T extends OWLEntity> T resolve(String entityName, final Class<T> entityType)
+         throws EntityNotFoundException
+   {
+      Optional<T> entity = lookup(entityName, entityType);
+      if (entity.isPresent()) {
+         return entity.get();
+      }
+      throw unknownEntities.getException(entityName, entityType);
+   }
+
+   @Override
+   public <T extends OWLEntity> T resolveUnchecked(String entityName, final Class<T> entityType)
+   {
+      Optional<T> entity = lookup(entityName, entityType);
+      if (entity.isPresent()) {
+         return entity.get();
+      }
+      throw new UnknownEntityRuntimeException(unknownEntities.getException(entityName, entityType));
+   }
+
+   /**
+    * Returns the entity with the given name from the signature snapshot, or creates a
+    * new one. All threads creating the same name and type get the same entity.
+    *
+    * @see OWLProtegeEntityResolver#create(String, Class)
+    */
+   @Override
+   public <T extends OWLEntity> T create(String entityName, final Class<T> entityType)
+         throws EntityCreationException
+   {
+      long startTime = System.nanoTime();
+      try {
+         return createEntity(entityName, entityType);
+      } finally {
+         statistics.recordCreation(startTime);
+      }
+   }
+
+   private <T extends OWLEntity> T createEntity(String entityName, final Class<T> entityType)
+         throws EntityCreationException
+   {
+      EntityKey key = new EntityKey(entityName, entityType);
+      if (unknownEntities.contains(entityName, entityType)) {
+         statistics.countCacheHit();
+      } else {
+         Optional<T> foundEntity = find(entityName, entityType);
+         if (foundEntity.isPresent()) {
+            return foundEntity.get();
+         }
+      }
+      OWLEntity entity = createdEntities.get(key);
+      if (entity != null) {
+         statistics.countCacheHit();
+      } else {
+         try {
+            entity = createdEntities.computeIfAbsent(key, k -> createNew(entityName, entityType));
+         } catch (UncheckedCreationException e) {
+            throw new EntityCreationException(e.getMessage());
+         }
+      }
+      return entityType.cast(entity);
+   }
+
+   @Override
+   public <T extends OWLEntity> T createUnchecked(String entityName, final Class<T> entityType)
+   {
+      try {
+         return create(entityName, entityType);
+      } catch (EntityCreationException e) {
+         throw new RuntimeException(e.getMessage());
+      }
+   }
+
+   public ResolverStatistics getStatistics()
+   {
+      return statistics;
+   }
+
+   public int getCreatedEntityCount()
+   {
+      return createdEntities.size();
+   }
+
+   /**
+    * Returns a copy of the entities the resolver created, by name and requested type.
+    * Every entity in the copy was added to the creation batch before.
+    */
+   public Map<EntityKey, OWLEntity> getCreatedEntities()
+   {
+      return new HashMap<>(createdEntities);
+   }
+
+   /**
+    * Makes the resolver return the given entities, created by an earlier run, instead of
+    * creating them again. A resumed run must get the same entities as the run it
+    * continues, since an entity factory that generates IDs would give them new IRIs.
+    * The entities are not added to the creation batch, their declarations were produced
+    * by the earlier run.
+    */
+   public void reuseCreatedEntities(Map<EntityKey, OWLEntity> entities)
+   {
+      createdEntities.putAll(entities);
+   }
+
+   public SignatureSnapshot getSnapshot()
+   {
+      return snapshot;
+   }
+
+   /**
+    * Returns the entity name that could not be resolved, if the given error or one of
+    * its causes is an {@link UnknownEntityException}. The renderer may wrap the
+    * resolver exception, so the whole cause chain is searched.
+    */
+   public static Optional<String> getUnresolvedName(Throwable error)
+   {
+      for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+         if (cause instanceof UnknownEntityException) {
+            return Optional.of(((UnknownEntityException) cause).getEntityName());
+         }
+      }
+      return Optional.empty();
+   }
+
+   private <T extends OWLEntity> Optional<T> find(String entityName, Class<T> entityType)
+   {
+      Optional<T> entity = snapshot.find(entityName, entityType);
+      if (entity.isPresent()) {
+         statistics.countSignatureHit();
+         return entity;
+      }
+      entity = labelIndex.find(entityName, entityType);
+      if (entity.isPresent()) {
+         statistics.countLabelHit();
+      }
+      return entity;
+   }
+
+   private <T extends OWLEntity> Optional<T> getBuiltInEntity(String entityName, Class<T> entityType)
+   {
+      EntityType<?> owlEntityType = EntityCreationBatch.getEntityType(entityType);
+      if (owlEntityType != null && prefixTable.isPrefixedName(entityName)) {
+         IRI entityIri = prefixTable.expand(entityName);
+         if (OWLRDFVocabulary.BUILT_IN_VOCABULARY_IRIS.contains(entityIri)) {
+            statistics.countBuiltInHit();
+            return Optional.of(entityType.cast(dataFactory.getOWLEntity(owlEntityType, entityIri)));
+         }
+      }
+      return Optional.empty();
+   }
+
+   /*
+    * Called at most once per name and type. The entity goes through the Protege entity
+    * factory like in the serial resolver, so the user's entity creation preferences
+    * apply. A failure is thrown as an unchecked exception so it can leave the map
+    * computation.
+    */
+   private <T extends OWLEntity> OWLEntity createNew(String entityName, Class<T> entityType)
+   {
+      String localName = PrefixTable.getLocalName(entityName);
+      Optional<IRI> prefix = prefixTable.getPrefix(entityName);
+      synchronized (entityFactoryLock) {
+         try {
+            OWLEntityCreationSet<T> creationSet = entityFactory.createOWLEntity(entityType, localName,
+                  prefix.orElse(null));
+            creationBatch.add(creationSet);
+            return creationSet.getOWLEntity();
+         } catch (OWLEntityCreationException e) {
+            throw new UncheckedCreationException(e);
+         }
+      }
+   }
+
+   private static class UnknownEntityRuntimeException extends RuntimeException
+   {
+      private static final long serialVersionUID = 1L;
+
+      UnknownEntityRuntimeException(UnknownEntityException cause)
+      {
+         super(cause.getMessage(), cause, false, false);
+      }
+   }
+
+   private static class UncheckedCreationException extends RuntimeException
+   {
+      private static final long serialVersionUID = 1L;
+
+      UncheckedCreationException(OWLEntityCreationException cause)
+      {
+         super(cause.getMessage(), cause);
+      }
+   }
+
+   /**
+    * The name and the requested type of a created entity.
+    */
+   public static final class EntityKey implements Serializable
+   {
+      private static final long serialVersionUID = 1L;
+
+      private final String entityName;
+      private final Class<?> entityType;
+
+      public EntityKey(String entityName, Class<?> entityType)
+      {
+         this.entityName = entityName;
+         this.entityType = entityType;
+      }
+
+      public String getEntityName()
+      {
+         return entityName;
+      }
+
+      public Class<?> getEntityType()
+      {
+         return entityType;
+      }
+
+      @Override
+      public boolean equals(Object obj)
+      {
+         if (this == obj) {
+            return true;
+         }
+         if (!(obj instanceof EntityKey)) {
+            return false;
+         }
+         EntityKey other = (EntityKey) obj;
+         return entityName.equals(other.entityName) && entityType.equals(other.entityType);
+      }
+
+      @Override
+      public int hashCode()
+      {
+         return entityName.hashCode() * 31 + entityType.hashCode();
+      }
+   }
+}
@@ -0,0 +1,116 @@
+package org.mm.cellfie.action;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+import org.protege.editor.owl.model.entity.OWLEntityCreationSet;
+import org.semanticweb.owlapi.model.EntityType;
+import org.semanticweb.owlapi.model.OWLAnnotationProperty;
+import org.semanticweb.owlapi.model.OWLAxiom;
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLDataProperty;
+import org.semanticweb.owlapi.model.OWLDatatype;
+import org.semanticweb.owlapi.model.OWLEntity;
+import org.semanticweb.owlapi.model.OWLNamedIndividual;
+import org.semanticweb.owlapi.model.OWLObjectProperty;
+import org.semanticweb.owlapi.model.OWLOntologyChange;
+
+/**
+ * Collects the entities that a generation run creates for names missing in the
+ * ontology, so their declarations can be built in one pass at the end of the run and
+ * applied together with the generated axioms as a single change list.
+ * <p>
+ * The entities are created by the Protege entity factory, which applies the user's
+ * entity creation preferences. The changes it returns, such as the label of an entity
+ * with a generated ID, are kept here instead of being applied right away.
+ */
+public class EntityCreationBatch
+{
+   private final OWLDataFactory dataFactory;
+
+   private final Set<OWLEntity> newEntities = ConcurrentHashMap.newKeySet();
+   private final Queue<OWLOntologyChange> factoryChanges = new ConcurrentLinkedQueue<>();
+
+   private volatile Consumer<OWLAxiom> listener = axiom -> {};
+
+   public EntityCreationBatch(OWLDataFactory dataFactory)
+   {
+      this.dataFactory = dataFactory;
+   }
+
+   /**
+    * Adds the entity that the Protege entity factory created, together with the
+    * changes the factory returned for it.
+    */
+   public void add(OWLEntityCreationSet<?> creationSet)
+   {
+      OWLEntity entity = creationSet.getOWLEntity();
+      if (newEntities.add(entity)) {
+         listener.accept(dataFactory.getOWLDeclarationAxiom(entity));
+      }
+      for (OWLOntologyChange change : creationSet.getOntologyChanges()) {
+         factoryChanges.add(change);
+         if (change.isAddAxiom()) {
+            listener.accept(change.getAxiom());
+         }
+      }
+   }
+
+   /**
+    * Sets the consumer that receives the axioms of every entity added from now on, as
+    * soon as the entity is added.
+    */
+   public void setListener(Consumer<OWLAxiom> listener)
+   {
+      this.listener = listener;
+   }
+
+   public int size()
+   {
+      return newEntities.size();
+   }
+
+   /**
+    * Returns the declarations of all the entities in the batch, together with the
+    * axioms added by the entity factory changes. An axiom is listed once even if the
+    * factory changes declare the entity too.
+    */
+   public List<OWLAxiom> getAxioms()
+   {
+      Set<OWLAxiom> axioms = new LinkedHashSet<>(newEntities.size() + factoryChanges.size());
+      for (OWLEntity entity : newEntities) {
+         axioms.add(dataFactory.getOWLDeclarationAxiom(entity));
+      }
+      for (OWLOntologyChange change : factoryChanges) {
+         if (change.isAddAxiom()) {
+            axioms.add(change.getAxiom());
+         }
+      }
+      return new ArrayList<>(axioms);
+   }
+
+   static EntityType<?> getEntityType(Class<? extends OWLEntity> entityType)
+   {
+      if (OWLClass.class.isAssignableFrom(entityType)) {
+         return EntityType.CLASS;
+      } else if (OWLObjectProperty.class.isAssignableFrom(entityType)) {
+         return EntityType.OBJECT_PROPERTY;
+      } else if (OWLDataProperty.class.isAssignableFrom(entityType)) {
+         return EntityType.DATA_PROPERTY;
+      } else if (OWLAnnotationProperty.class.isAssignableFrom(entityType)) {
+         return EntityType.ANNOTATION_PROPERTY;
+      } else if (OWLNamedIndividual.class.isAssignableFrom(entityType)) {
+         return EntityType.NAMED_INDIVIDUAL;
+      } else if (OWLDatatype.class.isAssignableFrom(entityType)) {
+         return EntityType.DATATYPE;
+      }
+      return null;
+   }
+}
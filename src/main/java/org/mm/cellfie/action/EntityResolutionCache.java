@@ -0,0 +1,170 @@
+package org.mm.cellfie.action;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.Nonnull;
+
+import org.protege.editor.owl.model.OWLModelManager;
+import org.protege.editor.owl.model.event.EventType;
+import org.protege.editor.owl.model.event.OWLModelManagerChangeEvent;
+import org.protege.editor.owl.model.event.OWLModelManagerListener;
+import org.semanticweb.owlapi.model.AxiomType;
+import org.semanticweb.owlapi.model.OWLEntity;
+import org.semanticweb.owlapi.model.OWLOntologyChange;
+import org.semanticweb.owlapi.model.OWLOntologyChangeListener;
+
+/**
+ * Remembers the entities that {@link OWLProtegeEntityResolver} found in the ontology,
+ * keyed by entity name and entity type, so a name that repeats over many cells is
+ * looked up in the Protege entity finder only once.
+ * <p>
+ * Names the finder does not know are kept apart in an {@link UnknownEntityCache}, so
+ * they are rejected without another search; names that were created are always passed
+ * to the entity factory again. While attached, the cache listens to the model manager and is cleared when a change could
+ * alter the finder result: a declaration, an annotation assertion (labels are used for
+ * rendering), an import change, another active ontology or another entity renderer.
+ */
+public class EntityResolutionCache implements OWLOntologyChangeListener, OWLModelManagerListener
+{
+   private final ConcurrentMap<CacheKey, OWLEntity> resolvedEntities = new ConcurrentHashMap<>();
+   private final UnknownEntityCache unknownEntities = new UnknownEntityCache();
+
+   private final LongAdder hits = new LongAdder();
+   private final LongAdder misses = new LongAdder();
+   private final LongAdder invalidations = new LongAdder();
+
+   private Optional<OWLModelManager> modelManager = Optional.empty();
+
+   /**
+    * Starts listening to the changes of the given model manager. The cache is cleared,
+    * since it may have missed changes while it was detached.
+    */
+   public void attach(OWLModelManager manager)
+   {
+      detach();
+      clear();
+      manager.addListener(this);
+      manager.getOWLOntologyManager().addOntologyChangeListener(this);
+      modelManager = Optional.of(manager);
+   }
+
+   public void detach()
+   {
+      if (modelManager.isPresent()) {
+         modelManager.get().getOWLOntologyManager().removeOntologyChangeListener(this);
+         modelManager.get().removeListener(this);
+         modelManager = Optional.empty();
+      }
+   }
+
+   /**
+    * Returns the cached entity of the given name and type that exists in the ontology.
+    */
+   public <T extends OWLEntity> Optional<T> get(String entityName, Class<T> entityType)
+   {
+      OWLEntity entity = resolvedEntities.get(new CacheKey(entityName, entityType));
+      if (entity == null) {
+         misses.increment();
+         return Optional.empty();
+      }
+      hits.increment();
+      return Optional.of(entityType.cast(entity));
+   }
+
+   public void put(String entityName, Class<? extends OWLEntity> entityType, OWLEntity entity)
+   {
+      resolvedEntities.put(new CacheKey(entityName, entityType), entity);
+   }
+
+   /*
+    * The names the resolvers using this cache could not find. Cleared with the cache,
+    * since a new declaration or label can make the name known.
+    */
+   UnknownEntityCache getUnknownEntities()
+   {
+      return unknownEntities;
+   }
+
+   public void clear()
+   {
+      resolvedEntities.clear();
+      unknownEntities.clear();
+      invalidations.increment();
+   }
+
+   public long getHitCount()
+   {
+      return hits.sum();
+   }
+
+   public long getMissCount()
+   {
+      return misses.sum();
+   }
+
+   public long getInvalidationCount()
+   {
+      return invalidations.sum();
+   }
+
+   public int size()
+   {
+      return resolvedEntities.size();
+   }
+
+   @Override
+   public void ontologiesChanged(@Nonnull List<? extends OWLOntologyChange> changes)
+   {
+      for (OWLOntologyChange change : changes) {
+         if (change.isImportChange() || (change.isAxiomChange()
+               && change.getAxiom().isOfType(AxiomType.DECLARATION, AxiomType.ANNOTATION_ASSERTION))) {
+            clear();
+            return;
+         }
+      }
+   }
+
+   @Override
+   public void handleChange(OWLModelManagerChangeEvent event)
+   {
+      if (event.isType(EventType.ACTIVE_ONTOLOGY_CHANGED) || event.isType(EventType.ENTITY_RENDERER_CHANGED)
+            || event.isType(EventType.ONTOLOGY_RELOADED)) {
+         clear();
+      }
+   }
+
+   private static class CacheKey
+   {
+      private final String entityName;
+      private final Class<?> entityType;
+
+      CacheKey(String entityName, Class<?> entityType)
+      {
+         this.entityName = entityName;
+         this.entityType = entityType;
+      }
+
+      @Override
+      public boolean equals(Object obj)
+      {
+         if (this == obj) {
+            return true;
+         }
+         if (!(obj instanceof CacheKey)) {
+            return false;
+         }
+         CacheKey other = (CacheKey) obj;
+         return entityName.equals(other.entityName) && entityType.equals(other.entityType);
+      }
+
+      @Override
+      public int hashCode()
+      {
+         return entityName.hashCode() * 31 + entityType.hashCode();
+      }
+   }
+}
@@ -0,0 +1,147 @@
+package org.mm.cellfie.action;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLEntity;
+import org.semanticweb.owlapi.model.OWLLiteral;
+
+/**
+ * An immutable inverted index from {@code rdfs:label} values to the entities that carry
+ * them, over the active ontologies. The lookup is exact, apart from the single quotes
+ * that may surround a name with spaces, so {@code 'Blood Pressure'} finds the label
+ * {@code Blood Pressure} but not {@code blood  pressure}. Close matches are left to
+ * the {@link SuggestionIndex}, which uses {@link #normalize(String)}.
+ * <p>
+ * Each label keeps its language tag. When several entities share a label, the lookup
+ * prefers the one labelled in the preferred language, then one without a language tag.
+ */
+public class LabelIndex
+{
+   private static final OWLEntity[] NO_ENTITIES = new OWLEntity[0];
+   private static final Entry[] NO_ENTRIES = new Entry[0];
+
+   private final Map<String, Entry[]> entriesByLabel;
+   private final String preferredLanguage;
+
+   private LabelIndex(Map<String, Entry[]> entriesByLabel, String preferredLanguage)
+   {
+      this.entriesByLabel = entriesByLabel;
+      this.preferredLanguage = preferredLanguage;
+   }
+
+   /**
+    * Builds the label index of the given ontology terms. The preferred language is the
+    * language of the default locale.
+    */
+   public static LabelIndex build(OntologyTerms terms)
+   {
+      Map<IRI, OWLEntity[]> entitiesByIri = new HashMap<>(terms.getEntityCount() * 4 / 3 + 1);
+      for (int i = 0; i < terms.getEntityCount(); i++) {
+         OWLEntity entity = terms.getEntity(i);
+         OWLEntity[] entities = entitiesByIri.getOrDefault(entity.getIRI(), NO_ENTITIES);
+         entities = Arrays.copyOf(entities, entities.length + 1); // punned IRIs are rare
+         entities[entities.length - 1] = entity;
+         entitiesByIri.put(entity.getIRI(), entities);
+      }
+      Map<String, Entry[]> entriesByLabel = new HashMap<>();
+      for (int i = 0; i < terms.getLabelCount(); i++) {
+         OWLEntity[] entities = entitiesByIri.get(terms.getLabelSubject(i));
+         if (entities == null) {
+            continue;
+         }
+         OWLLiteral literal = terms.getLabel(i);
+         String label = literal.getLiteral();
+         String language = literal.getLang().toLowerCase(Locale.ROOT);
+         for (OWLEntity entity : entities) {
+            Entry[] entries = entriesByLabel.getOrDefault(label, NO_ENTRIES);
+            entries = Arrays.copyOf(entries, entries.length + 1);
+            entries[entries.length - 1] = new Entry(entity, language);
+            entriesByLabel.put(label, entries);
+         }
+      }
+      return new LabelIndex(entriesByLabel, Locale.getDefault().getLanguage());
+   }
+
+   /**
+    * Returns the entity of the given type labelled with the given text.
+    */
+   public <T extends OWLEntity> Optional<T> find(String label, Class<T> entityType)
+   {
+      Entry[] entries = entriesByLabel.get(unquote(label));
+      if (entries == null) {
+         return Optional.empty();
+      }
+      Entry bestEntry = null;
+      for (Entry entry : entries) {
+         if (entityType.isInstance(entry.entity) && (bestEntry == null || rank(entry) < rank(bestEntry))) {
+            bestEntry = entry;
+         }
+      }
+      return bestEntry == null ? Optional.empty() : Optional.of(entityType.cast(bestEntry.entity));
+   }
+
+   public int size()
+   {
+      return entriesByLabel.size();
+   }
+
+   private int rank(Entry entry)
+   {
+      if (entry.language.equals(preferredLanguage)) {
+         return 0;
+      }
+      return entry.language.isEmpty() ? 1 : 2;
+   }
+
+   /*
+    * Removes the single quotes around a name with spaces, as in the Protege renderings
+    */
+   private static String unquote(String name)
+   {
+      if (name.length() >= 2 && name.charAt(0) == '\'' && name.charAt(name.length() - 1) == '\'') {
+         return name.substring(1, name.length() - 1);
+      }
+      return name;
+   }
+
+   /**
+    * Returns the form of the given name or label that close matches are compared in:
+    * without surrounding quotes, with white space collapsed and in lower case.
+    */
+   static String normalize(String label)
+   {
+      String text = unquote(label.trim()).trim();
+      StringBuilder sb = new StringBuilder(text.length());
+      boolean pendingSpace = false;
+      for (int i = 0; i < text.length(); i++) {
+         char c = text.charAt(i);
+         if (Character.isWhitespace(c)) {
+            pendingSpace = sb.length() > 0;
+         } else {
+            if (pendingSpace) {
+               sb.append(' ');
+               pendingSpace = false;
+            }
+            sb.append(Character.toLowerCase(c));
+         }
+      }
+      return sb.toString();
+   }
+
+   private static class Entry
+   {
+      private final OWLEntity entity;
+      private final String language;
+
+      Entry(OWLEntity entity, String language)
+      {
+         this.entity = entity;
+         this.language = language;
+      }
+   }
+}
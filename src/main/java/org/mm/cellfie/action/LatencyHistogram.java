@@ -0,0 +1,113 @@
+package org.mm.cellfie.action;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of call latencies with one bucket per power of two nanoseconds, which
+ * can be updated from many threads at once. Percentiles are reported as the upper
+ * bound of their bucket, so they are accurate within a factor of two.
+ * <p>
+ * The buckets and the maximum are striped adders and accumulators, so the threads that
+ * record their calls do not contend on one shared counter.
+ */
+public class LatencyHistogram
+{
+   private static final int BUCKET_COUNT = 64;
+
+   private final LongAdder[] buckets = new LongAdder[BUCKET_COUNT];
+   private final LongAdder totalNanos = new LongAdder();
+   private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+   public LatencyHistogram()
+   {
+      for (int i = 0; i < BUCKET_COUNT; i++) {
+         buckets[i] = new LongAdder();
+      }
+   }
+
+   /**
+    * Records one call that took the given number of nanoseconds.
+    */
+   public void record(long nanos)
+   {
+      long latency = Math.max(0, nanos);
+      buckets[Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(latency))].increment();
+      totalNanos.add(latency);
+      maxNanos.accumulate(latency);
+   }
+
+   public long getCount()
+   {
+      long count = 0;
+      for (LongAdder bucket : buckets) {
+         count += bucket.sum();
+      }
+      return count;
+   }
+
+   public long getTotalNanos()
+   {
+      return totalNanos.sum();
+   }
+
+   public long getMeanNanos()
+   {
+      long calls = getCount();
+      return calls == 0 ? 0 : totalNanos.sum() / calls;
+   }
+
+   public long getMaxNanos()
+   {
+      return maxNanos.get();
+   }
+
+   /**
+    * Returns the latency below which the given fraction of the calls fall, rounded up
+    * to the bound of its bucket.
+    *
+    * @param fraction
+    *          The fraction of the calls, between 0 and 1.
+    */
+   public long getPercentileNanos(double fraction)
+   {
+      long[] counts = new long[BUCKET_COUNT];
+      long total = 0;
+      for (int i = 0; i < BUCKET_COUNT; i++) {
+         counts[i] = buckets[i].sum();
+         total += counts[i];
+      }
+      long threshold = (long) Math.ceil(total * fraction);
+      long seen = 0;
+      for (int i = 0; i < BUCKET_COUNT; i++) {
+         seen += counts[i];
+         if (seen >= threshold && seen > 0) {
+            return i == BUCKET_COUNT - 1 ? Long.MAX_VALUE : 1L << i;
+         }
+      }
+      return 0;
+   }
+
+   @Override
+   public String toString()
+   {
+      if (getCount() == 0) {
+         return "no calls";
+      }
+      return String.format("%,d calls, mean %s, p50 < %s, p90 < %s, p99 < %s, max %s", getCount(),
+            formatNanos(getMeanNanos()), formatNanos(getPercentileNanos(0.5)), formatNanos(getPercentileNanos(0.9)),
+            formatNanos(getPercentileNanos(0.99)), formatNanos(getMaxNanos()));
+   }
+
+   static String formatNanos(long nanos)
+   {
+      if (nanos < 1000) {
+         return nanos + " ns";
+      } else if (nanos < 1000000) {
+         return String.format("%.1f \u00b5s", nanos / 1e3);
+      } else if (nanos < 1000000000) {
+         return String.format("%.1f ms", nanos / 1e6);
+      }
+      return String.format("%.1f s", nanos / 1e9);
+   }
+}
@@ -14,18 +14,13 @@ import org.protege.editor.owl.model.OWLModelManager;
 import org.protege.editor.owl.model.entity.OWLEntityCreationException;
 import org.protege.editor.owl.model.entity.OWLEntityFactory;
 import org.protege.editor.owl.model.find.OWLEntityFinder;
-import org.semanticweb.owlapi.formats.PrefixDocumentFormat;
 import org.semanticweb.owlapi.model.IRI;
 import org.semanticweb.owlapi.model.OWLClass;
 import org.semanticweb.owlapi.model.OWLDataProperty;
 import org.semanticweb.owlapi.model.OWLDatatype;
-import org.semanticweb.owlapi.model.OWLDocumentFormat;
 import org.semanticweb.owlapi.model.OWLEntity;
 import org.semanticweb.owlapi.model.OWLNamedIndividual;
 import org.semanticweb.owlapi.model.OWLObjectProperty;
-import org.semanticweb.owlapi.model.OWLOntology;
-import org.semanticweb.owlapi.model.OWLOntologyManager;
-import org.semanticweb.owlapi.vocab.Namespaces;
 import org.semanticweb.owlapi.vocab.OWLRDFVocabulary;
 
 public class OWLProtegeEntityResolver implements OWLEntityResolver {
@@ -33,9 +28,23 @@ public class OWLProtegeEntityResolver implements OWLEntityResolver {
    private final OWLModelManager modelManager;
    private final OWLEntityFinder entityFinder;
    private final OWLEntityFactory entityFactory;
+   private final Optional<EntityResolutionCache> cache;
+   private final Optional<UnknownEntityCache> unknownEntities;
+
+   private final ResolverStatistics statistics = new ResolverStatistics();
 
    public OWLProtegeEntityResolver(@Nonnull OWLEditorKit editorKit) {
+      this(editorKit, Optional.empty());
+   }
+
+   /**
+    * Creates a resolver that remembers the entities it finds, and the names it does not
+    * find, in the given cache, if present. The cache can be shared by several resolvers.
+    */
+   public OWLProtegeEntityResolver(@Nonnull OWLEditorKit editorKit, @Nonnull Optional<EntityResolutionCache> cache) {
       checkNotNull(editorKit);
+      this.cache = checkNotNull(cache);
+      unknownEntities = cache.map(EntityResolutionCache::getUnknownEntities);
       modelManager = editorKit.getModelManager();
       entityFinder = modelManager.getOWLEntityFinder();
       entityFactory = modelManager.getOWLEntityFactory();
@@ -56,28 +65,103 @@ public class OWLProtegeEntityResolver implements OWLEntityResolver {
     *          {@link OWLDatatype}.
     * @return Returns an OWL entity object according to its type.
     * @throws EntityNotFoundException If the entity name does not exist in the ontology.
+    *          The exception carries no stack trace, and is shared by all the lookups of
+    *          the same unknown name while the name stays in the cache.
     */
    @Override
    public <T extends OWLEntity> T resolve(String entityName, final Class<T> entityType)
          throws EntityNotFoundException {
-      T entity = null;
+      Optional<T> entity = lookup(entityName, entityType);
+      if (!entity.isPresent()) {
+         throw unknownEntities.isPresent()
+               ? unknownEntities.get().getException(entityName, entityType)
+               : new UnknownEntityException(entityName);
+      }
+      return entity.get();
+   }
+
+   /**
+    * Looks up the given entity name like {@link #resolve(String, Class)} does, but returns
+    * an empty value instead of throwing an exception if no entity was found. Names that
+    * were not found before are rejected from the cache without another lookup.
+    *
+    * @param entityName
+    *          The entity name in short form or as a prefixed name string.
+    * @param entityType
+    *          The entity type following the OWLAPI class hierarchy.
+    * @return Returns an OWL entity object according to its type, or an empty value.
+    */
+   public <T extends OWLEntity> Optional<T> lookup(String entityName, final Class<T> entityType) {
+      long startTime = System.nanoTime();
+      try {
+         T builtInEntity = BuiltInVocabulary.get(entityName, entityType);
+         if (builtInEntity != null) {
+            statistics.countBuiltInHit();
+            return Optional.of(builtInEntity);
+         }
+         if (isKnownMiss(entityName, entityType)) {
+            statistics.countCacheHit();
+            statistics.countMiss();
+            return Optional.empty();
+         }
+         Optional<T> foundEntity = findEntity(entityName, entityType);
+         if (foundEntity.isPresent()) {
+            statistics.countSignatureHit();
+            return foundEntity;
+         }
+         builtInEntity = createNewForBuiltInEntity(entityName, entityType);
+         if (builtInEntity != null) {
+            statistics.countBuiltInHit();
+         } else {
+            statistics.countMiss();
+            if (unknownEntities.isPresent()) {
+               unknownEntities.get().add(entityName, entityType);
+            }
+         }
+         return Optional.ofNullable(builtInEntity);
+      } finally {
+         statistics.recordLookup(startTime);
+      }
+   }
+
+   /*
+    * Looks up the given name in the cache, if any, and then in the Protege entity
+    * finder. Entities found by the finder are added to the cache.
+    */
+   private <T extends OWLEntity> Optional<T> findEntity(String entityName, final Class<T> entityType) {
+      if (cache.isPresent()) {
+         Optional<T> cachedEntity = cache.get().get(entityName, entityType);
+         if (cachedEntity.isPresent()) {
+            statistics.countCacheHit();
+            return cachedEntity;
+         }
+      }
       OWLEntity foundEntity = entityFinder.getOWLEntity(entityName);
       if (foundEntity == null) {
-         entity = createNewForBuiltInEntity(entityName, entityType);
-      } else {
-         entity = entityType.cast(foundEntity);
+         return Optional.empty();
       }
-      if (entity == null) {
-         throw new EntityNotFoundException(
-               String.format("The expected entity name '%s' does not exist in the ontology",
-                     entityName));
+      T entity = entityType.cast(foundEntity);
+      if (cache.isPresent()) {
+         cache.get().put(entityName, entityType, entity);
       }
-      return entity;
+      return Optional.of(entity);
+   }
+
+   private boolean isKnownMiss(String entityName, Class<?> entityType) {
+      return unknownEntities.isPresent() && unknownEntities.get().contains(entityName, entityType);
+   }
+
+   /**
+    * Returns the counters and latency histograms of the calls to this resolver.
+    */
+   public ResolverStatistics getStatistics() {
+      return statistics;
    }
 
    private <T extends OWLEntity> T createNewForBuiltInEntity(String entityName, final Class<T> entityType) {
-      if (isPrefixedName(entityName)) {
-         IRI entityIri = expand(entityName);
+      PrefixTable prefixTable = PrefixTable.getActiveTable(modelManager);
+      if (prefixTable.isPrefixedName(entityName)) {
+         IRI entityIri = prefixTable.expand(entityName);
          if (OWLRDFVocabulary.BUILT_IN_VOCABULARY_IRIS.contains(entityIri)) {
             try {
                return createNew(entityName, entityType);
@@ -89,10 +173,6 @@ public class OWLProtegeEntityResolver implements OWLEntityResolver {
       return null;
    }
 
-   private boolean isPrefixedName(String entityName) {
-      return entityName.indexOf(":") > 0;
-   }
-
    /**
     * Resolves the given entity name and returns the OWL entity object with the specified type.
     * The method will scan the entity name in the active ontology and return the found object.
@@ -114,7 +194,7 @@ public class OWLProtegeEntityResolver implements OWLEntityResolver {
       try {
          return resolve(entityName, entityType);
       } catch (EntityNotFoundException e) {
-         throw new RuntimeException(e.getMessage());
+         throw new RuntimeException(e.getMessage(), e);
       }
    }
 
@@ -136,21 +216,29 @@ public class OWLProtegeEntityResolver implements OWLEntityResolver {
    @Override
    public <T extends OWLEntity> T create(String entityName, final Class<T> entityType)
          throws EntityCreationException {
-      OWLEntity entity = entityFinder.getOWLEntity(entityName);
-      if (entity == null) {
-         try {
+      long startTime = System.nanoTime();
+      try {
+         if (isKnownMiss(entityName, entityType)) {
+            statistics.countCacheHit();
             return createNew(entityName, entityType);
-         } catch (OWLEntityCreationException e) {
-            throw new EntityCreationException(e.getMessage());
          }
+         Optional<T> entity = findEntity(entityName, entityType);
+         if (!entity.isPresent()) {
+            return createNew(entityName, entityType);
+         }
+         statistics.countSignatureHit();
+         return entity.get();
+      } catch (OWLEntityCreationException e) {
+         throw new EntityCreationException(e.getMessage());
+      } finally {
+         statistics.recordCreation(startTime);
       }
-      return entityType.cast(entity);
    }
 
    private <T extends OWLEntity> T createNew(String entityName, final Class<T> entityType)
          throws OWLEntityCreationException {
-      String localName = getLocalName(entityName);
-      Optional<IRI> prefix = getPrefix(entityName);
+      String localName = PrefixTable.getLocalName(entityName);
+      Optional<IRI> prefix = PrefixTable.getActiveTable(modelManager).getPrefix(entityName);
       IRI baseIri = prefix.orElseGet(() -> null);
       return entityFactory.createOWLEntity(entityType, localName, baseIri).getOWLEntity();
    }
@@ -163,43 +251,4 @@ public class OWLProtegeEntityResolver implements OWLEntityResolver {
          throw new RuntimeException(e.getMessage());
       }
    }
-
-   private IRI expand(String entityName) {
-      String localName = getLocalName(entityName);
-      Optional<IRI> prefix = getPrefix(entityName);
-      if (prefix.isPresent()) {
-         String prefixString = prefix.get().toString();
-         return IRI.create(prefixString + localName);
-      }
-      throw new IllegalArgumentException("Missing required prefix");
-   }
-
-   private String getLocalName(String prefixedName) {
-      int colonIndex = prefixedName.indexOf(':');
-      if (colonIndex >= 0) {
-          return prefixedName.substring(colonIndex + 1);
-      }
-      return prefixedName;
-   }
-
-   private Optional<IRI> getPrefix(String prefixedName) {
-      OWLOntology activeOntology = modelManager.getActiveOntology();
-      OWLOntologyManager manager = modelManager.getOWLOntologyManager();
-      OWLDocumentFormat format = manager.getOntologyFormat(activeOntology);
-      for (Namespaces ns : Namespaces.values()) {
-          if (prefixedName.startsWith(ns.name().toLowerCase() + ":")) {
-              return Optional.of(IRI.create(ns.toString()));
-          }
-      }
-      int colonIndex = prefixedName.indexOf(':');
-      if (colonIndex > 0 && format != null && format.isPrefixOWLOntologyFormat()) {
-          PrefixDocumentFormat prefixes = format.asPrefixOWLOntologyFormat();
-          String prefixLabel = prefixedName.substring(0, colonIndex + 1);
-          String prefix = prefixes.getPrefix(prefixLabel);
-          if (prefix != null) {
-              return Optional.of(IRI.create(prefix));
-          }
-      }
-      return Optional.empty();
-   }
 }
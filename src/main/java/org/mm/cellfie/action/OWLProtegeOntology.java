@@ -1,5 +1,7 @@
 package org.mm.cellfie.action;
 
+import java.util.Optional;
+
 import org.mm.core.OWLEntityResolver;
 import org.mm.core.OWLOntologySourceHook;
 import org.protege.editor.owl.OWLEditorKit;
@@ -10,6 +12,8 @@ public class OWLProtegeOntology implements OWLOntologySourceHook
 {
    private OWLEditorKit editorKit;
    private OWLModelManager modelManager;
+   private OWLEntityResolver entityResolver;
+   private Optional<EntityResolutionCache> resolutionCache = Optional.empty();
 
    public OWLProtegeOntology(OWLEditorKit editorKit)
    {
@@ -17,6 +21,26 @@ public class OWLProtegeOntology implements OWLOntologySourceHook
       modelManager = editorKit.getOWLModelManager();
    }
 
+   /**
+    * Creates an ontology hook whose entity resolver keeps the entities it finds in the
+    * given resolution cache.
+    */
+   public OWLProtegeOntology(OWLEditorKit editorKit, EntityResolutionCache resolutionCache)
+   {
+      this(editorKit);
+      this.resolutionCache = Optional.of(resolutionCache);
+   }
+
+   /**
+    * Creates an ontology hook that hands out the given entity resolver instead of a
+    * resolver over the live Protege model.
+    */
+   public OWLProtegeOntology(OWLEditorKit editorKit, OWLEntityResolver entityResolver)
+   {
+      this(editorKit);
+      this.entityResolver = entityResolver;
+   }
+
    @Override
    public OWLOntology getOWLOntology()
    {
@@ -26,6 +50,9 @@ public class OWLProtegeOntology implements OWLOntologySourceHook
    @Override
    public OWLEntityResolver getEntityResolver()
    {
-      return new OWLProtegeEntityResolver(editorKit);
+      if (entityResolver == null) {
+         entityResolver = new OWLProtegeEntityResolver(editorKit, resolutionCache); // kept so its statistics add up
+      }
+      return entityResolver;
    }
 }
@@ -0,0 +1,114 @@
+package org.mm.cellfie.action;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.protege.editor.owl.model.OWLModelManager;
+import org.semanticweb.owlapi.model.AxiomType;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLAnnotationAssertionAxiom;
+import org.semanticweb.owlapi.model.OWLEntity;
+import org.semanticweb.owlapi.model.OWLLiteral;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyChange;
+
+/**
+ * An immutable copy of the terms of the active ontologies: every entity of their
+ * signature with its rendering, and every {@code rdfs:label} value given to an IRI.
+ * The copy is taken on the event dispatch thread, which is the thread that changes the
+ * Protege model, and the {@link SignatureSnapshot}, {@link LabelIndex} and
+ * {@link SuggestionIndex} are built from it, possibly on other threads.
+ */
+public class OntologyTerms
+{
+   private final List<OWLEntity> entities;
+   private final List<String> renderings;
+   private final List<IRI> labelSubjects;
+   private final List<OWLLiteral> labels;
+
+   private OntologyTerms(List<OWLEntity> entities, List<String> renderings, List<IRI> labelSubjects,
+         List<OWLLiteral> labels)
+   {
+      this.entities = entities;
+      this.renderings = renderings;
+      this.labelSubjects = labelSubjects;
+      this.labels = labels;
+   }
+
+   /**
+    * Copies the terms of the active ontologies of the given model manager. Must be
+    * called on the event dispatch thread.
+    */
+   public static OntologyTerms take(OWLModelManager modelManager)
+   {
+      Set<OWLEntity> signature = new HashSet<>();
+      for (OWLOntology ontology : modelManager.getActiveOntologies()) {
+         signature.addAll(ontology.getSignature());
+      }
+      List<OWLEntity> entities = new ArrayList<>(signature);
+      List<String> renderings = new ArrayList<>(entities.size());
+      for (OWLEntity entity : entities) {
+         renderings.add(modelManager.getRendering(entity));
+      }
+      List<IRI> labelSubjects = new ArrayList<>();
+      List<OWLLiteral> labels = new ArrayList<>();
+      for (OWLOntology ontology : modelManager.getActiveOntologies()) {
+         for (OWLAnnotationAssertionAxiom axiom : ontology.getAxioms(AxiomType.ANNOTATION_ASSERTION)) {
+            if (axiom.getProperty().isLabel() && axiom.getSubject() instanceof IRI
+                  && axiom.getValue() instanceof OWLLiteral) {
+               labelSubjects.add((IRI) axiom.getSubject());
+               labels.add((OWLLiteral) axiom.getValue());
+            }
+         }
+      }
+      return new OntologyTerms(entities, renderings, labelSubjects, labels);
+   }
+
+   /**
+    * Returns whether the given ontology changes may change the terms, i.e., they contain
+    * a declaration, an annotation assertion (the renderings may use annotations) or an
+    * import change.
+    */
+   public static boolean isAffectedBy(List<? extends OWLOntologyChange> changes)
+   {
+      for (OWLOntologyChange change : changes) {
+         if (change.isImportChange() || (change.isAxiomChange()
+               && change.getAxiom().isOfType(AxiomType.DECLARATION, AxiomType.ANNOTATION_ASSERTION))) {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   public int getEntityCount()
+   {
+      return entities.size();
+   }
+
+   public OWLEntity getEntity(int index)
+   {
+      return entities.get(index);
+   }
+
+   public String getRendering(int index)
+   {
+      return renderings.get(index);
+   }
+
+   public int getLabelCount()
+   {
+      return labels.size();
+   }
+
+   public IRI getLabelSubject(int index)
+   {
+      return labelSubjects.get(index);
+   }
+
+   public OWLLiteral getLabel(int index)
+   {
+      return labels.get(index);
+   }
+}
@@ -0,0 +1,125 @@
+package org.mm.cellfie.action;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import org.protege.editor.owl.model.OWLModelManager;
+import org.semanticweb.owlapi.formats.PrefixDocumentFormat;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLDocumentFormat;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.vocab.Namespaces;
+
+/**
+ * An immutable table from prefix labels (e.g., {@code owl:}) to prefix IRIs, built from
+ * the well-known OWLAPI namespaces and the prefixes declared in the document format of
+ * an ontology. The well-known namespaces take precedence over the declared prefixes.
+ * <p>
+ * The table of the active ontology is kept and reused until the active ontology or its
+ * document format is replaced, or until {@link #invalidate()} is called. The prefixes
+ * of a format can be edited in place without an ontology change, so the workspace
+ * invalidates the table when the model manager reports a change and before each
+ * generation run.
+ */
+public class PrefixTable
+{
+   private static volatile PrefixTable activeTable;
+
+   private final OWLOntology ontology;
+   private final OWLDocumentFormat format;
+   private final Map<String, IRI> prefixes;
+
+   private PrefixTable(OWLOntology ontology, OWLDocumentFormat format, Map<String, String> declaredPrefixes)
+   {
+      this.ontology = ontology;
+      this.format = format;
+      Map<String, IRI> table = new HashMap<>();
+      for (Map.Entry<String, String> prefix : declaredPrefixes.entrySet()) {
+         table.put(prefix.getKey(), IRI.create(prefix.getValue()));
+      }
+      for (Namespaces ns : Namespaces.values()) {
+         table.put(ns.name().toLowerCase() + ":", IRI.create(ns.toString()));
+      }
+      this.prefixes = Collections.unmodifiableMap(table);
+   }
+
+   /**
+    * Returns the prefix table of the active ontology of the given model manager. The
+    * kept table is checked by identity of the ontology and its format only.
+    */
+   public static PrefixTable getActiveTable(OWLModelManager modelManager)
+   {
+      OWLOntology activeOntology = modelManager.getActiveOntology();
+      OWLDocumentFormat format = modelManager.getOWLOntologyManager().getOntologyFormat(activeOntology);
+      PrefixTable table = activeTable;
+      if (table == null || table.ontology != activeOntology || table.format != format) {
+         table = new PrefixTable(activeOntology, format, getDeclaredPrefixes(format));
+         activeTable = table;
+      }
+      return table;
+   }
+
+   /**
+    * Drops the kept table, so the next call to {@link #getActiveTable(OWLModelManager)}
+    * reads the declared prefixes again.
+    */
+   public static void invalidate()
+   {
+      activeTable = null;
+   }
+
+   private static Map<String, String> getDeclaredPrefixes(OWLDocumentFormat format)
+   {
+      if (format != null && format.isPrefixOWLOntologyFormat()) {
+         PrefixDocumentFormat prefixFormat = format.asPrefixOWLOntologyFormat();
+         return prefixFormat.getPrefixName2PrefixMap();
+      }
+      return Collections.emptyMap();
+   }
+
+   /**
+    * Returns the prefix IRI of the given prefixed name, or an empty value if the name
+    * has no prefix label or the label is unknown.
+    */
+   public Optional<IRI> getPrefix(String prefixedName)
+   {
+      int colonIndex = prefixedName.indexOf(':');
+      if (colonIndex <= 0) {
+         return Optional.empty();
+      }
+      return Optional.ofNullable(prefixes.get(prefixedName.substring(0, colonIndex + 1)));
+   }
+
+   /**
+    * Returns whether the given name starts with a known prefix label.
+    */
+   public boolean isPrefixedName(String entityName)
+   {
+      return getPrefix(entityName).isPresent();
+   }
+
+   /**
+    * Returns the full IRI of the given prefixed name.
+    *
+    * @throws IllegalArgumentException If the prefix label of the name is unknown.
+    */
+   public IRI expand(String prefixedName)
+   {
+      Optional<IRI> prefix = getPrefix(prefixedName);
+      if (prefix.isPresent()) {
+         return IRI.create(prefix.get().toString() + getLocalName(prefixedName));
+      }
+      throw new IllegalArgumentException("Missing required prefix");
+   }
+
+   public static String getLocalName(String prefixedName)
+   {
+      int colonIndex = prefixedName.indexOf(':');
+      if (colonIndex >= 0) {
+         return prefixedName.substring(colonIndex + 1);
+      }
+      return prefixedName;
+   }
+}
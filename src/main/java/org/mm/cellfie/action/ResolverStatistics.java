@@ -0,0 +1,155 @@
+package org.mm.cellfie.action;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The counters and latency histograms of an entity resolver: how many names were
+ * looked up and created, where the entities were found and how long the calls took.
+ * The statistics can be updated from many threads at once.
+ */
+public class ResolverStatistics
+{
+   private final LongAdder lookups = new LongAdder();
+   private final LongAdder creations = new LongAdder();
+   private final LongAdder signatureHits = new LongAdder();
+   private final LongAdder labelHits = new LongAdder();
+   private final LongAdder builtInHits = new LongAdder();
+   private final LongAdder cacheHits = new LongAdder();
+   private final LongAdder misses = new LongAdder();
+
+   private final LatencyHistogram lookupLatency = new LatencyHistogram();
+   private final LatencyHistogram creationLatency = new LatencyHistogram();
+
+   /**
+    * Records a lookup that started at the given {@link System#nanoTime()}.
+    */
+   public void recordLookup(long startTime)
+   {
+      lookups.increment();
+      lookupLatency.record(System.nanoTime() - startTime);
+   }
+
+   /**
+    * Records a creation request that started at the given {@link System#nanoTime()}.
+    * Requests answered with an existing entity count as well.
+    */
+   public void recordCreation(long startTime)
+   {
+      creations.increment();
+      creationLatency.record(System.nanoTime() - startTime);
+   }
+
+   public void countSignatureHit()
+   {
+      signatureHits.increment();
+   }
+
+   public void countLabelHit()
+   {
+      labelHits.increment();
+   }
+
+   public void countBuiltInHit()
+   {
+      builtInHits.increment();
+   }
+
+   public void countCacheHit()
+   {
+      cacheHits.increment();
+   }
+
+   public void countMiss()
+   {
+      misses.increment();
+   }
+
+   public long getLookupCount()
+   {
+      return lookups.sum();
+   }
+
+   public long getCreationCount()
+   {
+      return creations.sum();
+   }
+
+   public long getSignatureHitCount()
+   {
+      return signatureHits.sum();
+   }
+
+   public long getLabelHitCount()
+   {
+      return labelHits.sum();
+   }
+
+   public long getBuiltInHitCount()
+   {
+      return builtInHits.sum();
+   }
+
+   /**
+    * Returns the number of calls answered from the resolver caches, i.e., known misses,
+    * entities created earlier in the run and entities kept in a resolution cache.
+    */
+   public long getCacheHitCount()
+   {
+      return cacheHits.sum();
+   }
+
+   public long getMissCount()
+   {
+      return misses.sum();
+   }
+
+   /**
+    * Returns the fraction of the lookups that found an entity, or 1 if there was no
+    * lookup.
+    */
+   public double getHitRatio()
+   {
+      long lookupCount = getLookupCount();
+      return lookupCount == 0 ? 1 : (double) (lookupCount - getMissCount()) / lookupCount;
+   }
+
+   public LatencyHistogram getLookupLatency()
+   {
+      return lookupLatency;
+   }
+
+   public LatencyHistogram getCreationLatency()
+   {
+      return creationLatency;
+   }
+
+   /**
+    * Returns a one-line summary of the lookups, their hit ratio and latency.
+    */
+   public String getShortSummary()
+   {
+      return String.format("%,d lookups (%.1f%% found), %,d creations, total resolution time %s", getLookupCount(),
+            getHitRatio() * 100, getCreationCount(), LatencyHistogram.formatNanos(getTotalNanos()));
+   }
+
+   /**
+    * Returns the summary lines of all the counters and histograms.
+    */
+   public List<String> getSummary()
+   {
+      return Arrays.asList(
+            String.format("Entity resolution: %,d lookups, %,d creations, %,d found in the ontology signature,"
+                  + " %,d found by label, %,d built-in names, %,d cache hits, %,d misses (%.1f%% of the lookups found)",
+                  getLookupCount(), getCreationCount(), getSignatureHitCount(), getLabelHitCount(), getBuiltInHitCount(),
+                  getCacheHitCount(), getMissCount(), getHitRatio() * 100),
+            "Lookup latency: " + lookupLatency,
+            "Creation latency: " + creationLatency);
+   }
+
+   private long getTotalNanos()
+   {
+      return lookupLatency.getTotalNanos() + creationLatency.getTotalNanos();
+   }
+}
@@ -0,0 +1,73 @@
+package org.mm.cellfie.action;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import org.semanticweb.owlapi.model.OWLEntity;
+
+/**
+ * An immutable copy of the signature of the active ontologies, indexed by the entity
+ * rendering the Protege entity finder matches names against. Lookups do not touch the
+ * Protege model, so the snapshot can be read from many threads at once and gives the
+ * same answers for the whole generation run, whatever happens to the ontology in the
+ * meantime.
+ * <p>
+ * The snapshot is meant to be kept between runs and dropped together with the
+ * {@link OntologyTerms} it was built from.
+ */
+public class SignatureSnapshot
+{
+   private static final OWLEntity[] NO_ENTITIES = new OWLEntity[0];
+
+   private final Map<String, OWLEntity[]> entitiesByName;
+   private final int entityCount;
+
+   private SignatureSnapshot(Map<String, OWLEntity[]> entitiesByName, int entityCount)
+   {
+      this.entitiesByName = entitiesByName;
+      this.entityCount = entityCount;
+   }
+
+   /**
+    * Indexes the signature of the given ontology terms by entity rendering.
+    */
+   public static SignatureSnapshot create(OntologyTerms terms)
+   {
+      Map<String, OWLEntity[]> entitiesByName = new HashMap<>(terms.getEntityCount() * 4 / 3 + 1);
+      for (int i = 0; i < terms.getEntityCount(); i++) {
+         String name = terms.getRendering(i);
+         OWLEntity[] entities = entitiesByName.getOrDefault(name, NO_ENTITIES);
+         entities = Arrays.copyOf(entities, entities.length + 1); // punned names are rare
+         entities[entities.length - 1] = terms.getEntity(i);
+         entitiesByName.put(name, entities);
+      }
+      return new SignatureSnapshot(entitiesByName, terms.getEntityCount());
+   }
+
+   /**
+    * Returns the entity with the given name, preferring the one of the given type when
+    * the name is punned.
+    *
+    * @throws ClassCastException If the entity with the given name has another type.
+    */
+   public <T extends OWLEntity> Optional<T> find(String entityName, Class<T> entityType)
+   {
+      OWLEntity[] entities = entitiesByName.get(entityName);
+      if (entities == null) {
+         return Optional.empty();
+      }
+      for (OWLEntity entity : entities) {
+         if (entityType.isInstance(entity)) {
+            return Optional.of(entityType.cast(entity));
+         }
+      }
+      return Optional.of(entityType.cast(entities[0]));
+   }
+
+   public int size()
+   {
+      return entityCount;
+   }
+}
@@ -0,0 +1,165 @@
+package org.mm.cellfie.action;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.semanticweb.owlapi.model.IRI;
+
+/**
+ * A trigram index over the entity renderings and {@code rdfs:label} values of the
+ * active ontologies, used to suggest the entities whose names are closest to a name
+ * that could not be resolved. A query only visits the terms that share a trigram with
+ * the name, so it stays fast on large ontologies.
+ * <p>
+ * Terms are normalized with {@link LabelIndex#normalize(String)}, which ignores case
+ * and extra white space, and the similarity of two terms is the Dice coefficient of
+ * their trigram sets.
+ */
+public class SuggestionIndex
+{
+   private static final double MIN_SIMILARITY = 0.3;
+
+   private final String[] names;
+   private final int[] gramCounts;
+   private final Map<Long, int[]> postings;
+
+   private SuggestionIndex(String[] names, int[] gramCounts, Map<Long, int[]> postings)
+   {
+      this.names = names;
+      this.gramCounts = gramCounts;
+      this.postings = postings;
+   }
+
+   /**
+    * Builds the suggestion index of the given ontology terms. A label is suggested as
+    * the rendering of the entity it labels.
+    */
+   public static SuggestionIndex build(OntologyTerms terms)
+   {
+      Map<IRI, String> renderingsByIri = new HashMap<>();
+      Map<String, String> namesByTerm = new LinkedHashMap<>();
+      for (int i = 0; i < terms.getEntityCount(); i++) {
+         String rendering = terms.getRendering(i);
+         renderingsByIri.putIfAbsent(terms.getEntity(i).getIRI(), rendering);
+         namesByTerm.putIfAbsent(LabelIndex.normalize(rendering), rendering);
+      }
+      for (int i = 0; i < terms.getLabelCount(); i++) {
+         String rendering = renderingsByIri.get(terms.getLabelSubject(i));
+         if (rendering != null) {
+            namesByTerm.putIfAbsent(LabelIndex.normalize(terms.getLabel(i).getLiteral()), rendering);
+         }
+      }
+      String[] names = new String[namesByTerm.size()];
+      int[] gramCounts = new int[names.length];
+      Map<Long, PostingList> postingLists = new HashMap<>();
+      int termIndex = 0;
+      for (Map.Entry<String, String> entry : namesByTerm.entrySet()) {
+         long[] grams = getTrigrams(entry.getKey());
+         for (long gram : grams) {
+            postingLists.computeIfAbsent(gram, g -> new PostingList()).add(termIndex);
+         }
+         names[termIndex] = entry.getValue();
+         gramCounts[termIndex] = grams.length;
+         termIndex++;
+      }
+      Map<Long, int[]> postings = new HashMap<>(postingLists.size() * 4 / 3 + 1);
+      for (Map.Entry<Long, PostingList> entry : postingLists.entrySet()) {
+         postings.put(entry.getKey(), entry.getValue().toArray());
+      }
+      return new SuggestionIndex(names, gramCounts, postings);
+   }
+
+   /**
+    * Returns the names of the entities closest to the given name, best match first.
+    *
+    * @param name
+    *          The name that could not be resolved.
+    * @param limit
+    *          The maximum number of suggestions.
+    * @return The entity renderings, without duplicates.
+    */
+   public List<String> suggest(String name, int limit)
+   {
+      long[] grams = getTrigrams(LabelIndex.normalize(name));
+      int[] sharedCounts = new int[names.length];
+      PostingList candidates = new PostingList();
+      for (long gram : grams) {
+         int[] terms = postings.get(gram);
+         if (terms == null) {
+            continue;
+         }
+         for (int term : terms) {
+            if (sharedCounts[term]++ == 0) {
+               candidates.add(term);
+            }
+         }
+      }
+      Map<String, Double> scoresByName = new HashMap<>();
+      for (int term : candidates.toArray()) {
+         double score = 2.0 * sharedCounts[term] / (grams.length + gramCounts[term]);
+         if (score >= MIN_SIMILARITY) {
+            scoresByName.merge(names[term], score, Math::max);
+         }
+      }
+      List<Map.Entry<String, Double>> ranked = new ArrayList<>(scoresByName.entrySet());
+      ranked.sort(Map.Entry.<String, Double> comparingByValue().reversed()
+            .thenComparing(Map.Entry.comparingByKey()));
+      List<String> suggestions = new ArrayList<>(Math.min(limit, ranked.size()));
+      for (int i = 0; i < ranked.size() && i < limit; i++) {
+         suggestions.add(ranked.get(i).getKey());
+      }
+      return suggestions;
+   }
+
+   public int size()
+   {
+      return names.length;
+   }
+
+   /*
+    * Returns the distinct trigrams of the given term padded with one space on each
+    * side, each packed into a long.
+    */
+   private static long[] getTrigrams(String term)
+   {
+      String padded = " " + term + " ";
+      if (padded.length() < 3) {
+         return new long[0];
+      }
+      long[] grams = new long[padded.length() - 2];
+      for (int i = 0; i < grams.length; i++) {
+         grams[i] = ((long) padded.charAt(i) << 32) | ((long) padded.charAt(i + 1) << 16) | padded.charAt(i + 2);
+      }
+      Arrays.sort(grams);
+      int distinct = 0;
+      for (int i = 0; i < grams.length; i++) {
+         if (i == 0 || grams[i] != grams[i - 1]) {
+            grams[distinct++] = grams[i];
+         }
+      }
+      return Arrays.copyOf(grams, distinct);
+   }
+
+   private static class PostingList
+   {
+      private int[] terms = new int[4];
+      private int size;
+
+      void add(int term)
+      {
+         if (size == terms.length) {
+            terms = Arrays.copyOf(terms, size * 2);
+         }
+         terms[size++] = term;
+      }
+
+      int[] toArray()
+      {
+         return Arrays.copyOf(terms, size);
+      }
+   }
+}
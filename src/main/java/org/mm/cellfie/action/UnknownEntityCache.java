@@ -0,0 +1,55 @@
+package org.mm.cellfie.action;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.mm.cellfie.action.ConcurrentEntityResolver.EntityKey;
+
+/**
+ * Remembers the names that an entity resolver could not find, keyed by entity name and
+ * entity type, with the exception thrown for them. A name that repeats over many cells
+ * is then rejected without another lookup and without a new exception.
+ * <p>
+ * The cache keeps at most {@link #MAX_SIZE} names and can be used from several threads.
+ * It is never cleared by itself: the {@link ConcurrentEntityResolver} uses one per run
+ * over a fixed signature snapshot, and the {@link EntityResolutionCache} clears its own
+ * when the ontology changes.
+ */
+class UnknownEntityCache
+{
+   static final int MAX_SIZE = 100000;
+
+   private final ConcurrentMap<EntityKey, UnknownEntityException> unknownEntities = new ConcurrentHashMap<>();
+
+   boolean contains(String entityName, Class<?> entityType)
+   {
+      return unknownEntities.containsKey(new EntityKey(entityName, entityType));
+   }
+
+   void add(String entityName, Class<?> entityType)
+   {
+      if (unknownEntities.size() < MAX_SIZE) {
+         unknownEntities.putIfAbsent(new EntityKey(entityName, entityType), new UnknownEntityException(entityName));
+      }
+   }
+
+   /**
+    * Returns the exception kept for the given unknown name, or a new one if the name is
+    * not in the cache.
+    */
+   UnknownEntityException getException(String entityName, Class<?> entityType)
+   {
+      UnknownEntityException exception = unknownEntities.get(new EntityKey(entityName, entityType));
+      return exception != null ? exception : new UnknownEntityException(entityName);
+   }
+
+   void clear()
+   {
+      unknownEntities.clear();
+   }
+
+   int size()
+   {
+      return unknownEntities.size();
+   }
+}
@@ -0,0 +1,41 @@
+package org.mm.cellfie.action;
+
+import org.mm.exceptions.EntityNotFoundException;
+
+/**
+ * The not-found exception of the Cellfie entity resolvers. Misses are expected for
+ * sheets with many unknown names, so the exception skips the stack trace and one
+ * instance is shared by all the lookups of the same name, see
+ * {@link UnknownEntityCache}.
+ */
+public class UnknownEntityException extends EntityNotFoundException
+{
+   private static final long serialVersionUID = 1L;
+
+   private final String entityName;
+
+   UnknownEntityException(String entityName)
+   {
+      super(getMessage(entityName));
+      this.entityName = entityName;
+   }
+
+   /**
+    * Returns the entity name that could not be resolved.
+    */
+   public String getEntityName()
+   {
+      return entityName;
+   }
+
+   private static String getMessage(String entityName)
+   {
+      return String.format("The expected entity name '%s' does not exist in the ontology", entityName);
+   }
+
+   @Override
+   public synchronized Throwable fillInStackTrace()
+   {
+      return this;
+   }
+}
@@ -0,0 +1,315 @@
+package org.mm.cellfie.ss;
+
+import org.apache.poi.ss.usermodel.BuiltinFormats;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Color;
+import org.apache.poi.ss.usermodel.Font;
+import org.apache.poi.ss.usermodel.IndexedColors;
+
+/**
+ * The read-only style of the cells of a {@link WorkbookView} that share a number
+ * format. The stores only keep the number format of a cell, so the other attributes
+ * have their Excel defaults.
+ */
+class CellStyleView implements CellStyle
+{
+   private static final short AUTOMATIC_COLOR = IndexedColors.AUTOMATIC.getIndex();
+
+   private final WorkbookView workbookView;
+   private final short index;
+   private final short format;
+
+   CellStyleView(WorkbookView workbookView, short index, short format)
+   {
+      this.workbookView = workbookView;
+      this.index = index;
+      this.format = format;
+   }
+
+   @Override
+   public short getIndex()
+   {
+      return index;
+   }
+
+   @Override
+   public short getDataFormat()
+   {
+      return format;
+   }
+
+   @Override
+   public String getDataFormatString()
+   {
+      String formatString = workbookView.getFormatString(format);
+      return formatString != null ? formatString : BuiltinFormats.getBuiltinFormat(format);
+   }
+
+   @Override
+   public short getFontIndex()
+   {
+      return 0;
+   }
+
+   @Override
+   public boolean getHidden()
+   {
+      return false;
+   }
+
+   @Override
+   public boolean getLocked()
+   {
+      return true;
+   }
+
+   @Override
+   public short getAlignment()
+   {
+      return ALIGN_GENERAL;
+   }
+
+   @Override
+   public boolean getWrapText()
+   {
+      return false;
+   }
+
+   @Override
+   public short getVerticalAlignment()
+   {
+      return VERTICAL_BOTTOM;
+   }
+
+   @Override
+   public short getRotation()
+   {
+      return 0;
+   }
+
+   @Override
+   public short getIndention()
+   {
+      return 0;
+   }
+
+   @Override
+   public short getBorderLeft()
+   {
+      return BORDER_NONE;
+   }
+
+   @Override
+   public short getBorderRight()
+   {
+      return BORDER_NONE;
+   }
+
+   @Override
+   public short getBorderTop()
+   {
+      return BORDER_NONE;
+   }
+
+   @Override
+   public short getBorderBottom()
+   {
+      return BORDER_NONE;
+   }
+
+   @Override
+   public short getLeftBorderColor()
+   {
+      return AUTOMATIC_COLOR;
+   }
+
+   @Override
+   public short getRightBorderColor()
+   {
+      return AUTOMATIC_COLOR;
+   }
+
+   @Override
+   public short getTopBorderColor()
+   {
+      return AUTOMATIC_COLOR;
+   }
+
+   @Override
+   public short getBottomBorderColor()
+   {
+      return AUTOMATIC_COLOR;
+   }
+
+   @Override
+   public short getFillPattern()
+   {
+      return NO_FILL;
+   }
+
+   @Override
+   public short getFillBackgroundColor()
+   {
+      return AUTOMATIC_COLOR;
+   }
+
+   @Override
+   public Color getFillBackgroundColorColor()
+   {
+      return null;
+   }
+
+   @Override
+   public short getFillForegroundColor()
+   {
+      return AUTOMATIC_COLOR;
+   }
+
+   @Override
+   public Color getFillForegroundColorColor()
+   {
+      return null;
+   }
+
+   @Override
+   public boolean getShrinkToFit()
+   {
+      return false;
+   }
+
+   /*
+    * The style is read-only
+    */
+
+   @Override
+   public void setDataFormat(short format)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void setFont(Font font)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void setHidden(boolean hidden)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void setLocked(boolean locked)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void setAlignment(short alignment)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void setWrapText(boolean wrapped)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void setVerticalAlignment(short alignment)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void setRotation(short rotation)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void setIndention(short indent)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void setBorderLeft(short border)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void setBorderRight(short border)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void setBorderTop(short border)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void setBorderBottom(short border)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void setLeftBorderColor(short color)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void setRightBorderColor(short color)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void setTopBorderColor(short color)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void setBottomBorderColor(short color)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void setFillPattern(short pattern)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void setFillBackgroundColor(short color)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void setFillForegroundColor(short color)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void cloneStyleFrom(CellStyle source)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void setShrinkToFit(boolean shrinkToFit)
+   {
+      throw WorkbookView.readOnly();
+   }
+}
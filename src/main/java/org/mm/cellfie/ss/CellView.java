@@ -0,0 +1,332 @@
+package org.mm.cellfie.ss;
+
+import java.util.Calendar;
+import java.util.Date;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Comment;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.ss.usermodel.FormulaError;
+import org.apache.poi.ss.usermodel.Hyperlink;
+import org.apache.poi.ss.usermodel.RichTextString;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.util.CellRangeAddress;
+import org.apache.poi.xssf.usermodel.XSSFRichTextString;
+
+/**
+ * A read-only POI cell of a {@link RowView}. A formula cell has the formula cell type,
+ * and its value is the cached formula result, as in a POI workbook that is not
+ * evaluated. Rich text is returned in the xlsx flavor, since the store-backed
+ * workbooks are read from xlsx and text files.
+ */
+class CellView implements Cell
+{
+   private final RowView rowView;
+   private final SheetStore store;
+   private final int row;
+   private final int column;
+   private final int type;
+
+   CellView(RowView rowView, int column)
+   {
+      this.rowView = rowView;
+      this.column = column;
+      store = rowView.getStore();
+      row = rowView.getRowNum();
+      type = store.getType(row, column);
+   }
+
+   @Override
+   public int getCellType()
+   {
+      return store.hasFormula(row, column) ? CELL_TYPE_FORMULA : toCellType(type);
+   }
+
+   @Override
+   public int getCachedFormulaResultType()
+   {
+      if (!store.hasFormula(row, column)) {
+         throw new IllegalStateException("Only formula cells have cached results");
+      }
+      return toCellType(type);
+   }
+
+   private static int toCellType(int storeType)
+   {
+      switch (storeType) {
+         case SheetStore.STRING :
+            return CELL_TYPE_STRING;
+         case SheetStore.NUMBER :
+            return CELL_TYPE_NUMERIC;
+         case SheetStore.BOOLEAN :
+            return CELL_TYPE_BOOLEAN;
+         case SheetStore.ERROR :
+            return CELL_TYPE_ERROR;
+         default :
+            return CELL_TYPE_BLANK;
+      }
+   }
+
+   @Override
+   public String getCellFormula()
+   {
+      if (!store.hasFormula(row, column)) {
+         throw new IllegalStateException("Cannot get a formula value from a " + getTypeName(type) + " cell");
+      }
+      return store.getFormula(row, column);
+   }
+
+   @Override
+   public String getStringCellValue()
+   {
+      if (type == SheetStore.BLANK) {
+         return "";
+      }
+      checkType(SheetStore.STRING, "text");
+      return store.getString(row, column);
+   }
+
+   @Override
+   public RichTextString getRichStringCellValue()
+   {
+      return new XSSFRichTextString(getStringCellValue());
+   }
+
+   @Override
+   public double getNumericCellValue()
+   {
+      if (type == SheetStore.BLANK) {
+         return 0.0;
+      }
+      checkType(SheetStore.NUMBER, "numeric");
+      return store.getNumber(row, column);
+   }
+
+   @Override
+   public Date getDateCellValue()
+   {
+      if (type == SheetStore.BLANK) {
+         return null;
+      }
+      return DateUtil.getJavaDate(getNumericCellValue());
+   }
+
+   @Override
+   public boolean getBooleanCellValue()
+   {
+      if (type == SheetStore.BLANK) {
+         return false;
+      }
+      checkType(SheetStore.BOOLEAN, "boolean");
+      return store.getBoolean(row, column);
+   }
+
+   @Override
+   public byte getErrorCellValue()
+   {
+      checkType(SheetStore.ERROR, "error");
+      return FormulaError.forString(store.getString(row, column)).getCode();
+   }
+
+   @Override
+   public CellStyle getCellStyle()
+   {
+      short format = type == SheetStore.NUMBER ? store.getNumberFormat(row, column) : 0;
+      return ((SheetView) rowView.getSheet()).getWorkbookView().getCellStyle(format);
+   }
+
+   @Override
+   public int getColumnIndex()
+   {
+      return column;
+   }
+
+   @Override
+   public int getRowIndex()
+   {
+      return row;
+   }
+
+   @Override
+   public Row getRow()
+   {
+      return rowView;
+   }
+
+   @Override
+   public Sheet getSheet()
+   {
+      return rowView.getSheet();
+   }
+
+   @Override
+   public Comment getCellComment()
+   {
+      return null;
+   }
+
+   @Override
+   public Hyperlink getHyperlink()
+   {
+      return null;
+   }
+
+   @Override
+   public CellRangeAddress getArrayFormulaRange()
+   {
+      throw new IllegalStateException("The cell is not part of an array formula");
+   }
+
+   @Override
+   public boolean isPartOfArrayFormulaGroup()
+   {
+      return false;
+   }
+
+   private void checkType(int expectedType, String valueKind)
+   {
+      if (type != expectedType) {
+         throw new IllegalStateException(
+               String.format("Cannot get a %s value from a %s cell", valueKind, getTypeName(type)));
+      }
+   }
+
+   private static String getTypeName(int storeType)
+   {
+      switch (storeType) {
+         case SheetStore.STRING :
+            return "text";
+         case SheetStore.NUMBER :
+            return "numeric";
+         case SheetStore.BOOLEAN :
+            return "boolean";
+         case SheetStore.ERROR :
+            return "error";
+         default :
+            return "blank";
+      }
+   }
+
+   /*
+    * The cell is read-only
+    */
+
+   @Override
+   public void setCellType(int cellType)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void setCellValue(double value)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void setCellValue(Date value)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void setCellValue(Calendar value)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void setCellValue(RichTextString value)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void setCellValue(String value)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void setCellValue(boolean value)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void setCellFormula(String formula)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void setCellErrorValue(byte value)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void setCellStyle(CellStyle style)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void setAsActiveCell()
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void setCellComment(Comment comment)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void removeCellComment()
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void setHyperlink(Hyperlink link)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   public void removeHyperlink()
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public boolean equals(Object obj)
+   {
+      return obj instanceof CellView && ((CellView) obj).rowView.equals(rowView) && ((CellView) obj).column == column;
+   }
+
+   @Override
+   public int hashCode()
+   {
+      return rowView.hashCode() * 31 + column;
+   }
+
+   @Override
+   public String toString()
+   {
+      switch (type) {
+         case SheetStore.STRING :
+         case SheetStore.ERROR :
+            return store.getString(row, column);
+         case SheetStore.NUMBER :
+            return String.valueOf(store.getNumber(row, column));
+         case SheetStore.BOOLEAN :
+            return store.getBoolean(row, column) ? "TRUE" : "FALSE";
+         default :
+            return "";
+      }
+   }
+}
@@ -0,0 +1,367 @@
+package org.mm.cellfie.ss;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import org.apache.poi.ss.usermodel.Workbook;
+
+/**
+ * Opens a CSV or TSV file as a workbook with a single sheet, named after the file.
+ * The file is memory-mapped and split into chunks that are parsed in parallel, each
+ * into its own {@link SheetStore}; the chunks are then joined in file order.
+ * <p>
+ * CSV fields follow RFC 4180: a field may be enclosed in double quotes, in which case
+ * it may hold delimiters, line breaks and doubled quotes. TSV fields are never quoted.
+ * <p>
+ * The cell types are inferred like a spreadsheet application does when it imports the
+ * file, so rules see the same cells as for the data saved as a workbook. An unquoted
+ * field that is a decimal number is a number cell in the general format, and
+ * {@code TRUE} or {@code FALSE} in any case is a boolean cell. Numbers with leading zeros
+ * or with more digits than a double holds stay text, so codes and identifiers are kept
+ * as written. Quoted fields are always text and empty fields are blank cells. The file
+ * must be encoded in UTF-8.
+ */
+public class DelimitedWorkbook
+{
+   private static final long MIN_CHUNK_SIZE = 1L << 20;
+   private static final long MAX_CHUNK_SIZE = 64L << 20;
+
+   private static final byte QUOTE = '"';
+
+   private static final int MAX_NUMBER_DIGITS = 15;
+   private static final int MAX_EXPONENT = 300;
+
+   /*
+    * Each chunk remembers the strings it has added, up to this many, to spare most
+    * lookups in the shared string table
+    */
+   private static final int MAX_CACHED_STRINGS = 1 << 16;
+
+   private final FileChannel channel;
+   private final long size;
+   private final byte delimiter;
+   private final boolean quoted;
+   private final StringTable strings = new StringTable(new String[0]);
+
+   private DelimitedWorkbook(FileChannel channel, byte delimiter, boolean quoted) throws IOException
+   {
+      this.channel = channel;
+      this.size = channel.size();
+      this.delimiter = delimiter;
+      this.quoted = quoted;
+   }
+
+   /**
+    * Reads the given CSV or TSV file. Files ending with {@code .tsv} or {@code .tab}
+    * are separated by tabs, all others by commas.
+    *
+    * @param file
+    *          The delimited text file.
+    * @return A read-only workbook with one sheet.
+    * @throws IOException
+    *           If the file cannot be read.
+    */
+   public static Workbook open(File file) throws IOException
+   {
+      String sheetName = getSheetName(file);
+      boolean tabs = isTabSeparated(file);
+      SheetStore store;
+      try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+         store = new DelimitedWorkbook(channel, (byte) (tabs ? '\t' : ','), !tabs).read(sheetName);
+      }
+      return WorkbookView.create(Collections.singletonList(sheetName), sheetIndex -> store,
+            Collections.emptyMap(), () -> {});
+   }
+
+   /**
+    * Returns whether the given file is read as a delimited text file.
+    */
+   public static boolean isDelimited(File file)
+   {
+      String name = file.getName().toLowerCase();
+      return name.endsWith(".csv") || isTabSeparated(file);
+   }
+
+   private static boolean isTabSeparated(File file)
+   {
+      String name = file.getName().toLowerCase();
+      return name.endsWith(".tsv") || name.endsWith(".tab");
+   }
+
+   private static String getSheetName(File file)
+   {
+      String name = file.getName();
+      int dot = name.lastIndexOf('.');
+      return dot > 0 ? name.substring(0, dot) : name;
+   }
+
+   private SheetStore read(String sheetName) throws IOException
+   {
+      long[] boundaries = findRecordBoundaries();
+      List<CompletableFuture<SheetStore>> parts = new ArrayList<>();
+      for (int i = 0; i + 1 < boundaries.length; i++) {
+         if (boundaries[i + 1] - boundaries[i] > Integer.MAX_VALUE) {
+            throw new IOException("A record is too long near byte " + boundaries[i]);
+         }
+         MappedByteBuffer region = map(boundaries[i], boundaries[i + 1] - boundaries[i]);
+         parts.add(CompletableFuture.supplyAsync(() -> parse(sheetName, region)));
+      }
+      SheetStore.Builder builder = new SheetStore.Builder(sheetName, strings);
+      int rowOffset = 0;
+      for (CompletableFuture<SheetStore> part : parts) {
+         SheetStore store = join(part);
+         store.copyTo(builder, rowOffset);
+         rowOffset += store.getRowCount();
+      }
+      return builder.build();
+   }
+
+   /*
+    * Splits the file into chunks that start at a record. Each chunk is first scanned in
+    * parallel for its quotes and its first line breaks; whether a chunk starts inside a
+    * quoted field then follows from the quotes of the chunks before it. Returns the
+    * start of each chunk followed by the file size.
+    */
+   private long[] findRecordBoundaries() throws IOException
+   {
+      long start = hasByteOrderMark() ? 3 : 0;
+      int processors = Runtime.getRuntime().availableProcessors();
+      long chunkSize = Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, (size - start) / (4 * processors)));
+      int chunkCount = (int) Math.max(1, (size - start + chunkSize - 1) / chunkSize);
+
+      List<CompletableFuture<ChunkScan>> scans = new ArrayList<>();
+      for (int i = 0; i < chunkCount; i++) {
+         long from = start + i * chunkSize;
+         MappedByteBuffer chunk = map(from, Math.min(chunkSize, size - from));
+         scans.add(CompletableFuture.supplyAsync(() -> scan(chunk, from)));
+      }
+      long[] boundaries = new long[chunkCount + 1];
+      boundaries[0] = start;
+      boundaries[chunkCount] = size;
+      int[] startsInQuotes = new int[chunkCount];
+      for (int i = 1; i < chunkCount; i++) {
+         startsInQuotes[i] = (int) ((startsInQuotes[i - 1] + join(scans.get(i - 1)).quoteCount) & 1);
+      }
+      for (int i = chunkCount - 1; i > 0; i--) { // a chunk without a record start joins the previous one
+         long lineBreak = join(scans.get(i)).firstLineBreak[startsInQuotes[i]];
+         boundaries[i] = lineBreak >= 0 ? lineBreak + 1 : boundaries[i + 1];
+      }
+      return boundaries;
+   }
+
+   private boolean hasByteOrderMark() throws IOException
+   {
+      if (size < 3) {
+         return false;
+      }
+      MappedByteBuffer head = map(0, 3);
+      return (head.get(0) & 0xff) == 0xef && (head.get(1) & 0xff) == 0xbb && (head.get(2) & 0xff) == 0xbf;
+   }
+
+   private MappedByteBuffer map(long position, long length) throws IOException
+   {
+      return channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+   }
+
+   /*
+    * Counts the quotes of a chunk and finds its first line break after an even and
+    * after an odd number of quotes
+    */
+   private ChunkScan scan(MappedByteBuffer chunk, long offset)
+   {
+      ChunkScan result = new ChunkScan();
+      int limit = chunk.limit();
+      for (int i = 0; i < limit; i++) {
+         byte b = chunk.get(i);
+         if (b == QUOTE && quoted) {
+            result.quoteCount++;
+         } else if (b == '\n') {
+            int parity = (int) (result.quoteCount & 1);
+            if (result.firstLineBreak[parity] < 0) {
+               result.firstLineBreak[parity] = offset + i;
+            }
+            if (!quoted) {
+               break; // without quotes, every line break ends a record
+            }
+         }
+      }
+      return result;
+   }
+
+   /*
+    * Parses the records of a chunk, numbering its rows from 0
+    */
+   private SheetStore parse(String sheetName, MappedByteBuffer region)
+   {
+      SheetStore.Builder builder = new SheetStore.Builder(sheetName, strings);
+      Map<String, Integer> stringIndexes = new HashMap<>();
+      byte[] field = new byte[256];
+      int limit = region.limit();
+      int pos = 0;
+      int row = 0;
+      while (pos < limit) {
+         builder.startRow(row++);
+         int column = 0;
+         boolean endOfRecord = false;
+         while (!endOfRecord) {
+            int length = 0;
+            int quotedLength = -1; // the length of the quoted part, if there is one
+            if (quoted && pos < limit && region.get(pos) == QUOTE) {
+               pos++;
+               while (pos < limit) {
+                  byte b = region.get(pos++);
+                  if (b == QUOTE) {
+                     if (pos < limit && region.get(pos) == QUOTE) {
+                        pos++; // a doubled quote stands for one quote
+                     } else {
+                        break;
+                     }
+                  }
+                  field = append(field, length++, b);
+               }
+               quotedLength = length;
+            }
+            while (pos < limit && region.get(pos) != delimiter && region.get(pos) != '\n') {
+               field = append(field, length++, region.get(pos++));
+            }
+            if (length > Math.max(0, quotedLength) && field[length - 1] == '\r'
+                  && (pos == limit || region.get(pos) == '\n')) {
+               length--; // the carriage return of a CRLF line break, outside the quotes
+            }
+            endOfRecord = pos == limit || region.get(pos) == '\n';
+            pos++;
+            if (quotedLength < 0 && isNumber(field, length)) {
+               builder.addNumber(column, Double.parseDouble(new String(field, 0, length, StandardCharsets.US_ASCII)),
+                     (short) 0);
+            } else if (quotedLength < 0 && isBoolean(field, length)) {
+               builder.addBoolean(column, length == 4);
+            } else if (length > 0) {
+               builder.addString(column, getStringIndex(new String(field, 0, length, StandardCharsets.UTF_8),
+                     stringIndexes));
+            }
+            column++;
+         }
+      }
+      return builder.build();
+   }
+
+   /*
+    * Returns whether the field is a decimal number: an optional minus sign, digits
+    * without a leading zero, an optional fraction and an optional exponent
+    */
+   static boolean isNumber(byte[] field, int length)
+   {
+      int pos = length > 0 && field[0] == '-' ? 1 : 0;
+      int integerStart = pos;
+      while (pos < length && isDigit(field[pos])) {
+         pos++;
+      }
+      int integerDigits = pos - integerStart;
+      if (integerDigits > 1 && field[integerStart] == '0') {
+         return false; // a code such as 007
+      }
+      int fractionDigits = 0;
+      if (pos < length && field[pos] == '.') {
+         int fractionStart = ++pos;
+         while (pos < length && isDigit(field[pos])) {
+            pos++;
+         }
+         fractionDigits = pos - fractionStart;
+         if (fractionDigits == 0) {
+            return false;
+         }
+      }
+      int significantDigits = (integerDigits == 1 && field[integerStart] == '0' ? 0 : integerDigits) + fractionDigits;
+      if (integerDigits + fractionDigits == 0 || significantDigits > MAX_NUMBER_DIGITS) {
+         return false;
+      }
+      if (pos < length && (field[pos] == 'e' || field[pos] == 'E')) {
+         pos++;
+         if (pos < length && (field[pos] == '+' || field[pos] == '-')) {
+            pos++;
+         }
+         int exponent = 0;
+         int exponentStart = pos;
+         while (pos < length && isDigit(field[pos]) && exponent <= MAX_EXPONENT) {
+            exponent = exponent * 10 + field[pos++] - '0';
+         }
+         if (pos == exponentStart || exponent > MAX_EXPONENT) {
+            return false;
+         }
+      }
+      return pos == length;
+   }
+
+   private static boolean isDigit(byte b)
+   {
+      return b >= '0' && b <= '9';
+   }
+
+   /*
+    * Returns whether the field is TRUE or FALSE, in any case
+    */
+   static boolean isBoolean(byte[] field, int length)
+   {
+      return equalsIgnoreCase(field, length, "TRUE") || equalsIgnoreCase(field, length, "FALSE");
+   }
+
+   private static boolean equalsIgnoreCase(byte[] field, int length, String word)
+   {
+      if (length != word.length()) {
+         return false;
+      }
+      for (int i = 0; i < length; i++) {
+         if (Character.toUpperCase((char) field[i]) != word.charAt(i)) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   private int getStringIndex(String value, Map<String, Integer> stringIndexes)
+   {
+      Integer index = stringIndexes.get(value);
+      if (index == null) {
+         index = strings.add(value);
+         if (stringIndexes.size() == MAX_CACHED_STRINGS) {
+            stringIndexes.clear();
+         }
+         stringIndexes.put(value, index);
+      }
+      return index;
+   }
+
+   private static byte[] append(byte[] buffer, int index, byte b)
+   {
+      byte[] result = index < buffer.length ? buffer : Arrays.copyOf(buffer, buffer.length * 2);
+      result[index] = b;
+      return result;
+   }
+
+   private static <T> T join(CompletableFuture<T> future) throws IOException
+   {
+      try {
+         return future.join();
+      } catch (CompletionException e) {
+         throw new IOException("Error while reading delimited file: " + e.getCause().getMessage(), e.getCause());
+      }
+   }
+
+   private static class ChunkScan
+   {
+      private long quoteCount;
+      private final long[] firstLineBreak = { -1, -1 };
+   }
+}
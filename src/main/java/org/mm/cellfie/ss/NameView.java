@@ -0,0 +1,142 @@
+package org.mm.cellfie.ss;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.poi.ss.usermodel.Name;
+
+/**
+ * A read-only defined name of a {@link WorkbookView}, as it was read from the workbook.
+ */
+class NameView implements Name
+{
+   private static final Pattern SHEET_REFERENCE = Pattern.compile("^(?:'((?:[^']|'')+)'|([^'!(),\\s]+))!");
+
+   private final String name;
+   private final int sheetIndex;
+   private final String sheetName;
+   private final String refersToFormula;
+   private final String comment;
+   private final boolean function;
+
+   /**
+    * @param name
+    *          The name.
+    * @param sheetIndex
+    *          The index of the sheet the name is local to, -1 for a name of the workbook.
+    * @param sheetName
+    *          The name of the sheet the name is local to, or else of the sheet its
+    *          formula refers to, null if there is none.
+    * @param refersToFormula
+    *          The formula of the name.
+    * @param comment
+    *          The comment of the name, null if it has none.
+    * @param function
+    *          Whether the name is a function name.
+    */
+   NameView(String name, int sheetIndex, String sheetName, String refersToFormula, String comment,
+         boolean function)
+   {
+      this.name = name;
+      this.sheetIndex = sheetIndex;
+      this.sheetName = sheetName;
+      this.refersToFormula = refersToFormula;
+      this.comment = comment;
+      this.function = function;
+   }
+
+   /**
+    * Returns the sheet that a formula starts with a reference to, e.g. {@code Data} for
+    * {@code Data!$A$1:$B$9}, null if it does not start with a sheet reference.
+    */
+   static String getReferencedSheet(String formula)
+   {
+      Matcher matcher = SHEET_REFERENCE.matcher(formula);
+      if (!matcher.find()) {
+         return null;
+      }
+      return matcher.group(1) != null ? matcher.group(1).replace("''", "'") : matcher.group(2);
+   }
+
+   @Override
+   public String getNameName()
+   {
+      return name;
+   }
+
+   @Override
+   public int getSheetIndex()
+   {
+      return sheetIndex;
+   }
+
+   @Override
+   public String getSheetName()
+   {
+      return sheetName;
+   }
+
+   @Override
+   public String getRefersToFormula()
+   {
+      return refersToFormula;
+   }
+
+   @Override
+   public String getComment()
+   {
+      return comment;
+   }
+
+   @Override
+   public boolean isFunctionName()
+   {
+      return function;
+   }
+
+   @Override
+   public boolean isDeleted()
+   {
+      return refersToFormula.contains("#REF!");
+   }
+
+   /*
+    * The name is read-only
+    */
+
+   @Override
+   public void setNameName(String name)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void setRefersToFormula(String formulaText)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void setSheetIndex(int sheetId)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void setComment(String comment)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void setFunction(boolean value)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public String toString()
+   {
+      return name + "=" + refersToFormula;
+   }
+}
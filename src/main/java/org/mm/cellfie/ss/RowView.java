@@ -0,0 +1,242 @@
+package org.mm.cellfie.ss;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+
+/**
+ * A read-only POI row of a {@link SheetView}, reading the store the sheet had when the
+ * row was got.
+ */
+class RowView implements Row
+{
+   private static final short DEFAULT_ROW_HEIGHT = 300; // in twips
+
+   private final SheetView sheet;
+   private final SheetStore store;
+   private final int row;
+
+   RowView(SheetView sheet, SheetStore store, int row)
+   {
+      this.sheet = sheet;
+      this.store = store;
+      this.row = row;
+   }
+
+   SheetStore getStore()
+   {
+      return store;
+   }
+
+   @Override
+   public int getRowNum()
+   {
+      return row;
+   }
+
+   @Override
+   public Sheet getSheet()
+   {
+      return sheet;
+   }
+
+   @Override
+   public Cell getCell(int column)
+   {
+      return store.isBlank(row, column) ? null : new CellView(this, column);
+   }
+
+   @Override
+   public Cell getCell(int column, MissingCellPolicy policy)
+   {
+      Cell cell = getCell(column);
+      if (cell == null && policy == Row.CREATE_NULL_AS_BLANK) {
+         return new CellView(this, column);
+      }
+      return cell;
+   }
+
+   @Override
+   public short getFirstCellNum()
+   {
+      int cellCount = store.getCellCount(row);
+      for (int column = 0; column < cellCount; column++) {
+         if (!store.isBlank(row, column)) {
+            return (short) column;
+         }
+      }
+      return -1;
+   }
+
+   @Override
+   public short getLastCellNum()
+   {
+      int cellCount = store.getCellCount(row);
+      return cellCount == 0 ? -1 : (short) cellCount;
+   }
+
+   @Override
+   public int getPhysicalNumberOfCells()
+   {
+      int count = 0;
+      int cellCount = store.getCellCount(row);
+      for (int column = 0; column < cellCount; column++) {
+         if (!store.isBlank(row, column)) {
+            count++;
+         }
+      }
+      return count;
+   }
+
+   @Override
+   public Iterator<Cell> cellIterator()
+   {
+      final int cellCount = store.getCellCount(row);
+      return new Iterator<Cell>()
+      {
+         private int nextColumn = findColumn(0);
+
+         @Override
+         public boolean hasNext()
+         {
+            return nextColumn < cellCount;
+         }
+
+         @Override
+         public Cell next()
+         {
+            if (!hasNext()) {
+               throw new NoSuchElementException();
+            }
+            Cell cell = new CellView(RowView.this, nextColumn);
+            nextColumn = findColumn(nextColumn + 1);
+            return cell;
+         }
+
+         private int findColumn(int start)
+         {
+            int column = start;
+            while (column < cellCount && store.isBlank(row, column)) {
+               column++;
+            }
+            return column;
+         }
+      };
+   }
+
+   @Override
+   public Iterator<Cell> iterator()
+   {
+      return cellIterator();
+   }
+
+   @Override
+   public short getHeight()
+   {
+      return DEFAULT_ROW_HEIGHT;
+   }
+
+   @Override
+   public float getHeightInPoints()
+   {
+      return DEFAULT_ROW_HEIGHT / 20f;
+   }
+
+   @Override
+   public boolean getZeroHeight()
+   {
+      return false;
+   }
+
+   @Override
+   public boolean isFormatted()
+   {
+      return false;
+   }
+
+   @Override
+   public CellStyle getRowStyle()
+   {
+      return null;
+   }
+
+   @Override
+   public int getOutlineLevel()
+   {
+      return 0;
+   }
+
+   /*
+    * The row is read-only
+    */
+
+   @Override
+   public Cell createCell(int column)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public Cell createCell(int column, int type)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void removeCell(Cell cell)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void setRowNum(int rowNum)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void setHeight(short height)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void setZeroHeight(boolean zeroHeight)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void setHeightInPoints(float height)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void setRowStyle(CellStyle style)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public boolean equals(Object obj)
+   {
+      return obj instanceof RowView && ((RowView) obj).sheet == sheet && ((RowView) obj).row == row;
+   }
+
+   @Override
+   public int hashCode()
+   {
+      return sheet.hashCode() * 31 + row;
+   }
+
+   @Override
+   public String toString()
+   {
+      return sheet.getSheetName() + "!" + (row + 1);
+   }
+}
@@ -0,0 +1,707 @@
+package org.mm.cellfie.ss;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.FormulaError;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+
+/**
+ * The cell values of one sheet, stored column by column. Each column keeps its cells in
+ * primitive arrays indexed by row: the string table index of its text cells, the value
+ * and number format of its number cells, and bitmaps that tell which cells are blank,
+ * which hold numbers, booleans or errors, and the boolean values. An array is only
+ * allocated once the column has a cell of its kind, so a column of text takes about
+ * 4 bytes per row and a column of numbers about 8. A formula cell is stored as its
+ * cached value, with the formula text in the string table.
+ * <p>
+ * Strings are dictionary-encoded in the {@link StringTable} of the workbook, so equal
+ * texts are stored once for all the sheets.
+ * <p>
+ * A store is filled once through its {@link Builder} and is immutable afterwards, so
+ * it can be read from many threads.
+ */
+public class SheetStore
+{
+   public static final int BLANK = 0;
+   public static final int STRING = 1;
+   public static final int NUMBER = 2;
+   public static final int BOOLEAN = 3;
+   public static final int ERROR = 4;
+
+   /*
+    * The copies of POI sheets, kept as long as their sheet is reachable
+    */
+   private static final Map<Sheet, SheetStore> copiedSheets = new WeakHashMap<>(); // guarded by itself
+
+   private final String sheetName;
+   private final StringTable strings;
+   private final Column[] columns;
+   private final long[] presentRows;
+   private final int rowCount;
+   private final int physicalRowCount;
+
+   private SheetStore(String sheetName, StringTable strings, Column[] columns, long[] presentRows, int rowCount,
+         int physicalRowCount)
+   {
+      this.sheetName = sheetName;
+      this.strings = strings;
+      this.columns = columns;
+      this.presentRows = presentRows;
+      this.rowCount = rowCount;
+      this.physicalRowCount = physicalRowCount;
+   }
+
+   /**
+    * Returns the store that holds the cells of the given sheet. A sheet read into stores
+    * by {@link WorkbookLoader} returns its own store. The cells of any other POI sheet
+    * are copied into a store the first time, and the copy is returned as long as the
+    * sheet is in use, so the sheet must not be modified afterwards.
+    *
+    * @param sheet
+    *          A sheet of a workbook opened by {@link WorkbookLoader}.
+    */
+   public static SheetStore of(Sheet sheet)
+   {
+      if (sheet instanceof SheetView) {
+         return ((SheetView) sheet).getStore();
+      }
+      synchronized (copiedSheets) {
+         return copiedSheets.computeIfAbsent(sheet, SheetStore::copyOf);
+      }
+   }
+
+   /**
+    * Returns the store of the given sheet like {@link #of(Sheet)}, and keeps it loaded
+    * until {@link #unpin(Sheet)} is called for the sheet as many times. The sheets of a
+    * streamed workbook that are not pinned may be released to stay within its memory
+    * budget, and are then read again on their next use, so a reader that goes through
+    * many cells should pin the sheet for that time.
+    */
+   public static SheetStore pin(Sheet sheet)
+   {
+      if (sheet instanceof SheetView) {
+         return ((SheetView) sheet).pin();
+      }
+      return of(sheet);
+   }
+
+   /**
+    * Lets the store of a sheet pinned by {@link #pin(Sheet)} be released again.
+    */
+   public static void unpin(Sheet sheet)
+   {
+      if (sheet instanceof SheetView) {
+         ((SheetView) sheet).unpin();
+      }
+   }
+
+   /*
+    * Copies the cells of a POI sheet, with a string table of its own
+    */
+   private static SheetStore copyOf(Sheet sheet)
+   {
+      StringTable strings = new StringTable(new String[0]);
+      Builder builder = new Builder(sheet.getSheetName(), strings);
+      for (Row row : sheet) {
+         builder.startRow(row.getRowNum());
+         for (Cell cell : row) {
+            int column = cell.getColumnIndex();
+            int cellType = cell.getCellType();
+            boolean isFormula = cellType == Cell.CELL_TYPE_FORMULA;
+            if (isFormula) {
+               cellType = cell.getCachedFormulaResultType();
+            }
+            switch (cellType) {
+               case Cell.CELL_TYPE_STRING :
+                  builder.addString(column, strings.add(cell.getStringCellValue()));
+                  break;
+               case Cell.CELL_TYPE_NUMERIC :
+                  builder.addNumber(column, cell.getNumericCellValue(), cell.getCellStyle().getDataFormat());
+                  break;
+               case Cell.CELL_TYPE_BOOLEAN :
+                  builder.addBoolean(column, cell.getBooleanCellValue());
+                  break;
+               case Cell.CELL_TYPE_ERROR :
+                  builder.addError(column, strings.add(FormulaError.forInt(cell.getErrorCellValue()).getString()));
+                  break;
+               default :
+                  continue; // blank cells are not stored
+            }
+            if (isFormula) {
+               builder.addFormula(column, strings.add(cell.getCellFormula()));
+            }
+         }
+      }
+      return builder.build();
+   }
+
+   public String getSheetName()
+   {
+      return sheetName;
+   }
+
+   /**
+    * Returns the number of rows up to the last row that holds a cell.
+    */
+   public int getRowCount()
+   {
+      return rowCount;
+   }
+
+   /**
+    * Returns the number of rows that are present in the sheet.
+    */
+   public int getPhysicalRowCount()
+   {
+      return physicalRowCount;
+   }
+
+   /**
+    * Returns the number of columns up to the last column that holds a cell.
+    */
+   public int getColumnCount()
+   {
+      return columns.length;
+   }
+
+   /**
+    * Returns whether the given row (0-based) is present in the sheet.
+    */
+   public boolean hasRow(int row)
+   {
+      return row >= 0 && row < rowCount && isSet(presentRows, row);
+   }
+
+   /**
+    * Returns the number of cells up to the last non-blank cell of the given row
+    * (0-based).
+    */
+   public int getCellCount(int row)
+   {
+      if (!hasRow(row)) {
+         return 0;
+      }
+      for (int column = columns.length - 1; column >= 0; column--) {
+         if (!columns[column].isBlank(row)) {
+            return column + 1;
+         }
+      }
+      return 0;
+   }
+
+   public boolean isBlank(int row, int column)
+   {
+      return getType(row, column) == BLANK;
+   }
+
+   /**
+    * Returns the type of the given cell, {@link #BLANK} if the sheet has no such cell.
+    */
+   public int getType(int row, int column)
+   {
+      if (row < 0 || column < 0 || column >= columns.length) {
+         return BLANK;
+      }
+      return columns[column].getType(row);
+   }
+
+   /**
+    * Returns the text of a string or error cell.
+    */
+   public String getString(int row, int column)
+   {
+      return strings.get(columns[column].stringIds[row]);
+   }
+
+   public double getNumber(int row, int column)
+   {
+      return columns[column].numbers[row];
+   }
+
+   /**
+    * Returns the index of the number format of a number cell, 0 for the general format.
+    */
+   public short getNumberFormat(int row, int column)
+   {
+      short[] formats = columns[column].formats;
+      return formats != null ? formats[row] : 0;
+   }
+
+   public boolean getBoolean(int row, int column)
+   {
+      return isSet(columns[column].booleanValues, row);
+   }
+
+   /**
+    * Returns whether the given cell holds a formula, in which case its type and value
+    * are those of the cached formula result.
+    */
+   public boolean hasFormula(int row, int column)
+   {
+      return row >= 0 && column >= 0 && column < columns.length && isSet(columns[column].formulas, row);
+   }
+
+   /**
+    * Returns the text of the formula of a formula cell, without the leading equals sign.
+    */
+   public String getFormula(int row, int column)
+   {
+      return strings.get(columns[column].formulaIds[row]);
+   }
+
+   /*
+    * Adds the cells of this store to the given builder, which must use the same string
+    * table, moving them down by the given number of rows
+    */
+   void copyTo(Builder builder, int rowOffset)
+   {
+      for (int row = 0; row < rowCount; row++) {
+         if (!hasRow(row)) {
+            continue;
+         }
+         builder.startRow(rowOffset + row);
+         for (int column = 0; column < columns.length; column++) {
+            Column cells = columns[column];
+            switch (cells.getType(row)) {
+               case STRING :
+                  builder.addString(column, cells.stringIds[row]);
+                  break;
+               case ERROR :
+                  builder.addError(column, cells.stringIds[row]);
+                  break;
+               case NUMBER :
+                  builder.addNumber(column, cells.numbers[row], getNumberFormat(row, column));
+                  break;
+               case BOOLEAN :
+                  builder.addBoolean(column, isSet(cells.booleanValues, row));
+                  break;
+               default :
+                  continue;
+            }
+            if (isSet(cells.formulas, row)) {
+               builder.addFormula(column, cells.formulaIds[row]);
+            }
+         }
+      }
+   }
+
+   StringTable getStringTable()
+   {
+      return strings;
+   }
+
+   /**
+    * Returns the heap bytes taken by the cell arrays of this store, without the strings,
+    * which belong to the string table of the workbook.
+    */
+   public long getMemorySize()
+   {
+      long size = sizeOf(presentRows);
+      for (Column column : columns) {
+         size += sizeOf(column.present) + sizeOf(column.numeric) + sizeOf(column.logical) + sizeOf(column.errors)
+               + sizeOf(column.booleanValues) + sizeOf(column.formulas);
+         size += column.stringIds != null ? (long) column.stringIds.length * Integer.BYTES : 0;
+         size += column.formulaIds != null ? (long) column.formulaIds.length * Integer.BYTES : 0;
+         size += column.numbers != null ? (long) column.numbers.length * Double.BYTES : 0;
+         size += column.formats != null ? (long) column.formats.length * Short.BYTES : 0;
+      }
+      return size;
+   }
+
+   private static long sizeOf(long[] array)
+   {
+      return array != null ? (long) array.length * Long.BYTES : 0;
+   }
+
+   /*
+    * Writes the arrays of this store in the snapshot format, see WorkbookSnapshot
+    */
+   void writeTo(DataOutput out) throws IOException
+   {
+      out.writeInt(rowCount);
+      out.writeInt(physicalRowCount);
+      writeArray(out, presentRows);
+      out.writeInt(columns.length);
+      for (Column column : columns) {
+         writeArray(out, column.present);
+         writeArray(out, column.numeric);
+         writeArray(out, column.logical);
+         writeArray(out, column.errors);
+         writeArray(out, column.booleanValues);
+         writeArray(out, column.stringIds);
+         writeArray(out, column.numbers);
+         writeArray(out, column.formats);
+         writeArray(out, column.formulas);
+         writeArray(out, column.formulaIds);
+      }
+   }
+
+   /*
+    * Reads a store written by writeTo from the given buffer, which is typically mapped
+    * from the snapshot file
+    */
+   static SheetStore readFrom(String sheetName, StringTable strings, ByteBuffer in)
+   {
+      int rowCount = in.getInt();
+      int physicalRowCount = in.getInt();
+      long[] presentRows = readLongs(in);
+      Column[] columns = new Column[in.getInt()];
+      for (int i = 0; i < columns.length; i++) {
+         columns[i] = new Column(readLongs(in), readLongs(in), readLongs(in), readLongs(in), readLongs(in),
+               readInts(in), readDoubles(in), readShorts(in), readLongs(in), readInts(in));
+      }
+      return new SheetStore(sheetName, strings, columns, presentRows, rowCount, physicalRowCount);
+   }
+
+   private static void writeArray(DataOutput out, long[] array) throws IOException
+   {
+      out.writeInt(array != null ? array.length : -1);
+      if (array != null) {
+         for (long value : array) {
+            out.writeLong(value);
+         }
+      }
+   }
+
+   private static void writeArray(DataOutput out, int[] array) throws IOException
+   {
+      out.writeInt(array != null ? array.length : -1);
+      if (array != null) {
+         for (int value : array) {
+            out.writeInt(value);
+         }
+      }
+   }
+
+   private static void writeArray(DataOutput out, double[] array) throws IOException
+   {
+      out.writeInt(array != null ? array.length : -1);
+      if (array != null) {
+         for (double value : array) {
+            out.writeDouble(value);
+         }
+      }
+   }
+
+   private static void writeArray(DataOutput out, short[] array) throws IOException
+   {
+      out.writeInt(array != null ? array.length : -1);
+      if (array != null) {
+         for (short value : array) {
+            out.writeShort(value);
+         }
+      }
+   }
+
+   private static long[] readLongs(ByteBuffer in)
+   {
+      int length = in.getInt();
+      if (length < 0) {
+         return null;
+      }
+      long[] array = new long[length];
+      in.asLongBuffer().get(array);
+      in.position(in.position() + length * Long.BYTES);
+      return array;
+   }
+
+   private static int[] readInts(ByteBuffer in)
+   {
+      int length = in.getInt();
+      if (length < 0) {
+         return null;
+      }
+      int[] array = new int[length];
+      in.asIntBuffer().get(array);
+      in.position(in.position() + length * Integer.BYTES);
+      return array;
+   }
+
+   private static double[] readDoubles(ByteBuffer in)
+   {
+      int length = in.getInt();
+      if (length < 0) {
+         return null;
+      }
+      double[] array = new double[length];
+      in.asDoubleBuffer().get(array);
+      in.position(in.position() + length * Double.BYTES);
+      return array;
+   }
+
+   private static short[] readShorts(ByteBuffer in)
+   {
+      int length = in.getInt();
+      if (length < 0) {
+         return null;
+      }
+      short[] array = new short[length];
+      in.asShortBuffer().get(array);
+      in.position(in.position() + length * Short.BYTES);
+      return array;
+   }
+
+   static boolean isSet(long[] bits, int index)
+   {
+      return bits != null && (index >>> 6) < bits.length && (bits[index >>> 6] & (1L << index)) != 0;
+   }
+
+   /*
+    * The cells of one column. The arrays of a kind of cell are null if the column has
+    * no such cell.
+    */
+   private static final class Column
+   {
+      private final long[] present;
+      private final long[] numeric;
+      private final long[] logical;
+      private final long[] errors;
+      private final long[] booleanValues;
+      private final int[] stringIds;
+      private final double[] numbers;
+      private final short[] formats;
+      private final long[] formulas;
+      private final int[] formulaIds;
+
+      private Column(long[] present, long[] numeric, long[] logical, long[] errors, long[] booleanValues,
+            int[] stringIds, double[] numbers, short[] formats, long[] formulas, int[] formulaIds)
+      {
+         this.present = present;
+         this.numeric = numeric;
+         this.logical = logical;
+         this.errors = errors;
+         this.booleanValues = booleanValues;
+         this.stringIds = stringIds;
+         this.numbers = numbers;
+         this.formats = formats;
+         this.formulas = formulas;
+         this.formulaIds = formulaIds;
+      }
+
+      boolean isBlank(int row)
+      {
+         return !isSet(present, row);
+      }
+
+      int getType(int row)
+      {
+         if (!isSet(present, row)) {
+            return BLANK;
+         } else if (isSet(numeric, row)) {
+            return NUMBER;
+         } else if (isSet(logical, row)) {
+            return BOOLEAN;
+         } else if (isSet(errors, row)) {
+            return ERROR;
+         }
+         return STRING;
+      }
+   }
+
+   /*
+    * Collects the cells of a column, growing its arrays to the highest row set.
+    */
+   private static final class ColumnBuilder
+   {
+      private long[] present = new long[1];
+      private long[] numeric;
+      private long[] logical;
+      private long[] errors;
+      private long[] booleanValues;
+      private int[] stringIds;
+      private double[] numbers;
+      private short[] formats;
+      private long[] formulas;
+      private int[] formulaIds;
+      private int length;
+
+      void setString(int row, int stringIndex, boolean isError)
+      {
+         present = set(present, row);
+         if (isError) {
+            errors = set(errors, row);
+         }
+         stringIds = ensureCapacity(stringIds, row);
+         stringIds[row] = stringIndex;
+         length = Math.max(length, row + 1);
+      }
+
+      void setNumber(int row, double value, short format)
+      {
+         present = set(present, row);
+         numeric = set(numeric, row);
+         numbers = ensureCapacity(numbers, row);
+         numbers[row] = value;
+         if (format != 0 || formats != null) {
+            formats = ensureCapacity(formats, row);
+            formats[row] = format;
+         }
+         length = Math.max(length, row + 1);
+      }
+
+      void setBoolean(int row, boolean value)
+      {
+         present = set(present, row);
+         logical = set(logical, row);
+         if (value) {
+            booleanValues = set(booleanValues, row);
+         }
+         length = Math.max(length, row + 1);
+      }
+
+      void setFormula(int row, int stringIndex)
+      {
+         formulas = set(formulas, row);
+         formulaIds = ensureCapacity(formulaIds, row);
+         formulaIds[row] = stringIndex;
+      }
+
+      Column build()
+      {
+         int words = (length + 63) >>> 6;
+         return new Column(trim(present, words), trim(numeric, words), trim(logical, words), trim(errors, words),
+               trim(booleanValues, words), stringIds != null ? Arrays.copyOf(stringIds, length) : null,
+               numbers != null ? Arrays.copyOf(numbers, length) : null,
+               formats != null ? Arrays.copyOf(formats, length) : null, trim(formulas, words),
+               formulaIds != null ? Arrays.copyOf(formulaIds, length) : null);
+      }
+
+      private static long[] set(long[] bits, int index)
+      {
+         int word = index >>> 6;
+         long[] result = bits;
+         if (result == null) {
+            result = new long[Math.max(word + 1, 16)];
+         } else if (word >= result.length) {
+            result = Arrays.copyOf(result, Math.max(word + 1, result.length * 2));
+         }
+         result[word] |= 1L << index;
+         return result;
+      }
+
+      private static long[] trim(long[] bits, int words)
+      {
+         return bits != null ? Arrays.copyOf(bits, words) : null;
+      }
+
+      private static int[] ensureCapacity(int[] array, int index)
+      {
+         if (array == null) {
+            return new int[Math.max(index + 1, 1024)];
+         }
+         return index < array.length ? array : Arrays.copyOf(array, Math.max(index + 1, array.length * 2));
+      }
+
+      private static double[] ensureCapacity(double[] array, int index)
+      {
+         if (array == null) {
+            return new double[Math.max(index + 1, 1024)];
+         }
+         return index < array.length ? array : Arrays.copyOf(array, Math.max(index + 1, array.length * 2));
+      }
+
+      private static short[] ensureCapacity(short[] array, int index)
+      {
+         if (array == null) {
+            return new short[Math.max(index + 1, 1024)];
+         }
+         return index < array.length ? array : Arrays.copyOf(array, Math.max(index + 1, array.length * 2));
+      }
+   }
+
+   /**
+    * Collects the cells of a sheet row by row, in the order a sheet is streamed.
+    */
+   public static class Builder
+   {
+      private final String sheetName;
+      private final StringTable strings;
+
+      private ColumnBuilder[] columns = new ColumnBuilder[16];
+      private int columnCount;
+      private long[] presentRows = new long[16];
+      private int rowCount;
+      private int physicalRowCount;
+      private int currentRow = -1;
+
+      public Builder(String sheetName, StringTable strings)
+      {
+         this.sheetName = sheetName;
+         this.strings = strings;
+      }
+
+      /**
+       * Starts the given row (0-based). The cells added next belong to this row.
+       */
+      public void startRow(int row)
+      {
+         currentRow = row;
+         if (!isSet(presentRows, row)) {
+            presentRows = ColumnBuilder.set(presentRows, row);
+            physicalRowCount++;
+         }
+         rowCount = Math.max(rowCount, row + 1);
+      }
+
+      public void addString(int column, int stringIndex)
+      {
+         getColumn(column).setString(currentRow, stringIndex, false);
+      }
+
+      public void addError(int column, int stringIndex)
+      {
+         getColumn(column).setString(currentRow, stringIndex, true);
+      }
+
+      public void addBoolean(int column, boolean value)
+      {
+         getColumn(column).setBoolean(currentRow, value);
+      }
+
+      public void addNumber(int column, double value, short format)
+      {
+         getColumn(column).setNumber(currentRow, value, format);
+      }
+
+      /**
+       * Records the formula of the cell just added to the given column, whose value is
+       * the cached formula result.
+       */
+      public void addFormula(int column, int stringIndex)
+      {
+         getColumn(column).setFormula(currentRow, stringIndex);
+      }
+
+      public SheetStore build()
+      {
+         Column[] result = new Column[columnCount];
+         for (int i = 0; i < columnCount; i++) {
+            result[i] = columns[i] != null ? columns[i].build() : new ColumnBuilder().build();
+         }
+         return new SheetStore(sheetName, strings, result, Arrays.copyOf(presentRows, (rowCount + 63) >>> 6),
+               rowCount, physicalRowCount);
+      }
+
+      private ColumnBuilder getColumn(int column)
+      {
+         if (currentRow < 0) {
+            throw new IllegalStateException("No row was started");
+         }
+         if (column >= columns.length) {
+            columns = Arrays.copyOf(columns, Math.max(column + 1, columns.length * 2));
+         }
+         if (columns[column] == null) {
+            columns[column] = new ColumnBuilder();
+         }
+         columnCount = Math.max(columnCount, column + 1);
+         return columns[column];
+      }
+   }
+}
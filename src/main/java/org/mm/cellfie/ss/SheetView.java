@@ -0,0 +1,809 @@
+package org.mm.cellfie.ss;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.apache.poi.hssf.util.PaneInformation;
+import org.apache.poi.ss.usermodel.AutoFilter;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellRange;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Comment;
+import org.apache.poi.ss.usermodel.DataValidation;
+import org.apache.poi.ss.usermodel.DataValidationHelper;
+import org.apache.poi.ss.usermodel.Drawing;
+import org.apache.poi.ss.usermodel.Footer;
+import org.apache.poi.ss.usermodel.Header;
+import org.apache.poi.ss.usermodel.Hyperlink;
+import org.apache.poi.ss.usermodel.PrintSetup;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.SheetConditionalFormatting;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.util.CellRangeAddress;
+
+/**
+ * The read-only POI sheet of a {@link WorkbookView}. The cells are loaded into a
+ * {@link SheetStore} when they are first needed. Rows and cells are small views over
+ * the store that are created on each access. The sheet has the default layout: no
+ * merged regions, hidden columns or print settings are kept.
+ */
+class SheetView implements Sheet
+{
+   private static final short DEFAULT_ROW_HEIGHT = 300; // in twips
+   private static final int DEFAULT_COLUMN_WIDTH = 8; // in characters
+
+   private final WorkbookView workbookView;
+   private final int sheetIndex;
+   private final String sheetName;
+
+   private volatile SheetStore store; // set by the workbook view under its lock
+
+   SheetView(WorkbookView workbookView, int sheetIndex, String sheetName)
+   {
+      this.workbookView = workbookView;
+      this.sheetIndex = sheetIndex;
+      this.sheetName = sheetName;
+   }
+
+   /**
+    * Returns the cells of the sheet, loading them if they are not loaded.
+    */
+   SheetStore getStore()
+   {
+      SheetStore result = store;
+      return result != null ? result : workbookView.loadSheet(sheetIndex);
+   }
+
+   /**
+    * Returns the cells of the sheet and keeps them loaded until {@link #unpin()}.
+    */
+   SheetStore pin()
+   {
+      return workbookView.pinSheet(sheetIndex);
+   }
+
+   void unpin()
+   {
+      workbookView.unpinSheet(sheetIndex);
+   }
+
+   /**
+    * Returns the cells of the sheet if they are loaded, null otherwise.
+    */
+   SheetStore getLoadedStore()
+   {
+      return store;
+   }
+
+   /**
+    * Sets the loaded cells of the sheet, null when they are released and loaded again
+    * on the next use.
+    */
+   void setStore(SheetStore store)
+   {
+      this.store = store;
+   }
+
+   WorkbookView getWorkbookView()
+   {
+      return workbookView;
+   }
+
+   @Override
+   public String getSheetName()
+   {
+      return sheetName;
+   }
+
+   @Override
+   public Workbook getWorkbook()
+   {
+      return workbookView;
+   }
+
+   @Override
+   public Row getRow(int row)
+   {
+      SheetStore cells = getStore();
+      return cells.hasRow(row) ? new RowView(this, cells, row) : null;
+   }
+
+   @Override
+   public int getFirstRowNum()
+   {
+      SheetStore cells = getStore();
+      for (int row = 0; row < cells.getRowCount(); row++) {
+         if (cells.hasRow(row)) {
+            return row;
+         }
+      }
+      return 0;
+   }
+
+   @Override
+   public int getLastRowNum()
+   {
+      return Math.max(0, getStore().getRowCount() - 1);
+   }
+
+   @Override
+   public int getPhysicalNumberOfRows()
+   {
+      return getStore().getPhysicalRowCount();
+   }
+
+   @Override
+   public Iterator<Row> rowIterator()
+   {
+      final SheetStore cells = getStore();
+      return new Iterator<Row>()
+      {
+         private int nextRow = findRow(0);
+
+         @Override
+         public boolean hasNext()
+         {
+            return nextRow < cells.getRowCount();
+         }
+
+         @Override
+         public Row next()
+         {
+            if (!hasNext()) {
+               throw new NoSuchElementException();
+            }
+            Row row = new RowView(SheetView.this, cells, nextRow);
+            nextRow = findRow(nextRow + 1);
+            return row;
+         }
+
+         private int findRow(int start)
+         {
+            int row = start;
+            while (row < cells.getRowCount() && !cells.hasRow(row)) {
+               row++;
+            }
+            return row;
+         }
+      };
+   }
+
+   @Override
+   public Iterator<Row> iterator()
+   {
+      return rowIterator();
+   }
+
+   @Override
+   public boolean isSelected()
+   {
+      return sheetIndex == workbookView.getActiveSheetIndex();
+   }
+
+   @Override
+   public int getNumMergedRegions()
+   {
+      return 0;
+   }
+
+   @Override
+   public CellRangeAddress getMergedRegion(int index)
+   {
+      throw new IllegalArgumentException("The sheet has no merged regions");
+   }
+
+   public List<CellRangeAddress> getMergedRegions()
+   {
+      return Collections.emptyList();
+   }
+
+   @Override
+   public boolean isColumnHidden(int columnIndex)
+   {
+      return false;
+   }
+
+   @Override
+   public int getColumnWidth(int columnIndex)
+   {
+      return DEFAULT_COLUMN_WIDTH * 256;
+   }
+
+   public float getColumnWidthInPixels(int columnIndex)
+   {
+      return DEFAULT_COLUMN_WIDTH * 7f;
+   }
+
+   @Override
+   public int getDefaultColumnWidth()
+   {
+      return DEFAULT_COLUMN_WIDTH;
+   }
+
+   @Override
+   public short getDefaultRowHeight()
+   {
+      return DEFAULT_ROW_HEIGHT;
+   }
+
+   @Override
+   public float getDefaultRowHeightInPoints()
+   {
+      return DEFAULT_ROW_HEIGHT / 20f;
+   }
+
+   @Override
+   public CellStyle getColumnStyle(int column)
+   {
+      return null;
+   }
+
+   public int getColumnOutlineLevel(int columnIndex)
+   {
+      return 0;
+   }
+
+   @Override
+   public Comment getCellComment(int row, int column)
+   {
+      return null;
+   }
+
+   public Hyperlink getHyperlink(int row, int column)
+   {
+      return null;
+   }
+
+   public List<Hyperlink> getHyperlinkList()
+   {
+      return Collections.emptyList();
+   }
+
+   public Drawing getDrawingPatriarch()
+   {
+      return null;
+   }
+
+   @Override
+   public boolean isRightToLeft()
+   {
+      return false;
+   }
+
+   @Override
+   public boolean getHorizontallyCenter()
+   {
+      return false;
+   }
+
+   @Override
+   public boolean getVerticallyCenter()
+   {
+      return false;
+   }
+
+   @Override
+   public boolean getForceFormulaRecalculation()
+   {
+      return false;
+   }
+
+   @Override
+   public boolean isDisplayZeros()
+   {
+      return true;
+   }
+
+   @Override
+   public boolean getAutobreaks()
+   {
+      return true;
+   }
+
+   @Override
+   public boolean getDisplayGuts()
+   {
+      return true;
+   }
+
+   @Override
+   public boolean getFitToPage()
+   {
+      return false;
+   }
+
+   @Override
+   public boolean getRowSumsBelow()
+   {
+      return true;
+   }
+
+   @Override
+   public boolean getRowSumsRight()
+   {
+      return true;
+   }
+
+   @Override
+   public boolean isPrintGridlines()
+   {
+      return false;
+   }
+
+   public boolean isPrintRowAndColumnHeadings()
+   {
+      return false;
+   }
+
+   @Override
+   public PrintSetup getPrintSetup()
+   {
+      return null;
+   }
+
+   @Override
+   public Header getHeader()
+   {
+      return null;
+   }
+
+   @Override
+   public Footer getFooter()
+   {
+      return null;
+   }
+
+   @Override
+   public double getMargin(short margin)
+   {
+      return 0;
+   }
+
+   @Override
+   public boolean getProtect()
+   {
+      return false;
+   }
+
+   @Override
+   public boolean getScenarioProtect()
+   {
+      return false;
+   }
+
+   @Override
+   public short getTopRow()
+   {
+      return 0;
+   }
+
+   @Override
+   public short getLeftCol()
+   {
+      return 0;
+   }
+
+   @Override
+   public PaneInformation getPaneInformation()
+   {
+      return null;
+   }
+
+   @Override
+   public boolean isDisplayGridlines()
+   {
+      return true;
+   }
+
+   @Override
+   public boolean isDisplayFormulas()
+   {
+      return false;
+   }
+
+   @Override
+   public boolean isDisplayRowColHeadings()
+   {
+      return true;
+   }
+
+   @Override
+   public boolean isRowBroken(int row)
+   {
+      return false;
+   }
+
+   @Override
+   public int[] getRowBreaks()
+   {
+      return new int[0];
+   }
+
+   @Override
+   public boolean isColumnBroken(int column)
+   {
+      return false;
+   }
+
+   @Override
+   public int[] getColumnBreaks()
+   {
+      return new int[0];
+   }
+
+   @Override
+   public DataValidationHelper getDataValidationHelper()
+   {
+      return null;
+   }
+
+   @Override
+   public List<? extends DataValidation> getDataValidations()
+   {
+      return Collections.emptyList();
+   }
+
+   @Override
+   public SheetConditionalFormatting getSheetConditionalFormatting()
+   {
+      return null;
+   }
+
+   @Override
+   public CellRangeAddress getRepeatingRows()
+   {
+      return null;
+   }
+
+   @Override
+   public CellRangeAddress getRepeatingColumns()
+   {
+      return null;
+   }
+
+   /*
+    * The sheet is read-only
+    */
+
+   @Override
+   public Row createRow(int row)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void removeRow(Row row)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void setColumnHidden(int columnIndex, boolean hidden)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void setRightToLeft(boolean value)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void setColumnWidth(int columnIndex, int width)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void setDefaultColumnWidth(int width)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void setDefaultRowHeight(short height)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void setDefaultRowHeightInPoints(float height)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public int addMergedRegion(CellRangeAddress region)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void setVerticallyCenter(boolean value)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void setHorizontallyCenter(boolean value)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void removeMergedRegion(int index)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void setForceFormulaRecalculation(boolean value)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void setAutobreaks(boolean value)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void setDisplayGuts(boolean value)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void setDisplayZeros(boolean value)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void setFitToPage(boolean value)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void setRowSumsBelow(boolean value)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void setRowSumsRight(boolean value)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void setPrintGridlines(boolean show)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   public void setPrintRowAndColumnHeadings(boolean show)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void setSelected(boolean value)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void setMargin(short margin, double size)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void protectSheet(String password)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void setZoom(int numerator, int denominator)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   public void setZoom(int scale)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void showInPane(int topRow, int leftColumn)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   public void showInPane(short topRow, short leftColumn)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void shiftRows(int startRow, int endRow, int n)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void shiftRows(int startRow, int endRow, int n, boolean copyRowHeight, boolean resetOriginalRowHeight)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void createFreezePane(int columnSplit, int rowSplit, int leftmostColumn, int topRow)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void createFreezePane(int columnSplit, int rowSplit)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void createSplitPane(int xSplitPosition, int ySplitPosition, int leftmostColumn, int topRow, int activePane)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void setDisplayGridlines(boolean show)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void setDisplayFormulas(boolean show)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void setDisplayRowColHeadings(boolean show)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void setRowBreak(int row)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void removeRowBreak(int row)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void setColumnBreak(int column)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void removeColumnBreak(int column)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void setColumnGroupCollapsed(int columnNumber, boolean collapsed)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void groupColumn(int fromColumn, int toColumn)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void ungroupColumn(int fromColumn, int toColumn)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void groupRow(int fromRow, int toRow)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void ungroupRow(int fromRow, int toRow)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void setRowGroupCollapsed(int row, boolean collapse)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void setDefaultColumnStyle(int column, CellStyle style)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void autoSizeColumn(int column)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void autoSizeColumn(int column, boolean useMergedCells)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public Drawing createDrawingPatriarch()
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public CellRange<? extends Cell> setArrayFormula(String formula, CellRangeAddress range)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public CellRange<? extends Cell> removeArrayFormula(Cell cell)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void addValidationData(DataValidation dataValidation)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public AutoFilter setAutoFilter(CellRangeAddress range)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void setRepeatingRows(CellRangeAddress rowRange)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public void setRepeatingColumns(CellRangeAddress columnRange)
+   {
+      throw WorkbookView.readOnly();
+   }
+
+   @Override
+   public String toString()
+   {
+      return sheetName;
+   }
+}
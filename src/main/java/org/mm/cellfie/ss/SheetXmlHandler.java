@@ -0,0 +1,286 @@
+package org.mm.cellfie.ss;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Reads the rows of an xlsx sheet part, i.e., {@code xl/worksheets/sheetN.xml}, as a
+ * stream of SAX events into a {@link SheetStore.Builder}. Cells keep the type written
+ * in the file; a formula cell is read as its cached value and its formula text.
+ * <p>
+ * The cells of a shared formula only hold the formula in the first cell of the group,
+ * the others get it with their relative references moved by their distance to that
+ * cell, like Excel shows them. Only the first cell of an array formula holds it.
+ */
+class SheetXmlHandler extends DefaultHandler
+{
+   private static final Pattern CELL_REFERENCE = Pattern.compile("(\\$?)([A-Z]{1,3})(\\$?)([0-9]{1,7})");
+
+   private final SheetStore.Builder builder;
+   private final StringTable strings;
+   private final short[] styleFormats;
+
+   private final StringBuilder text = new StringBuilder();
+   private final StringBuilder formula = new StringBuilder();
+   private final Map<String, SharedFormula> sharedFormulas = new HashMap<>();
+
+   private int row;
+   private int nextRow;
+   private int nextColumn;
+   private int column;
+   private String cellType;
+   private int cellStyle;
+   private boolean hasValue;
+   private boolean inValue;
+   private boolean inPhonetic;
+   private boolean inFormula;
+   private String sharedIndex;
+
+   /**
+    * @param builder
+    *          The builder that receives the cells.
+    * @param strings
+    *          The string table of the workbook, starting with its shared strings.
+    * @param styleFormats
+    *          The number format index of each cell style of the workbook.
+    */
+   SheetXmlHandler(SheetStore.Builder builder, StringTable strings, short[] styleFormats)
+   {
+      this.builder = builder;
+      this.strings = strings;
+      this.styleFormats = styleFormats;
+   }
+
+   @Override
+   public void startElement(String uri, String localName, String qName, Attributes attributes)
+   {
+      switch (localName) {
+         case "row" :
+            String rowNumber = attributes.getValue("r");
+            row = rowNumber != null ? Integer.parseInt(rowNumber) - 1 : nextRow;
+            builder.startRow(row);
+            nextRow = row + 1;
+            nextColumn = 0;
+            break;
+         case "c" :
+            String reference = attributes.getValue("r");
+            column = reference != null ? getColumnIndex(reference) : nextColumn;
+            nextColumn = column + 1;
+            cellType = attributes.getValue("t");
+            String style = attributes.getValue("s");
+            cellStyle = style != null ? Integer.parseInt(style) : 0;
+            hasValue = false;
+            text.setLength(0);
+            formula.setLength(0);
+            break;
+         case "f" :
+            inFormula = true;
+            sharedIndex = "shared".equals(attributes.getValue("t")) ? attributes.getValue("si") : null;
+            break;
+         case "v" :
+            hasValue = true;
+            inValue = true;
+            break;
+         case "t" : // text of an inline string, possibly in several rich text runs
+            if ("inlineStr".equals(cellType)) {
+               hasValue = true;
+               inValue = true;
+            }
+            break;
+         case "rPh" : // phonetic hints are not part of the value
+            inPhonetic = true;
+            break;
+         default :
+            break;
+      }
+   }
+
+   @Override
+   public void characters(char[] ch, int start, int length)
+   {
+      if (inValue && !inPhonetic) {
+         text.append(ch, start, length);
+      } else if (inFormula) {
+         formula.append(ch, start, length);
+      }
+   }
+
+   @Override
+   public void endElement(String uri, String localName, String qName)
+   {
+      switch (localName) {
+         case "v" :
+         case "t" :
+            inValue = false;
+            break;
+         case "rPh" :
+            inPhonetic = false;
+            break;
+         case "f" :
+            inFormula = false;
+            if (sharedIndex != null) {
+               readSharedFormula(sharedIndex);
+            }
+            break;
+         case "c" :
+            if (hasValue) {
+               addCell(text.toString());
+               if (formula.length() > 0) {
+                  builder.addFormula(column, strings.add(formula.toString()));
+               }
+            }
+            break;
+         default :
+            break;
+      }
+   }
+
+   private void addCell(String value)
+   {
+      if (cellType == null || cellType.equals("n")) {
+         builder.addNumber(column, Double.parseDouble(value), getNumberFormat(cellStyle));
+         return;
+      }
+      switch (cellType) {
+         case "s" :
+            builder.addString(column, Integer.parseInt(value.trim()));
+            break;
+         case "b" :
+            builder.addBoolean(column, value.trim().equals("1") || value.trim().equalsIgnoreCase("true"));
+            break;
+         case "e" :
+            builder.addError(column, strings.add(value));
+            break;
+         default : // inline strings, string results of formulas and ISO dates
+            builder.addString(column, strings.add(value));
+            break;
+      }
+   }
+
+   /*
+    * Keeps the formula of the first cell of a shared formula, or gives the formula to
+    * another cell of the group
+    */
+   private void readSharedFormula(String index)
+   {
+      if (formula.length() > 0) {
+         sharedFormulas.put(index, new SharedFormula(formula.toString(), row, column));
+      } else {
+         SharedFormula sharedFormula = sharedFormulas.get(index);
+         if (sharedFormula != null) {
+            formula.append(shiftFormula(sharedFormula.formula, row - sharedFormula.row, column - sharedFormula.column));
+         }
+      }
+   }
+
+   private short getNumberFormat(int style)
+   {
+      return style < styleFormats.length ? styleFormats[style] : 0;
+   }
+
+   /*
+    * Returns the 0-based column index of a cell reference such as "AB12".
+    */
+   static int getColumnIndex(String reference)
+   {
+      int column = 0;
+      for (int i = 0; i < reference.length(); i++) {
+         char c = reference.charAt(i);
+         if (c < 'A' || c > 'Z') {
+            break;
+         }
+         column = column * 26 + (c - 'A' + 1);
+      }
+      return column - 1;
+   }
+
+   /*
+    * Returns the letters of the 0-based column index, such as "AB" for 27.
+    */
+   static String getColumnName(int column)
+   {
+      StringBuilder name = new StringBuilder();
+      for (int rest = column + 1; rest > 0; rest = (rest - 1) / 26) {
+         name.insert(0, (char) ('A' + (rest - 1) % 26));
+      }
+      return name.toString();
+   }
+
+   /*
+    * Moves the relative cell references of a formula by the given number of rows and
+    * columns, so "A1+$B$1" moved one row down is "A2+$B$1". Quoted texts and sheet
+    * names are kept, as are whole row and column ranges such as "A:A".
+    */
+   static String shiftFormula(String formula, int rowOffset, int columnOffset)
+   {
+      StringBuilder result = new StringBuilder(formula.length() + 8);
+      Matcher reference = CELL_REFERENCE.matcher(formula);
+      int position = 0;
+      while (position < formula.length()) {
+         char c = formula.charAt(position);
+         int end = position + 1;
+         if (c == '"' || c == '\'') {
+            int closingQuote = formula.indexOf(c, end); // a doubled quote starts the next quoted part
+            end = closingQuote < 0 ? formula.length() : closingQuote + 1;
+            result.append(formula, position, end);
+         } else if (c == '$' || isNameCharacter(c)) {
+            reference.region(position, formula.length());
+            if (reference.lookingAt() && !continuesName(formula, reference.end())) {
+               end = reference.end();
+               int referencedColumn = getColumnIndex(reference.group(2));
+               int referencedRow = Integer.parseInt(reference.group(4)) - 1;
+               if (reference.group(1).isEmpty()) {
+                  referencedColumn += columnOffset;
+               }
+               if (reference.group(3).isEmpty()) {
+                  referencedRow += rowOffset;
+               }
+               result.append(reference.group(1)).append(getColumnName(referencedColumn));
+               result.append(reference.group(3)).append(referencedRow + 1);
+            } else {
+               while (end < formula.length() && isNameCharacter(formula.charAt(end))) {
+                  end++; // a function or defined name, a number or a Boolean
+               }
+               result.append(formula, position, end);
+            }
+         } else {
+            result.append(c);
+         }
+         position = end;
+      }
+      return result.toString();
+   }
+
+   private static boolean isNameCharacter(char c)
+   {
+      return Character.isLetterOrDigit(c) || c == '_' || c == '.' || c == '\\';
+   }
+
+   /*
+    * Returns whether a name goes on at the given position, so what precedes it is not a
+    * cell reference, as in "LOG10(" or "A1B"
+    */
+   private static boolean continuesName(String formula, int position)
+   {
+      return position < formula.length() && (isNameCharacter(formula.charAt(position)) || formula.charAt(position) == '(');
+   }
+
+   private static class SharedFormula
+   {
+      private final String formula;
+      private final int row;
+      private final int column;
+
+      SharedFormula(String formula, int row, int column)
+      {
+         this.formula = formula;
+         this.row = row;
+         this.column = column;
+      }
+   }
+}
@@ -0,0 +1,143 @@
+package org.mm.cellfie.ss;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.ss.usermodel.BuiltinFormats;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.util.SAXHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFCellStyle;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+/**
+ * Opens an xlsx workbook through POI's SAX event model instead of its DOM-based
+ * {@code XSSFWorkbook}. Opening only reads the shared strings, the cell styles and the
+ * workbook part, which holds the sheet names and states, the active sheet and the
+ * defined names; the cells of a sheet are streamed into a {@link SheetStore} the first
+ * time the sheet is used, and again after it was released to stay within the memory
+ * budget of {@link WorkbookLoader#getMemoryBudget()}. The returned workbook is
+ * read-only.
+ */
+public class StreamingWorkbook
+{
+   private final XSSFReader reader;
+   private final StringTable strings;
+   private final short[] styleFormats;
+   private final List<String> sheetNames = new ArrayList<>();
+   private final WorkbookMetadata metadata;
+
+   private StreamingWorkbook(OPCPackage pkg)
+         throws IOException, OpenXML4JException, SAXException, ParserConfigurationException
+   {
+      reader = new XSSFReader(pkg);
+      strings = new StringTable(readSharedStrings(pkg));
+      StylesTable styles = reader.getStylesTable();
+      styleFormats = new short[styles.getNumCellStyles()];
+      for (int i = 0; i < styleFormats.length; i++) {
+         styleFormats[i] = styles.getStyleAt(i).getDataFormat();
+      }
+      XSSFReader.SheetIterator iter = (XSSFReader.SheetIterator) reader.getSheetsData();
+      while (iter.hasNext()) {
+         try (InputStream in = iter.next()) {
+            sheetNames.add(iter.getSheetName());
+         }
+      }
+      WorkbookXmlHandler workbookHandler = new WorkbookXmlHandler();
+      try (InputStream in = reader.getWorkbookData()) {
+         XMLReader parser = SAXHelper.newXMLReader();
+         parser.setContentHandler(workbookHandler);
+         parser.parse(new InputSource(in));
+      }
+      metadata = workbookHandler.getMetadata();
+   }
+
+   /**
+    * Opens the given xlsx file for reading. The file stays open until the returned
+    * workbook is closed.
+    *
+    * @param file
+    *          The xlsx workbook file.
+    * @return A read-only workbook whose sheets are loaded on first use.
+    * @throws IOException
+    *           If the file cannot be opened or is not an xlsx workbook.
+    */
+   public static Workbook open(File file) throws IOException
+   {
+      OPCPackage pkg;
+      try {
+         pkg = OPCPackage.open(file, PackageAccess.READ);
+      } catch (InvalidFormatException e) {
+         throw new IOException("Not an xlsx workbook: " + file.getName(), e);
+      }
+      try {
+         StreamingWorkbook workbook = new StreamingWorkbook(pkg);
+         return WorkbookView.create(workbook.sheetNames, workbook.metadata, workbook::loadSheet,
+               workbook.getFormatStrings(), pkg::revert, WorkbookLoader.getMemoryBudget());
+      } catch (OpenXML4JException | SAXException | ParserConfigurationException | RuntimeException e) {
+         pkg.revert();
+         throw new IOException("Error while opening workbook " + file.getName() + ": " + e.getMessage(), e);
+      }
+   }
+
+   private static String[] readSharedStrings(OPCPackage pkg) throws IOException, SAXException
+   {
+      ReadOnlySharedStringsTable sharedStrings = new ReadOnlySharedStringsTable(pkg);
+      String[] result = new String[sharedStrings.getUniqueCount()];
+      for (int i = 0; i < result.length; i++) {
+         result[i] = sharedStrings.getEntryAt(i);
+      }
+      return result;
+   }
+
+   /*
+    * Returns the custom number format strings, the built-in ones are known by index.
+    */
+   private Map<Short, String> getFormatStrings() throws IOException, InvalidFormatException
+   {
+      Map<Short, String> formatStrings = new HashMap<>();
+      StylesTable styles = reader.getStylesTable();
+      for (int i = 0; i < styles.getNumCellStyles(); i++) {
+         XSSFCellStyle style = styles.getStyleAt(i);
+         short format = style.getDataFormat();
+         if (BuiltinFormats.getBuiltinFormat(format) == null) {
+            formatStrings.put(format, style.getDataFormatString());
+         }
+      }
+      return formatStrings;
+   }
+
+   private SheetStore loadSheet(int sheetIndex) throws IOException
+   {
+      SheetStore.Builder builder = new SheetStore.Builder(sheetNames.get(sheetIndex), strings);
+      try {
+         XSSFReader.SheetIterator iter = (XSSFReader.SheetIterator) reader.getSheetsData();
+         for (int i = 0; i < sheetIndex; i++) {
+            iter.next().close();
+         }
+         try (InputStream in = iter.next()) {
+            XMLReader parser = SAXHelper.newXMLReader();
+            parser.setContentHandler(new SheetXmlHandler(builder, strings, styleFormats));
+            parser.parse(new InputSource(in));
+         }
+      } catch (InvalidFormatException | SAXException | ParserConfigurationException e) {
+         throw new IOException(e.getMessage(), e);
+      }
+      return builder.build();
+   }
+}
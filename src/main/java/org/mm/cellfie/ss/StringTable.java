@@ -0,0 +1,61 @@
+package org.mm.cellfie.ss;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The strings of a workbook, indexed by int. The table starts with the shared strings
+ * of the workbook, whose indexes the sheets already use, and grows with the strings
+ * that the sheets hold inline. Equal inline strings are stored once.
+ * <p>
+ * Strings are added while a sheet is read and may be looked up by other threads at
+ * the same time; a lookup sees every string added before the sheet that refers to it
+ * was published.
+ */
+public class StringTable
+{
+   private final String[] sharedStrings;
+
+   private final Map<String, Integer> addedIndexes = new HashMap<>();
+   private volatile String[] addedStrings = new String[16];
+   private int addedCount;
+
+   public StringTable(String[] sharedStrings)
+   {
+      this.sharedStrings = sharedStrings;
+   }
+
+   public String get(int index)
+   {
+      if (index < sharedStrings.length) {
+         return sharedStrings[index];
+      }
+      return addedStrings[index - sharedStrings.length];
+   }
+
+   /**
+    * Adds the given string unless the table already has it, and returns its index.
+    */
+   public synchronized int add(String value)
+   {
+      Integer index = addedIndexes.get(value);
+      if (index != null) {
+         return index;
+      }
+      String[] strings = addedStrings;
+      if (addedCount == strings.length) {
+         strings = Arrays.copyOf(strings, addedCount * 2);
+      }
+      strings[addedCount] = value;
+      addedStrings = strings; // publishes the new string
+      index = sharedStrings.length + addedCount++;
+      addedIndexes.put(value, index);
+      return index;
+   }
+
+   public synchronized int size()
+   {
+      return sharedStrings.length + addedCount;
+   }
+}
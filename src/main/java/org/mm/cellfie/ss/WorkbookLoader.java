@@ -0,0 +1,152 @@
+package org.mm.cellfie.ss;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.usermodel.WorkbookFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Opens the workbook that Cellfie maps. Workbooks in the binary xls format and xlsx
+ * workbooks whose POI object model fits in the memory budget are read by POI as usual.
+ * The sheet views and the axiom generation read their cells from a {@link SheetStore}
+ * copy of each sheet, see {@link SheetStore#of}.
+ * <p>
+ * An xlsx workbook whose POI object model, which takes about a kilobyte of heap per
+ * cell, would not fit in the memory budget is opened as a {@link StreamingWorkbook}. Its
+ * sheets are read into stores, which are presented to MappingMaster as a read-only POI
+ * workbook. The loaded sheets are kept within the budget, and a sheet released to stay
+ * within it is streamed again when it is used next. CSV and TSV files are read into a
+ * store as a {@link DelimitedWorkbook}.
+ * <p>
+ * When a cache directory is given, a {@link WorkbookSnapshot} of the stores of a large
+ * streamed or delimited workbook is written there from the sheets as they are loaded,
+ * and completed once all of them were. The snapshots are written by a background
+ * thread of their own, which never parses the workbook. Later loads of the same,
+ * unchanged file open the snapshot instead of parsing the file.
+ */
+public final class WorkbookLoader
+{
+   /**
+    * The share of the maximum heap size that a workbook may take.
+    */
+   public static final double MEMORY_BUDGET_RATIO = 0.25;
+
+   /**
+    * The estimated heap bytes that POI's object model takes per byte of an xlsx file.
+    * The file is compressed about tenfold, and the sheet XML takes a few dozen bytes
+    * per cell, against about a kilobyte per cell in the object model.
+    */
+   private static final long POI_HEAP_PER_FILE_BYTE = 250;
+
+   /**
+    * The file size from which a snapshot of the workbook is kept.
+    */
+   public static final long SNAPSHOT_THRESHOLD = 1024L * 1024;
+
+   private static final ExecutorService snapshotWriter = Executors.newSingleThreadExecutor(
+         new ThreadFactoryBuilder().setNameFormat("Cellfie-Snapshot-Writer").setDaemon(true).build());
+
+   private WorkbookLoader()
+   {
+      // NO-OP
+   }
+
+   /**
+    * Reads the given workbook file, without using or writing a snapshot.
+    */
+   public static Workbook load(File file) throws IOException
+   {
+      return parse(file);
+   }
+
+   /**
+    * Reads the given workbook file, or opens its snapshot in the given cache directory
+    * if the file did not change since the snapshot was written.
+    *
+    * @param file
+    *          The workbook file.
+    * @param cacheDirectory
+    *          The directory that keeps the workbook snapshots.
+    */
+   public static Workbook load(File file, File cacheDirectory) throws IOException
+   {
+      if (file.length() < SNAPSHOT_THRESHOLD || !isReadIntoStores(file)) {
+         return parse(file);
+      }
+      Optional<Workbook> snapshot = WorkbookSnapshot.open(file, cacheDirectory);
+      if (snapshot.isPresent()) {
+         return snapshot.get();
+      }
+      long size = file.length();
+      long modified = file.lastModified();
+      Workbook workbook = parse(file);
+      if (DelimitedWorkbook.isDelimited(file)) {
+         SheetStore.of(workbook.getSheetAt(0)); // already read, so the snapshot can be written now
+      }
+      WorkbookSnapshot.writeAsLoaded(workbook, file, size, modified, cacheDirectory, snapshotWriter);
+      return workbook;
+   }
+
+   private static Workbook parse(File file) throws IOException
+   {
+      if (DelimitedWorkbook.isDelimited(file)) {
+         return DelimitedWorkbook.open(file);
+      }
+      if (isStreamed(file)) {
+         return StreamingWorkbook.open(file);
+      }
+      Workbook workbook;
+      try (InputStream in = new FileInputStream(file)) {
+         workbook = WorkbookFactory.create(in); // buffered, so the file is not kept open
+      } catch (InvalidFormatException e) {
+         throw new IOException("Unrecognized workbook format: " + file.getName(), e);
+      }
+      return workbook;
+   }
+
+   /*
+    * Returns whether the given workbook file is opened as a workbook over sheet stores,
+    * which can be kept as a snapshot
+    */
+   private static boolean isReadIntoStores(File file)
+   {
+      return DelimitedWorkbook.isDelimited(file) || isStreamed(file);
+   }
+
+   /**
+    * Returns the CRC-32 of the whole content of the given file.
+    */
+   public static long checksum(File file) throws IOException
+   {
+      return WorkbookSnapshot.hash(file);
+   }
+
+   /**
+    * Returns the heap bytes that the cells of an opened workbook may take, a fixed share
+    * of the maximum heap size.
+    */
+   public static long getMemoryBudget()
+   {
+      return (long) (Runtime.getRuntime().maxMemory() * MEMORY_BUDGET_RATIO);
+   }
+
+   /**
+    * Returns whether the given workbook file is opened as a {@link StreamingWorkbook},
+    * which is the case for an xlsx file whose POI object model would take more than
+    * the memory budget.
+    */
+   public static boolean isStreamed(File file)
+   {
+      return file.getName().toLowerCase().endsWith(".xlsx")
+            && file.length() > getMemoryBudget() / POI_HEAP_PER_FILE_BYTE;
+   }
+}
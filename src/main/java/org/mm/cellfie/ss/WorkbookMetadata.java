@@ -0,0 +1,70 @@
+package org.mm.cellfie.ss;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.poi.ss.usermodel.Workbook;
+
+/**
+ * The workbook-level settings of a {@link WorkbookView} that are not part of its sheets:
+ * the active and the first visible sheet, the visibility of each sheet and the defined
+ * names.
+ */
+final class WorkbookMetadata
+{
+   private final int activeSheetIndex;
+   private final int firstVisibleTab;
+   private final int[] sheetStates;
+   private final List<NameView> names;
+
+   /**
+    * @param activeSheetIndex
+    *          The index of the active sheet.
+    * @param firstVisibleTab
+    *          The index of the first sheet shown in the tab bar.
+    * @param sheetStates
+    *          The visibility of each sheet, one of the {@code Workbook.SHEET_STATE_*}
+    *          constants.
+    * @param names
+    *          The defined names, in workbook order.
+    */
+   WorkbookMetadata(int activeSheetIndex, int firstVisibleTab, int[] sheetStates, List<NameView> names)
+   {
+      this.activeSheetIndex = activeSheetIndex;
+      this.firstVisibleTab = firstVisibleTab;
+      this.sheetStates = sheetStates;
+      this.names = Collections.unmodifiableList(names);
+   }
+
+   /**
+    * Returns the metadata of a workbook whose sheets are all visible, with the first one
+    * active, and that has no defined names.
+    */
+   static WorkbookMetadata of(int sheetCount)
+   {
+      int[] sheetStates = new int[sheetCount];
+      Arrays.fill(sheetStates, Workbook.SHEET_STATE_VISIBLE);
+      return new WorkbookMetadata(0, 0, sheetStates, Collections.emptyList());
+   }
+
+   int getActiveSheetIndex()
+   {
+      return activeSheetIndex;
+   }
+
+   int getFirstVisibleTab()
+   {
+      return firstVisibleTab;
+   }
+
+   int getSheetState(int sheetIndex)
+   {
+      return sheetStates[sheetIndex];
+   }
+
+   List<NameView> getNames()
+   {
+      return names;
+   }
+}
@@ -0,0 +1,459 @@
+package org.mm.cellfie.ss;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.zip.CRC32;
+
+import org.apache.poi.ss.usermodel.Workbook;
+
+/**
+ * A binary copy of the sheet stores of a workbook, kept in the Cellfie cache directory
+ * so that opening the workbook again does not parse it. The snapshot records the size
+ * and the modification time of the workbook file it was made from, and is only used
+ * while both still match the file, so checking a snapshot does not read the workbook.
+ * <p>
+ * A snapshot is written from the stores of the sheets as the readers of the workbook
+ * load them, see {@link #writeAsLoaded}, so it is only made once every sheet of the
+ * workbook was used.
+ * <p>
+ * The cache is kept within a size limit: after a snapshot is written, the snapshots
+ * that were used least recently are deleted until the others fit.
+ * <p>
+ * The snapshot is read through memory-mapped buffers: the string table is decoded when
+ * the snapshot is opened, and each sheet the first time it is used. The file layout,
+ * in big-endian order, is a fixed header (magic number, format version, source size,
+ * source modification time and index offset), the sheets as written by
+ * {@link SheetStore#writeTo}, the strings, and an index that locates the strings and the
+ * sheets and holds the number format strings and the workbook settings.
+ */
+class WorkbookSnapshot
+{
+   private static final long MAGIC = 0x43454c4c46494531L; // "CELLFIE1"
+   private static final int VERSION = 6;
+   private static final int HEADER_SIZE = 8 + 4 + 8 + 8 + 8;
+   private static final int INDEX_OFFSET_POSITION = HEADER_SIZE - 8;
+
+   private static final long HASH_CHUNK_SIZE = 64L << 20;
+
+   private static final String SNAPSHOT_SUFFIX = ".cellfie";
+   private static final long MAX_CACHE_SIZE = 2L << 30;
+
+   private WorkbookSnapshot()
+   {
+      // NO-OP
+   }
+
+   /**
+    * Returns the snapshot file of the given workbook file in the given cache directory.
+    * The name is made of the workbook file name and a checksum of its absolute path, so
+    * workbooks with the same name in different directories do not share a snapshot.
+    */
+   static File getSnapshotFile(File source, File cacheDirectory)
+   {
+      CRC32 pathHash = new CRC32();
+      pathHash.update(source.getAbsolutePath().getBytes(StandardCharsets.UTF_8));
+      String name = String.format("%s-%08x%s", source.getName(), pathHash.getValue(), SNAPSHOT_SUFFIX);
+      return new File(cacheDirectory, name);
+   }
+
+   /**
+    * Opens the snapshot of the given workbook file in the given cache directory if there
+    * is one that was made from the current content of the file.
+    */
+   static Optional<Workbook> open(File source, File cacheDirectory)
+   {
+      File snapshotFile = getSnapshotFile(source, cacheDirectory);
+      if (!snapshotFile.isFile()) {
+         return Optional.empty();
+      }
+      FileChannel channel = null;
+      try {
+         channel = FileChannel.open(snapshotFile.toPath(), StandardOpenOption.READ);
+         ByteBuffer header = map(channel, 0, HEADER_SIZE);
+         if (header.getLong() != MAGIC || header.getInt() != VERSION || header.getLong() != source.length()
+               || header.getLong() != source.lastModified()) {
+            channel.close();
+            return Optional.empty(); // made from another version of the workbook
+         }
+         Workbook workbook = read(channel, header.getLong());
+         snapshotFile.setLastModified(System.currentTimeMillis()); // marks the snapshot as used
+         return Optional.of(workbook);
+      } catch (IOException | RuntimeException e) {
+         closeQuietly(channel);
+         return Optional.empty(); // a damaged snapshot is replaced on the next write
+      }
+   }
+
+   private static Workbook read(FileChannel channel, long indexOffset) throws IOException
+   {
+      ByteBuffer index = map(channel, indexOffset, channel.size() - indexOffset);
+      ByteBuffer stringData = map(channel, index.getLong(), index.getLong());
+      String[] strings = new String[stringData.getInt()];
+      for (int i = 0; i < strings.length; i++) {
+         strings[i] = readString(stringData);
+      }
+      StringTable stringTable = new StringTable(strings);
+
+      Map<Short, String> formatStrings = new HashMap<>();
+      int formatCount = index.getInt();
+      for (int i = 0; i < formatCount; i++) {
+         formatStrings.put(index.getShort(), readString(index));
+      }
+      int sheetCount = index.getInt();
+      List<String> sheetNames = new ArrayList<>();
+      long[] sheetOffsets = new long[sheetCount];
+      long[] sheetLengths = new long[sheetCount];
+      int[] sheetStates = new int[sheetCount];
+      for (int i = 0; i < sheetCount; i++) {
+         sheetNames.add(readString(index));
+         sheetOffsets[i] = index.getLong();
+         sheetLengths[i] = index.getLong();
+         sheetStates[i] = index.getInt();
+      }
+      int activeSheetIndex = index.getInt();
+      int firstVisibleTab = index.getInt();
+      List<NameView> names = new ArrayList<>();
+      int nameCount = index.getInt();
+      for (int i = 0; i < nameCount; i++) {
+         String name = readString(index);
+         int sheetIndex = index.getInt();
+         String formula = readString(index);
+         String comment = index.get() != 0 ? readString(index) : null;
+         boolean function = index.get() != 0;
+         String sheetName = sheetIndex >= 0 ? sheetNames.get(sheetIndex) : NameView.getReferencedSheet(formula);
+         names.add(new NameView(name, sheetIndex, sheetName, formula, comment, function));
+      }
+      WorkbookMetadata metadata = new WorkbookMetadata(activeSheetIndex, firstVisibleTab, sheetStates, names);
+      return WorkbookView.create(sheetNames, metadata, sheetIndex -> SheetStore.readFrom(sheetNames.get(sheetIndex),
+            stringTable, map(channel, sheetOffsets[sheetIndex], sheetLengths[sheetIndex])), formatStrings,
+            channel::close, WorkbookLoader.getMemoryBudget());
+   }
+
+   /**
+    * Writes the snapshot of a workbook opened by {@link WorkbookLoader} from the stores
+    * of its sheets as they are loaded by the readers of the workbook, so that writing it
+    * parses nothing and does not make the workbook release any sheet. The sheets that
+    * are already loaded are written first. Each sheet is appended to a temporary file on
+    * the given executor, and the snapshot is completed once every sheet was written.
+    * Nothing is kept if the workbook is closed before all its sheets were loaded, or if
+    * the workbook file changed since it was read.
+    *
+    * @param workbook
+    *          The workbook read from the source file.
+    * @param source
+    *          The workbook file.
+    * @param sourceSize
+    *          The size of the workbook file before it was read.
+    * @param sourceModified
+    *          The modification time of the workbook file before it was read.
+    * @param cacheDirectory
+    *          The directory that keeps the snapshots, created if needed.
+    * @param executor
+    *          The executor that writes the snapshot, which must run the tasks in the
+    *          order they are given.
+    */
+   static void writeAsLoaded(Workbook workbook, File source, long sourceSize, long sourceModified,
+         File cacheDirectory, Executor executor)
+   {
+      WorkbookView view = WorkbookView.of(workbook);
+      view.setLoadListener(new SnapshotWriter(view, source, sourceSize, sourceModified, cacheDirectory, executor));
+   }
+
+   /*
+    * Deletes the snapshots used least recently until the others fit in the cache
+    */
+   private static void trimCache(File cacheDirectory)
+   {
+      File[] snapshotFiles = cacheDirectory.listFiles((dir, name) -> name.endsWith(SNAPSHOT_SUFFIX));
+      if (snapshotFiles == null) {
+         return;
+      }
+      Arrays.sort(snapshotFiles, Comparator.comparingLong(File::lastModified).reversed());
+      long cacheSize = 0;
+      for (File snapshotFile : snapshotFiles) {
+         cacheSize += snapshotFile.length();
+         if (cacheSize > MAX_CACHE_SIZE) {
+            snapshotFile.delete();
+         }
+      }
+   }
+
+   /*
+    * Computes the CRC-32 of a file, reading it through memory-mapped chunks
+    */
+   static long hash(File file) throws IOException
+   {
+      CRC32 crc = new CRC32();
+      try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+         long size = channel.size();
+         for (long position = 0; position < size; position += HASH_CHUNK_SIZE) {
+            crc.update(map(channel, position, Math.min(HASH_CHUNK_SIZE, size - position)));
+         }
+      }
+      return crc.getValue();
+   }
+
+   private static ByteBuffer map(FileChannel channel, long position, long length) throws IOException
+   {
+      if (length > Integer.MAX_VALUE) {
+         throw new IOException("Snapshot section is too large to map: " + length + " bytes");
+      }
+      return channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+   }
+
+   private static void writeString(DataOutputStream out, String value) throws IOException
+   {
+      byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+   }
+
+   private static String readString(ByteBuffer in)
+   {
+      byte[] bytes = new byte[in.getInt()];
+      in.get(bytes);
+      return new String(bytes, StandardCharsets.UTF_8);
+   }
+
+   private static void closeQuietly(FileChannel channel)
+   {
+      if (channel != null) {
+         try {
+            channel.close();
+         } catch (IOException e) {
+            // NO-OP
+         }
+      }
+   }
+
+   /*
+    * Appends the sheets of a workbook to the snapshot as they are loaded. The fields are
+    * only used by the tasks of the executor, which run one at a time.
+    */
+   private static class SnapshotWriter implements WorkbookView.LoadListener
+   {
+      private final WorkbookView view;
+      private final File source;
+      private final long sourceSize;
+      private final long sourceModified;
+      private final File cacheDirectory;
+      private final Executor executor;
+
+      private final long[] sheetOffsets;
+      private final long[] sheetLengths;
+      private final boolean[] written;
+      private int writtenCount;
+      private StringTable strings;
+
+      private File tempFile;
+      private CountingOutputStream counter;
+      private DataOutputStream out;
+      private boolean done;
+
+      SnapshotWriter(WorkbookView view, File source, long sourceSize, long sourceModified, File cacheDirectory,
+            Executor executor)
+      {
+         this.view = view;
+         this.source = source;
+         this.sourceSize = sourceSize;
+         this.sourceModified = sourceModified;
+         this.cacheDirectory = cacheDirectory;
+         this.executor = executor;
+         int sheetCount = view.getNumberOfSheets();
+         sheetOffsets = new long[sheetCount];
+         sheetLengths = new long[sheetCount];
+         written = new boolean[sheetCount];
+      }
+
+      @Override
+      public void sheetLoaded(int sheetIndex, SheetStore store)
+      {
+         executor.execute(() -> write(sheetIndex, store));
+      }
+
+      @Override
+      public void workbookClosed()
+      {
+         executor.execute(this::discard);
+      }
+
+      private void write(int sheetIndex, SheetStore store)
+      {
+         if (done || written[sheetIndex]) {
+            return;
+         }
+         try {
+            if (out == null) {
+               start();
+            }
+            sheetOffsets[sheetIndex] = counter.getCount();
+            store.writeTo(out);
+            sheetLengths[sheetIndex] = counter.getCount() - sheetOffsets[sheetIndex];
+            written[sheetIndex] = true;
+            writtenCount++;
+            strings = store.getStringTable();
+            if (writtenCount == written.length) {
+               finish();
+            }
+         } catch (IOException | RuntimeException e) {
+            discard(); // the snapshot is only a cache and the workbook is parsed again next time
+         }
+      }
+
+      private void start() throws IOException
+      {
+         Files.createDirectories(cacheDirectory.toPath());
+         File snapshotFile = getSnapshotFile(source, cacheDirectory);
+         tempFile = File.createTempFile(snapshotFile.getName(), ".tmp", snapshotFile.getParentFile());
+         counter = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), 1 << 16));
+         out = new DataOutputStream(counter);
+         out.writeLong(MAGIC);
+         out.writeInt(VERSION);
+         out.writeLong(sourceSize);
+         out.writeLong(sourceModified);
+         out.writeLong(0); // the index offset, set when the snapshot is complete
+      }
+
+      /*
+       * Writes the strings, which hold those of every sheet by now, and the index, and
+       * replaces the previous snapshot of the workbook
+       */
+      private void finish() throws IOException
+      {
+         done = true;
+         view.setLoadListener(null);
+         if (source.length() != sourceSize || source.lastModified() != sourceModified) {
+            discard();
+            return;
+         }
+         long stringsOffset = counter.getCount();
+         int stringCount = strings.size();
+         out.writeInt(stringCount);
+         for (int i = 0; i < stringCount; i++) {
+            writeString(out, strings.get(i));
+         }
+         long stringsLength = counter.getCount() - stringsOffset;
+
+         long indexOffset = counter.getCount();
+         out.writeLong(stringsOffset);
+         out.writeLong(stringsLength);
+         out.writeInt(view.getFormatStrings().size());
+         for (Map.Entry<Short, String> format : view.getFormatStrings().entrySet()) {
+            out.writeShort(format.getKey());
+            writeString(out, format.getValue());
+         }
+         WorkbookMetadata metadata = view.getMetadata();
+         int sheetCount = written.length;
+         out.writeInt(sheetCount);
+         for (int i = 0; i < sheetCount; i++) {
+            writeString(out, view.getSheetName(i));
+            out.writeLong(sheetOffsets[i]);
+            out.writeLong(sheetLengths[i]);
+            out.writeInt(metadata.getSheetState(i));
+         }
+         out.writeInt(metadata.getActiveSheetIndex());
+         out.writeInt(metadata.getFirstVisibleTab());
+         out.writeInt(metadata.getNames().size());
+         for (NameView name : metadata.getNames()) {
+            writeString(out, name.getNameName());
+            out.writeInt(name.getSheetIndex());
+            writeString(out, name.getRefersToFormula());
+            out.writeBoolean(name.getComment() != null);
+            if (name.getComment() != null) {
+               writeString(out, name.getComment());
+            }
+            out.writeBoolean(name.isFunctionName());
+         }
+         out.close();
+         out = null;
+
+         try (RandomAccessFile file = new RandomAccessFile(tempFile, "rw")) {
+            file.seek(INDEX_OFFSET_POSITION);
+            file.writeLong(indexOffset);
+         }
+         File snapshotFile = getSnapshotFile(source, cacheDirectory);
+         try {
+            Files.move(tempFile.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                  StandardCopyOption.ATOMIC_MOVE);
+         } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tempFile.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+         }
+         tempFile = null;
+         trimCache(cacheDirectory);
+      }
+
+      /*
+       * Drops the sheets written so far
+       */
+      private void discard()
+      {
+         done = true;
+         view.setLoadListener(null);
+         if (out != null) {
+            try {
+               out.close();
+            } catch (IOException e) {
+               // NO-OP
+            }
+            out = null;
+         }
+         if (tempFile != null) {
+            tempFile.delete();
+            tempFile = null;
+         }
+      }
+   }
+
+   /*
+    * Counts the bytes written, which gives the offsets of the snapshot sections
+    */
+   private static class CountingOutputStream extends FilterOutputStream
+   {
+      private long count;
+
+      public CountingOutputStream(OutputStream out)
+      {
+         super(out);
+      }
+
+      @Override
+      public void write(int b) throws IOException
+      {
+         out.write(b);
+         count++;
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) throws IOException
+      {
+         out.write(b, off, len);
+         count += len;
+      }
+
+      public long getCount()
+      {
+         return count;
+      }
+   }
+}
@@ -0,0 +1,681 @@
+package org.mm.cellfie.ss;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.poi.ss.SpreadsheetVersion;
+import org.apache.poi.ss.formula.udf.UDFFinder;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.CreationHelper;
+import org.apache.poi.ss.usermodel.DataFormat;
+import org.apache.poi.ss.usermodel.Font;
+import org.apache.poi.ss.usermodel.Name;
+import org.apache.poi.ss.usermodel.PictureData;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Row.MissingCellPolicy;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+
+/**
+ * A read-only POI workbook over sheets held in {@link SheetStore}s. Each sheet is
+ * loaded the first time its cells are needed, so opening a workbook only reads the
+ * sheet names and the workbook settings, i.e., the active sheet, the sheet states and
+ * the defined names. The methods that would modify the workbook throw an
+ * {@link UnsupportedOperationException}.
+ * <p>
+ * The loaded sheets are kept within a memory budget. When a sheet is loaded and the
+ * stores of the loaded sheets take more than the budget, the sheets loaded first are
+ * released and are loaded again from their source when they are used next. A reader
+ * that goes through many cells of a sheet, e.g. a sheet panel or a generation run,
+ * pins the sheet with {@link SheetStore#pin}, and only sheets that are not pinned are
+ * released. The pinned sheets, and a sheet that is larger than the budget on its own,
+ * are kept even if they do not fit in the budget.
+ */
+class WorkbookView implements Workbook, Iterable<Sheet>
+{
+   /**
+    * Loads the cells of a sheet of the workbook.
+    */
+   interface SheetLoader
+   {
+      SheetStore load(int sheetIndex) throws IOException;
+   }
+
+   /**
+    * Receives the stores of the sheets of the workbook as they are loaded. It is called
+    * under the lock of the workbook, so it should hand the stores over and return.
+    */
+   interface LoadListener
+   {
+      void sheetLoaded(int sheetIndex, SheetStore store);
+
+      void workbookClosed();
+   }
+
+   private static final String PRINT_AREA_NAME = "_xlnm.Print_Area";
+
+   private final SheetLoader sheetLoader;
+   private final WorkbookMetadata metadata;
+   private final Map<Short, String> formatStrings;
+   private final Closeable source;
+   private final long memoryBudget;
+
+   private final SheetView[] sheets;
+   private final List<CellStyleView> cellStyles = new ArrayList<>(); // guarded by itself
+
+   private final Deque<Integer> loadedSheets = new ArrayDeque<>(); // guarded by this
+   private final long[] loadedSizes; // guarded by this
+   private final int[] pinCounts; // guarded by this
+   private long loadedSize; // guarded by this
+   private LoadListener loadListener; // guarded by this
+
+   private WorkbookView(List<String> sheetNames, WorkbookMetadata metadata, SheetLoader sheetLoader,
+         Map<Short, String> formatStrings, Closeable source, long memoryBudget)
+   {
+      this.sheetLoader = sheetLoader;
+      this.metadata = metadata;
+      this.formatStrings = formatStrings;
+      this.source = source;
+      this.memoryBudget = memoryBudget;
+      sheets = new SheetView[sheetNames.size()];
+      loadedSizes = new long[sheetNames.size()];
+      pinCounts = new int[sheetNames.size()];
+      for (int i = 0; i < sheets.length; i++) {
+         sheets[i] = new SheetView(this, i, sheetNames.get(i));
+      }
+      cellStyles.add(new CellStyleView(this, (short) 0, (short) 0));
+   }
+
+   /**
+    * Creates a workbook with the given sheets, all visible, with the first one active and
+    * no defined names.
+    *
+    * @param sheetNames
+    *          The names of the sheets, in workbook order.
+    * @param sheetLoader
+    *          The loader of the sheet cells.
+    * @param formatStrings
+    *          The number format strings by format index, for the formats that are not
+    *          built into Excel.
+    * @param source
+    *          The resource to close with the workbook.
+    */
+   static WorkbookView create(List<String> sheetNames, SheetLoader sheetLoader, Map<Short, String> formatStrings,
+         Closeable source)
+   {
+      return create(sheetNames, sheetLoader, formatStrings, source, Long.MAX_VALUE);
+   }
+
+   /**
+    * Creates a workbook with the given sheets, whose loader can load a sheet again
+    * after it was released to stay within the given memory budget.
+    *
+    * @param memoryBudget
+    *          The heap bytes that the stores of the loaded sheets may take, see
+    *          {@link SheetStore#getMemorySize()}.
+    */
+   static WorkbookView create(List<String> sheetNames, SheetLoader sheetLoader, Map<Short, String> formatStrings,
+         Closeable source, long memoryBudget)
+   {
+      return create(sheetNames, WorkbookMetadata.of(sheetNames.size()), sheetLoader, formatStrings, source,
+            memoryBudget);
+   }
+
+   /**
+    * Creates a workbook with the given sheets and workbook settings, whose loader can
+    * load a sheet again after it was released to stay within the given memory budget.
+    *
+    * @param metadata
+    *          The active sheet, the sheet states and the defined names of the workbook.
+    */
+   static WorkbookView create(List<String> sheetNames, WorkbookMetadata metadata, SheetLoader sheetLoader,
+         Map<Short, String> formatStrings, Closeable source, long memoryBudget)
+   {
+      return new WorkbookView(sheetNames, metadata, sheetLoader, formatStrings, source, memoryBudget);
+   }
+
+   /*
+    * Returns the store of the given sheet, loading it if it is not loaded. One sheet is
+    * loaded at a time, the loaders share the string table of the workbook. The stores
+    * of the sheet views are only set and released here, under the lock of the workbook.
+    */
+   synchronized SheetStore loadSheet(int sheetIndex)
+   {
+      SheetStore store = sheets[sheetIndex].getLoadedStore();
+      if (store != null) {
+         return store;
+      }
+      try {
+         store = sheetLoader.load(sheetIndex);
+      } catch (IOException e) {
+         throw new IllegalStateException(
+               String.format("Error while reading sheet '%s': %s", getSheetName(sheetIndex), e.getMessage()), e);
+      }
+      sheets[sheetIndex].setStore(store);
+      loadedSheets.addLast(sheetIndex);
+      loadedSizes[sheetIndex] = store.getMemorySize();
+      loadedSize += loadedSizes[sheetIndex];
+      releaseIdleSheets(sheetIndex);
+      if (loadListener != null) {
+         loadListener.sheetLoaded(sheetIndex, store);
+      }
+      return store;
+   }
+
+   /**
+    * Sets the listener of the sheet loads, null for none, and passes it the sheets that
+    * are already loaded.
+    */
+   synchronized void setLoadListener(LoadListener loadListener)
+   {
+      this.loadListener = loadListener;
+      if (loadListener != null) {
+         for (int sheetIndex : loadedSheets) {
+            loadListener.sheetLoaded(sheetIndex, sheets[sheetIndex].getLoadedStore());
+         }
+      }
+   }
+
+   /*
+    * Loads the given sheet and keeps it loaded until it is unpinned as many times as it
+    * was pinned
+    */
+   synchronized SheetStore pinSheet(int sheetIndex)
+   {
+      SheetStore store = loadSheet(sheetIndex);
+      pinCounts[sheetIndex]++;
+      return store;
+   }
+
+   synchronized void unpinSheet(int sheetIndex)
+   {
+      if (pinCounts[sheetIndex] == 0) {
+         throw new IllegalStateException("Sheet '" + getSheetName(sheetIndex) + "' is not pinned");
+      }
+      pinCounts[sheetIndex]--;
+      releaseIdleSheets(-1);
+   }
+
+   /*
+    * Releases the sheets that are not pinned, the ones loaded first first, until the
+    * loaded sheets fit in the budget. The sheet just loaded is kept.
+    */
+   private void releaseIdleSheets(int loadedIndex)
+   {
+      Iterator<Integer> loadedIndexes = loadedSheets.iterator();
+      while (loadedSize > memoryBudget && loadedIndexes.hasNext()) {
+         int index = loadedIndexes.next();
+         if (index != loadedIndex && pinCounts[index] == 0) {
+            loadedIndexes.remove();
+            sheets[index].setStore(null);
+            loadedSize -= loadedSizes[index];
+         }
+      }
+   }
+
+   String getFormatString(short format)
+   {
+      return formatStrings.get(format);
+   }
+
+   Map<Short, String> getFormatStrings()
+   {
+      return formatStrings;
+   }
+
+   WorkbookMetadata getMetadata()
+   {
+      return metadata;
+   }
+
+   /*
+    * Returns the style of the cells in the given number format. The stores only keep
+    * the number format of a cell, so there is one style per format.
+    */
+   CellStyleView getCellStyle(short format)
+   {
+      synchronized (cellStyles) {
+         for (CellStyleView cellStyle : cellStyles) {
+            if (cellStyle.getDataFormat() == format) {
+               return cellStyle;
+            }
+         }
+         CellStyleView cellStyle = new CellStyleView(this, (short) cellStyles.size(), format);
+         cellStyles.add(cellStyle);
+         return cellStyle;
+      }
+   }
+
+   /**
+    * Returns the view behind a workbook opened by {@link WorkbookLoader}.
+    *
+    * @throws IllegalArgumentException
+    *           If the workbook is not backed by sheet stores.
+    */
+   static WorkbookView of(Workbook workbook)
+   {
+      if (workbook instanceof WorkbookView) {
+         return (WorkbookView) workbook;
+      }
+      throw new IllegalArgumentException("The workbook is not backed by sheet stores");
+   }
+
+   @Override
+   public int getNumberOfSheets()
+   {
+      return sheets.length;
+   }
+
+   @Override
+   public Sheet getSheetAt(int index)
+   {
+      if (index < 0 || index >= sheets.length) {
+         throw new IllegalArgumentException("Sheet index (" + index + ") is out of range (0.." + (sheets.length - 1) + ")");
+      }
+      return sheets[index];
+   }
+
+   @Override
+   public Sheet getSheet(String name)
+   {
+      int index = getSheetIndex(name);
+      return index < 0 ? null : sheets[index];
+   }
+
+   @Override
+   public String getSheetName(int index)
+   {
+      return getSheetAt(index).getSheetName();
+   }
+
+   @Override
+   public int getSheetIndex(String name)
+   {
+      for (int i = 0; i < sheets.length; i++) {
+         if (sheets[i].getSheetName().equalsIgnoreCase(name)) {
+            return i;
+         }
+      }
+      return -1;
+   }
+
+   @Override
+   public int getSheetIndex(Sheet sheet)
+   {
+      for (int i = 0; i < sheets.length; i++) {
+         if (sheets[i] == sheet) {
+            return i;
+         }
+      }
+      return -1;
+   }
+
+   @Override
+   public Iterator<Sheet> iterator()
+   {
+      return Collections.<Sheet> unmodifiableList(Arrays.asList(sheets)).iterator();
+   }
+
+   public Iterator<Sheet> sheetIterator()
+   {
+      return iterator();
+   }
+
+   @Override
+   public int getActiveSheetIndex()
+   {
+      return metadata.getActiveSheetIndex();
+   }
+
+   @Override
+   public int getFirstVisibleTab()
+   {
+      return metadata.getFirstVisibleTab();
+   }
+
+   @Override
+   public boolean isHidden()
+   {
+      return false;
+   }
+
+   @Override
+   public boolean isSheetHidden(int sheetIndex)
+   {
+      getSheetAt(sheetIndex); // checks the index
+      return metadata.getSheetState(sheetIndex) == SHEET_STATE_HIDDEN;
+   }
+
+   @Override
+   public boolean isSheetVeryHidden(int sheetIndex)
+   {
+      getSheetAt(sheetIndex);
+      return metadata.getSheetState(sheetIndex) == SHEET_STATE_VERY_HIDDEN;
+   }
+
+   @Override
+   public MissingCellPolicy getMissingCellPolicy()
+   {
+      return Row.RETURN_NULL_AND_BLANK;
+   }
+
+   @Override
+   public short getNumCellStyles()
+   {
+      synchronized (cellStyles) {
+         return (short) cellStyles.size();
+      }
+   }
+
+   public CellStyle getCellStyleAt(short index)
+   {
+      return getCellStyleAt((int) index);
+   }
+
+   public CellStyle getCellStyleAt(int index)
+   {
+      synchronized (cellStyles) {
+         return index >= 0 && index < cellStyles.size() ? cellStyles.get(index) : null;
+      }
+   }
+
+   @Override
+   public short getNumberOfFonts()
+   {
+      return 0;
+   }
+
+   public Font getFontAt(short index)
+   {
+      return null;
+   }
+
+   public Font getFontAt(int index)
+   {
+      return null;
+   }
+
+   @Override
+   public Font findFont(short boldWeight, short color, short fontHeight, String name, boolean italic,
+         boolean strikeout, short typeOffset, byte underline)
+   {
+      return null;
+   }
+
+   @Override
+   public int getNumberOfNames()
+   {
+      return metadata.getNames().size();
+   }
+
+   @Override
+   public Name getName(String name)
+   {
+      int nameIndex = getNameIndex(name);
+      return nameIndex != -1 ? metadata.getNames().get(nameIndex) : null;
+   }
+
+   @Override
+   public Name getNameAt(int nameIndex)
+   {
+      List<NameView> names = metadata.getNames();
+      if (names.isEmpty()) {
+         throw new IllegalStateException("There are no defined names in this workbook");
+      }
+      if (nameIndex < 0 || nameIndex >= names.size()) {
+         throw new IllegalArgumentException(String.format(
+               "Specified name index %d is outside the allowable range (0..%d)", nameIndex, names.size() - 1));
+      }
+      return names.get(nameIndex);
+   }
+
+   @Override
+   public int getNameIndex(String name)
+   {
+      List<NameView> names = metadata.getNames();
+      for (int i = 0; i < names.size(); i++) {
+         if (names.get(i).getNameName().equalsIgnoreCase(name)) {
+            return i;
+         }
+      }
+      return -1;
+   }
+
+   @Override
+   public String getPrintArea(int sheetIndex)
+   {
+      for (NameView name : metadata.getNames()) {
+         if (name.getSheetIndex() == sheetIndex && name.getNameName().equals(PRINT_AREA_NAME)) {
+            return name.getRefersToFormula();
+         }
+      }
+      return null;
+   }
+
+   @Override
+   public List<? extends PictureData> getAllPictures()
+   {
+      return Collections.emptyList();
+   }
+
+   @Override
+   public boolean getForceFormulaRecalculation()
+   {
+      return false;
+   }
+
+   public SpreadsheetVersion getSpreadsheetVersion()
+   {
+      return SpreadsheetVersion.EXCEL2007;
+   }
+
+   @Override
+   public void close() throws IOException
+   {
+      LoadListener listener;
+      synchronized (this) {
+         listener = loadListener;
+         loadListener = null;
+      }
+      if (listener != null) {
+         listener.workbookClosed();
+      }
+      source.close();
+   }
+
+   /*
+    * The workbook is read-only
+    */
+
+   @Override
+   public void setActiveSheet(int sheetIndex)
+   {
+      throw readOnly();
+   }
+
+   @Override
+   public void setFirstVisibleTab(int sheetIndex)
+   {
+      throw readOnly();
+   }
+
+   @Override
+   public void setSheetOrder(String sheetName, int position)
+   {
+      throw readOnly();
+   }
+
+   @Override
+   public void setSelectedTab(int index)
+   {
+      throw readOnly();
+   }
+
+   @Override
+   public void setSheetName(int sheetIndex, String name)
+   {
+      throw readOnly();
+   }
+
+   @Override
+   public Sheet createSheet()
+   {
+      throw readOnly();
+   }
+
+   @Override
+   public Sheet createSheet(String sheetName)
+   {
+      throw readOnly();
+   }
+
+   @Override
+   public Sheet cloneSheet(int sheetIndex)
+   {
+      throw readOnly();
+   }
+
+   @Override
+   public void removeSheetAt(int index)
+   {
+      throw readOnly();
+   }
+
+   public void setRepeatingRowsAndColumns(int sheetIndex, int startColumn, int endColumn, int startRow, int endRow)
+   {
+      throw readOnly();
+   }
+
+   @Override
+   public Font createFont()
+   {
+      throw readOnly();
+   }
+
+   @Override
+   public CellStyle createCellStyle()
+   {
+      throw readOnly();
+   }
+
+   @Override
+   public void write(OutputStream stream) throws IOException
+   {
+      throw readOnly();
+   }
+
+   @Override
+   public Name createName()
+   {
+      throw readOnly();
+   }
+
+   @Override
+   public void removeName(int index)
+   {
+      throw readOnly();
+   }
+
+   @Override
+   public void removeName(String name)
+   {
+      throw readOnly();
+   }
+
+   public int linkExternalWorkbook(String name, Workbook workbook)
+   {
+      throw readOnly();
+   }
+
+   @Override
+   public void setPrintArea(int sheetIndex, String reference)
+   {
+      throw readOnly();
+   }
+
+   @Override
+   public void setPrintArea(int sheetIndex, int startColumn, int endColumn, int startRow, int endRow)
+   {
+      throw readOnly();
+   }
+
+   @Override
+   public void removePrintArea(int sheetIndex)
+   {
+      throw readOnly();
+   }
+
+   @Override
+   public void setMissingCellPolicy(MissingCellPolicy missingCellPolicy)
+   {
+      throw readOnly();
+   }
+
+   @Override
+   public DataFormat createDataFormat()
+   {
+      throw readOnly();
+   }
+
+   @Override
+   public int addPicture(byte[] pictureData, int format)
+   {
+      throw readOnly();
+   }
+
+   @Override
+   public CreationHelper getCreationHelper()
+   {
+      throw readOnly();
+   }
+
+   @Override
+   public void setHidden(boolean hidden)
+   {
+      throw readOnly();
+   }
+
+   @Override
+   public void setSheetHidden(int sheetIndex, boolean hidden)
+   {
+      throw readOnly();
+   }
+
+   @Override
+   public void setSheetHidden(int sheetIndex, int hidden)
+   {
+      throw readOnly();
+   }
+
+   @Override
+   public void addToolPack(UDFFinder toolPack)
+   {
+      throw readOnly();
+   }
+
+   @Override
+   public void setForceFormulaRecalculation(boolean value)
+   {
+      throw readOnly();
+   }
+
+   static UnsupportedOperationException readOnly()
+   {
+      return new UnsupportedOperationException("The workbook is read-only");
+   }
+
+   @Override
+   public String toString()
+   {
+      return "Read-only workbook " + Arrays.toString(sheets);
+   }
+}
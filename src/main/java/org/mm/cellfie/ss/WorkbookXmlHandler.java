@@ -0,0 +1,109 @@
+package org.mm.cellfie.ss;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.poi.ss.usermodel.Workbook;
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Reads the workbook part of an xlsx file, i.e., {@code xl/workbook.xml}, into a
+ * {@link WorkbookMetadata}: the active and first visible sheet of the first workbook
+ * view, the state of each sheet and the defined names.
+ */
+class WorkbookXmlHandler extends DefaultHandler
+{
+   private final List<String> sheetNames = new ArrayList<>();
+   private final List<Integer> sheetStates = new ArrayList<>();
+   private final List<NameView> names = new ArrayList<>();
+   private final StringBuilder formula = new StringBuilder();
+
+   private boolean hasView;
+   private int activeSheetIndex;
+   private int firstVisibleTab;
+
+   private boolean inName;
+   private String name;
+   private int nameSheetIndex;
+   private String nameComment;
+   private boolean function;
+
+   @Override
+   public void startElement(String uri, String localName, String qName, Attributes attributes)
+   {
+      switch (localName) {
+         case "workbookView" :
+            if (!hasView) {
+               activeSheetIndex = getInt(attributes, "activeTab", 0);
+               firstVisibleTab = getInt(attributes, "firstSheet", 0);
+               hasView = true;
+            }
+            break;
+         case "sheet" :
+            sheetNames.add(attributes.getValue("name"));
+            sheetStates.add(getSheetState(attributes.getValue("state")));
+            break;
+         case "definedName" :
+            inName = true;
+            name = attributes.getValue("name");
+            nameSheetIndex = getInt(attributes, "localSheetId", -1);
+            nameComment = attributes.getValue("comment");
+            function = "1".equals(attributes.getValue("function")) || "true".equals(attributes.getValue("function"));
+            formula.setLength(0);
+            break;
+         default :
+            break;
+      }
+   }
+
+   @Override
+   public void characters(char[] ch, int start, int length)
+   {
+      if (inName) {
+         formula.append(ch, start, length);
+      }
+   }
+
+   @Override
+   public void endElement(String uri, String localName, String qName)
+   {
+      if ("definedName".equals(localName)) {
+         inName = false;
+         String refersToFormula = formula.toString();
+         String sheetName = nameSheetIndex >= 0 && nameSheetIndex < sheetNames.size()
+               ? sheetNames.get(nameSheetIndex)
+               : NameView.getReferencedSheet(refersToFormula);
+         names.add(new NameView(name, nameSheetIndex, sheetName, refersToFormula, nameComment, function));
+      }
+   }
+
+   private static int getInt(Attributes attributes, String name, int defaultValue)
+   {
+      String value = attributes.getValue(name);
+      return value != null ? Integer.parseInt(value) : defaultValue;
+   }
+
+   private static int getSheetState(String state)
+   {
+      if ("hidden".equals(state)) {
+         return Workbook.SHEET_STATE_HIDDEN;
+      }
+      if ("veryHidden".equals(state)) {
+         return Workbook.SHEET_STATE_VERY_HIDDEN;
+      }
+      return Workbook.SHEET_STATE_VISIBLE;
+   }
+
+   /**
+    * Returns the metadata read from the workbook part.
+    */
+   WorkbookMetadata getMetadata()
+   {
+      int[] states = new int[sheetStates.size()];
+      for (int i = 0; i < states.length; i++) {
+         states[i] = sheetStates.get(i);
+      }
+      return new WorkbookMetadata(activeSheetIndex, firstVisibleTab, states, names);
+   }
+}
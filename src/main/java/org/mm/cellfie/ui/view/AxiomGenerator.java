@@ -0,0 +1,706 @@
+package org.mm.cellfie.ui.view;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.mm.cellfie.action.ConcurrentEntityResolver;
+import org.mm.cellfie.action.ConcurrentEntityResolver.EntityKey;
+import org.mm.cellfie.action.EntityCreationBatch;
+import org.mm.cellfie.action.LabelIndex;
+import org.mm.cellfie.action.PrefixTable;
+import org.mm.cellfie.action.ResolverStatistics;
+import org.mm.cellfie.action.SignatureSnapshot;
+import org.mm.cellfie.ss.SheetStore;
+import org.mm.cellfie.ui.view.GenerationWorker.RowBlock;
+import org.mm.cellfie.ui.view.IncrementalGenerationState.RowRecords;
+import org.mm.core.TransformationRule;
+import org.mm.core.settings.ReferenceSettings;
+import org.mm.core.settings.ValueEncodingSetting;
+import org.protege.editor.owl.model.OWLModelManager;
+import org.semanticweb.owlapi.model.OWLAxiom;
+import org.semanticweb.owlapi.model.OWLEntity;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Evaluates transformation rules over their cell ranges using a pool of worker
+ * threads. The row range of each rule is split into blocks, and the blocks of all
+ * the rules that may run together are queued for the workers to pick up one at a
+ * time. Each worker owns its data source view and renderers and streams the produced
+ * axioms to a shared sink. The per-block logs are merged in rule and block order once
+ * the run is done, together with the wall time of each rule.
+ */
+public class AxiomGenerator
+{
+   private static final int MIN_BLOCK_ROWS = 64;
+   private static final int BLOCKS_PER_WORKER = 4;
+
+   private static final long CHECKPOINT_INTERVAL = 30000; // in milliseconds
+
+   private static final Pattern ORDER_HINT_PATTERN = Pattern.compile("\\[order\\s*=\\s*(-?\\d+)\\]");
+
+   private final WorkspacePanel container;
+   private final Workbook workbook;
+   private final int parallelism;
+   private final Optional<IncrementalGenerationState> incrementalState;
+
+   private final ReferenceSettings logReferenceSettings = getLogReferenceSettings();
+
+   private final Map<String, SheetRowIndex> rowIndexes = new HashMap<>();
+
+   private Optional<File> checkpointFile = Optional.empty();
+   private String runKey;
+   private Optional<GenerationCheckpoint> resumeCheckpoint = Optional.empty();
+
+   private SignatureSnapshot signatureSnapshot;
+   private PrefixTable prefixTable;
+   private CompletableFuture<LabelIndex> labelIndex;
+
+   private ResolverStatistics resolverStatistics = new ResolverStatistics();
+
+   public AxiomGenerator(WorkspacePanel container, Workbook workbook, int parallelism)
+   {
+      this(container, workbook, parallelism, Optional.empty());
+   }
+
+   /**
+    * Creates a generator that skips the rows that did not change since the previous
+    * run when the incremental state is present.
+    */
+   public AxiomGenerator(WorkspacePanel container, Workbook workbook, int parallelism,
+         Optional<IncrementalGenerationState> incrementalState)
+   {
+      this.container = container;
+      this.workbook = workbook;
+      this.parallelism = Math.max(1, parallelism);
+      this.incrementalState = incrementalState;
+   }
+
+   /**
+    * Makes the generator save its progress to the given file every now and then, and
+    * when the run fails or is cancelled. The file is deleted once a run completes. If a
+    * checkpoint to resume from is given, the rows it has completed are not evaluated
+    * again and its axioms are sent to the sink first.
+    *
+    * @param checkpointFile
+    *          The file that receives the checkpoints.
+    * @param runKey
+    *          The key of the run, see {@link GenerationCheckpoint#createRunKey}.
+    * @param resumeCheckpoint
+    *          The checkpoint of a previous run with the same key to resume from.
+    */
+   public void enableCheckpoints(File checkpointFile, String runKey, Optional<GenerationCheckpoint> resumeCheckpoint)
+   {
+      this.checkpointFile = Optional.of(checkpointFile);
+      this.runKey = runKey;
+      this.resumeCheckpoint = resumeCheckpoint;
+   }
+
+   /**
+    * Sets the views of the Protege model that the entity resolver of the runs reads.
+    * They must be taken on the event dispatch thread before the run, since the model is
+    * not read from the worker threads. The label index may still be building; the run
+    * waits for it on the thread that calls {@link #generate}.
+    *
+    * @param signatureSnapshot
+    *          The signature of the active ontologies, see
+    *          {@link WorkspacePanel#getSignatureSnapshot()}.
+    * @param prefixTable
+    *          The prefixes of the active ontology.
+    * @param labelIndex
+    *          The labels of the active ontologies, see {@link WorkspacePanel#getLabelIndex()}.
+    */
+   public void setResolverSources(SignatureSnapshot signatureSnapshot, PrefixTable prefixTable,
+         CompletableFuture<LabelIndex> labelIndex)
+   {
+      this.signatureSnapshot = signatureSnapshot;
+      this.prefixTable = prefixTable;
+      this.labelIndex = labelIndex;
+   }
+
+   /**
+    * Returns the entity resolver statistics of the last run, which are empty before
+    * the first run.
+    */
+   public ResolverStatistics getResolverStatistics()
+   {
+      return resolverStatistics;
+   }
+
+   /**
+    * Evaluates all the active rules and streams the produced axioms to the given sink.
+    * Rules with the same ordering hint run concurrently, sharing the worker pool, and
+    * rules with a lower hint finish before the others start. If the run is cancelled
+    * through the given progress object, the method stops early and the sink holds the
+    * axioms produced so far. When checkpoints are enabled, the rules are identified by
+    * their index in the given list. The sheets of the active rules are pinned for the
+    * run, so that a streamed workbook does not release them while they are read.
+    *
+    * @param rules
+    *          The transformation rules to evaluate.
+    * @param axiomSink
+    *          The sink that receives the generated axioms.
+    * @param logBuilder
+    *          The string builder that receives the generation log.
+    * @param progress
+    *          The progress counters updated during the generation.
+    * @throws Exception If a rule has an invalid cell range or fails to evaluate.
+    * @throws IllegalStateException If the resolver sources were not set.
+    */
+   public void generate(List<TransformationRule> rules, AxiomSink axiomSink, StringBuilder logBuilder,
+         GenerationProgress progress) throws Exception
+   {
+      if (signatureSnapshot == null || prefixTable == null || labelIndex == null) {
+         throw new IllegalStateException("The resolver sources must be set before the generation");
+      }
+      Set<Sheet> sheets = new LinkedHashSet<>();
+      for (TransformationRule rule : rules) {
+         Sheet sheet = workbook.getSheet(rule.getSheetName());
+         if (rule.isActive() && sheet != null) {
+            sheets.add(sheet);
+         }
+      }
+      List<Sheet> pinnedSheets = new ArrayList<>();
+      try {
+         for (Sheet sheet : sheets) {
+            SheetStore.pin(sheet);
+            pinnedSheets.add(sheet);
+         }
+         run(rules, axiomSink, logBuilder, progress);
+      } finally {
+         for (Sheet sheet : pinnedSheets) {
+            SheetStore.unpin(sheet);
+         }
+      }
+   }
+
+   private void run(List<TransformationRule> rules, AxiomSink axiomSink, StringBuilder logBuilder,
+         GenerationProgress progress) throws Exception
+   {
+      if (incrementalState.isPresent()) {
+         incrementalState.get().startRun(resumeCheckpoint.isPresent());
+      }
+      List<RuleJob> jobs = new ArrayList<>();
+      SortedMap<Integer, List<RuleJob>> stages = new TreeMap<>();
+      long totalCells = 0;
+      long restoredCells = 0;
+      for (int ruleIndex = 0; ruleIndex < rules.size(); ruleIndex++) {
+         TransformationRule rule = rules.get(ruleIndex);
+         if (rule.isActive()) {
+            RuleJob job = createJob(rule, ruleIndex);
+            jobs.add(job);
+            stages.computeIfAbsent(getOrderHint(rule), order -> new ArrayList<>()).add(job);
+            totalCells += job.range.getCellCount();
+            restoredCells += (long) job.restoredRows * job.range.getColumnCount();
+         }
+      }
+      progress.setTotalCells(totalCells);
+      progress.addProcessedCells(restoredCells);
+
+      OWLModelManager modelManager = container.getEditorKit().getModelManager();
+      EntityCreationBatch creationBatch = new EntityCreationBatch(modelManager.getOWLDataFactory());
+      ConcurrentEntityResolver entityResolver = new ConcurrentEntityResolver(modelManager, signatureSnapshot,
+            prefixTable, labelIndex.join(), creationBatch);
+      resolverStatistics = entityResolver.getStatistics();
+
+      Optional<RunCheckpoint> checkpoint = Optional.empty();
+      if (checkpointFile.isPresent()) {
+         long axiomLogLength = 0;
+         if (resumeCheckpoint.isPresent()) {
+            for (OWLAxiom axiom : resumeCheckpoint.get().getAxioms()) {
+               axiomSink.accept(axiom);
+            }
+            entityResolver.reuseCreatedEntities(resumeCheckpoint.get().getCreatedEntities());
+            axiomLogLength = resumeCheckpoint.get().getAxiomLogLength();
+            resumeCheckpoint = Optional.empty(); // the restored axioms are held by the sink now
+         }
+         RunCheckpoint runCheckpoint = new RunCheckpoint(jobs, axiomSink, creationBatch, entityResolver, progress,
+               axiomLogLength);
+         axiomSink = runCheckpoint;
+         checkpoint = Optional.of(runCheckpoint);
+      }
+
+      ExecutorService executor = Executors.newFixedThreadPool(parallelism,
+            new ThreadFactoryBuilder().setNameFormat("Cellfie-Generator-%d").setDaemon(true).build());
+      try {
+         for (List<RuleJob> stage : stages.values()) {
+            if (progress.isCancelled()) {
+               break;
+            }
+            runStage(stage, executor, axiomSink, progress, checkpoint, entityResolver);
+         }
+      } catch (Exception e) {
+         if (checkpoint.isPresent()) {
+            try {
+               checkpoint.get().save();
+            } catch (IOException saveError) {
+               e.addSuppressed(saveError);
+            }
+         }
+         throw e;
+      } finally {
+         executor.shutdownNow();
+      }
+      for (RuleJob job : jobs) {
+         if (job.isStarted()) {
+            logJob(job, logBuilder);
+         }
+      }
+      declareNewEntities(creationBatch, axiomSink, logBuilder);
+      if (incrementalState.isPresent()) {
+         logInterning(incrementalState.get().getAxiomPool(), logBuilder);
+      }
+      if (checkpoint.isPresent()) {
+         finishCheckpoint(checkpoint.get(), progress, logBuilder);
+      }
+   }
+
+   private void finishCheckpoint(RunCheckpoint checkpoint, GenerationProgress progress, StringBuilder logBuilder)
+   {
+      if (progress.isCancelled()) {
+         try {
+            checkpoint.save();
+         } catch (IOException e) {
+            checkpoint.saveError = e;
+         }
+      } else {
+         GenerationCheckpoint.delete(checkpointFile.get());
+      }
+      if (checkpoint.saveError != null) {
+         logBuilder.append("\n");
+         logBuilder.append(asComment("Checkpoint could not be saved: " + checkpoint.saveError.getMessage()));
+         logBuilder.append("\n");
+      }
+   }
+
+   private RuleJob createJob(TransformationRule rule, int ruleIndex) throws Exception
+   {
+      RuleRange fullRange = RuleRange.create(rule, workbook);
+      RuleRange range = RuleReferenceAnalysis.analyze(rule.getRuleString()).narrow(fullRange);
+      range = toSparseRange(range);
+      Optional<RowRecords> rowRecords = incrementalState.map(state -> state.getRowRecords(rule));
+      BitSet completedRows = resumeCheckpoint.isPresent() ? resumeCheckpoint.get().getCompletedRows(ruleIndex) : new BitSet();
+      List<RowBlock> blocks = new ArrayList<>();
+      int restoredRows = 0;
+      for (RowBlock block : split(range)) {
+         RowBlock remainingBlock = removeCompletedRows(block, completedRows);
+         restoredRows += block.getRowCount() - remainingBlock.getRowCount();
+         if (remainingBlock.getRowCount() > 0) {
+            blocks.add(remainingBlock);
+         }
+      }
+      return new RuleJob(ruleIndex, range, fullRange.getCellCount() - range.getCellCount(), blocks, rowRecords,
+            completedRows, restoredRows);
+   }
+
+   private static RowBlock removeCompletedRows(RowBlock block, BitSet completedRows)
+   {
+      if (completedRows.isEmpty()) {
+         return block;
+      }
+      int[] rows = new int[block.getRowCount()];
+      int size = 0;
+      for (int i = 0; i < block.getRowCount(); i++) {
+         int row = block.getRow(i);
+         if (!completedRows.get(row)) {
+            rows[size++] = row;
+         }
+      }
+      return size == rows.length ? block : RowBlock.slice(rows, 0, size);
+   }
+
+   /*
+    * Runs the blocks of all rules in the stage on the worker pool and waits until they
+    * are done. The blocks are queued rule by rule, so the workers move on to the next
+    * rule as soon as the blocks of the previous one are taken.
+    */
+   private void runStage(List<RuleJob> stage, ExecutorService executor, AxiomSink axiomSink,
+         GenerationProgress progress, Optional<RunCheckpoint> checkpoint, ConcurrentEntityResolver entityResolver)
+         throws Exception
+   {
+      final List<WorkItem> workItems = new ArrayList<>();
+      for (RuleJob job : stage) {
+         progress.addSkippedCells(job.skippedCells);
+         for (int blockIndex = 0; blockIndex < job.blocks.size(); blockIndex++) {
+            workItems.add(new WorkItem(job, blockIndex));
+         }
+      }
+      final AtomicInteger nextItem = new AtomicInteger();
+
+      int workerCount = Math.min(parallelism, workItems.size());
+      List<Future<Void>> tasks = new ArrayList<>(workerCount);
+      for (int i = 0; i < workerCount; i++) {
+         tasks.add(executor.submit(() -> {
+            GenerationWorker worker = new GenerationWorker(container, workbook, logReferenceSettings, entityResolver);
+            int itemIndex;
+            while (!progress.isCancelled() && (itemIndex = nextItem.getAndIncrement()) < workItems.size()) {
+               WorkItem item = workItems.get(itemIndex);
+               RuleJob job = item.job;
+               StringBuilder blockLog = new StringBuilder();
+               job.markStarted();
+               worker.evaluate(job.range, job.blocks.get(item.blockIndex), axiomSink, blockLog, progress, job.rowRecords);
+               job.blockLogs[item.blockIndex] = blockLog;
+               job.markFinished();
+               if (checkpoint.isPresent()) {
+                  job.markCompleted(job.blocks.get(item.blockIndex));
+                  checkpoint.get().saveIfDue();
+               }
+            }
+            return null;
+         }));
+      }
+      awaitAll(tasks);
+   }
+
+   private List<RowBlock> split(RuleRange range)
+   {
+      int rowCount = range.getRowCount();
+      int blockRows = Math.max(MIN_BLOCK_ROWS, (rowCount + parallelism * BLOCKS_PER_WORKER - 1) / (parallelism * BLOCKS_PER_WORKER));
+      List<RowBlock> blocks = new ArrayList<>();
+      if (range.isSparse()) {
+         int[] rows = range.getRows();
+         for (int from = 0; from < rows.length; from += blockRows) {
+            blocks.add(RowBlock.slice(rows, from, Math.min(from + blockRows, rows.length)));
+         }
+      } else {
+         for (int startRow = range.getStartRow(); startRow <= range.getEndRow(); startRow += blockRows) {
+            int endRow = Math.min(startRow + blockRows - 1, range.getEndRow());
+            blocks.add(RowBlock.contiguous(startRow, endRow));
+         }
+      }
+      return blocks;
+   }
+
+   /*
+    * Restricts a wildcard row range to the rows that exist and are not blank. The rows
+    * are only filtered when the rule output depends on the current row.
+    */
+   private RuleRange toSparseRange(RuleRange range)
+   {
+      if (!range.getRule().hasEndRowWildcard() || range.getRowCount() <= 1) {
+         return range;
+      }
+      SheetRowIndex rowIndex = rowIndexes.computeIfAbsent(range.getSheetName(),
+            sheetName -> SheetRowIndex.build(SheetStore.of(range.getSheet())));
+      return range.withRows(rowIndex.getRows(range.getStartRow(), range.getEndRow()));
+   }
+
+   private static void awaitAll(List<Future<Void>> tasks) throws Exception
+   {
+      try {
+         for (Future<Void> task : tasks) {
+            task.get();
+         }
+      } catch (ExecutionException e) {
+         for (Future<Void> task : tasks) {
+            task.cancel(true);
+         }
+         Throwable cause = e.getCause();
+         if (cause instanceof Exception) {
+            throw (Exception) cause;
+         }
+         throw e;
+      }
+   }
+
+   private static void logJob(RuleJob job, StringBuilder logBuilder)
+   {
+      logExpression(job.range.getRule(), logBuilder);
+      logSkippedCells(job.range, job.skippedCells, logBuilder);
+      if (job.restoredRows > 0) {
+         String message = String.format("%,d rows restored from the checkpoint of a previous run", job.restoredRows);
+         logBuilder.append(asComment(message));
+         logBuilder.append("\n\n");
+      }
+      for (StringBuilder blockLog : job.blockLogs) {
+         if (blockLog != null) { // skipped blocks after cancellation
+            logBuilder.append(blockLog);
+         }
+      }
+      logBuilder.append("\n");
+      logBuilder.append(asComment(String.format("Wall time: %.3f s", job.getWallTimeMillis() / 1000.0)));
+      logBuilder.append("\n");
+   }
+
+   /*
+    * Sends the declarations of all the entities created during the run to the sink, so
+    * they are applied in the same change list as the generated axioms.
+    */
+   private static void declareNewEntities(EntityCreationBatch creationBatch, AxiomSink axiomSink,
+         StringBuilder logBuilder)
+   {
+      List<OWLAxiom> declarations = creationBatch.getAxioms();
+      for (OWLAxiom axiom : declarations) {
+         axiomSink.accept(axiom);
+      }
+      if (creationBatch.size() > 0) {
+         logBuilder.append("\n");
+         logBuilder.append(asComment(String.format("%,d new entities declared", creationBatch.size())));
+         logBuilder.append("\n");
+      }
+   }
+
+   private static void logInterning(InterningPool<OWLAxiom> axiomPool, StringBuilder logBuilder)
+   {
+      String message = String.format("Row records: %,d equal axioms shared, about %,d KB saved",
+            axiomPool.getHitCount(), axiomPool.getSavedBytes() / 1024);
+      logBuilder.append("\n");
+      logBuilder.append(asComment(message));
+      logBuilder.append("\n");
+   }
+
+   private static void logExpression(TransformationRule rule, StringBuilder logBuilder)
+   {
+      logBuilder.append("\n");
+      String additionalInformation = String.format("Cell range: (%s!%s%s:%s%s) Comment: \"%s\"",
+            rule.getSheetName(), rule.getStartColumn(), rule.getStartRow(), rule.getEndColumn(), rule.getEndRow(),
+            rule.getComment());
+      logBuilder.append(asComment(additionalInformation));
+      logBuilder.append("\n");
+      logBuilder.append(asComment(rule.getRuleString()));
+      logBuilder.append("\n\n");
+   }
+
+   private static void logSkippedCells(RuleRange range, long skippedCells, StringBuilder logBuilder)
+   {
+      if (skippedCells > 0) {
+         String reason = "the rule does not depend on the current location";
+         if (range.isSparse()) {
+            reason = "empty rows and rows not present in the sheet";
+         } else if (range.getColumnCount() > 1) {
+            reason = "the rule does not depend on the current row";
+         } else if (range.getRowCount() > 1) {
+            reason = "the rule does not depend on the current column";
+         }
+         String message = String.format("%,d of %,d evaluations skipped (%s)",
+               skippedCells, skippedCells + range.getCellCount(), reason);
+         logBuilder.append(asComment(message));
+         logBuilder.append("\n\n");
+      }
+   }
+
+   private static String asComment(String text)
+   {
+      return text.replaceAll("(?m)^(.*)", "# $1");
+   }
+
+   /**
+    * Returns the ordering hint of the rule, given as {@code [order=N]} in the rule
+    * comment. Rules without a hint run after all the rules that have one.
+    */
+   static int getOrderHint(TransformationRule rule)
+   {
+      String comment = rule.getComment();
+      if (comment != null) {
+         Matcher matcher = ORDER_HINT_PATTERN.matcher(comment);
+         if (matcher.find()) {
+            return Integer.parseInt(matcher.group(1));
+         }
+      }
+      return Integer.MAX_VALUE;
+   }
+
+   private static ReferenceSettings getLogReferenceSettings()
+   {
+      ReferenceSettings referenceSettings = new ReferenceSettings();
+      referenceSettings.setValueEncodingSetting(ValueEncodingSetting.RDFS_LABEL);
+      return referenceSettings;
+   }
+
+   /**
+    * The evaluation state of a single rule within a run.
+    */
+   private static class RuleJob
+   {
+      private final int ruleIndex;
+      private final RuleRange range;
+      private final long skippedCells;
+      private final List<RowBlock> blocks;
+      private final StringBuilder[] blockLogs;
+      private final Optional<RowRecords> rowRecords;
+
+      private final AtomicLong startTime = new AtomicLong(Long.MAX_VALUE);
+      private final AtomicLong finishTime = new AtomicLong(Long.MIN_VALUE);
+
+      private final BitSet completedRows; // guarded by this
+      private final int restoredRows;
+
+      RuleJob(int ruleIndex, RuleRange range, long skippedCells, List<RowBlock> blocks,
+            Optional<RowRecords> rowRecords, BitSet completedRows, int restoredRows)
+      {
+         this.ruleIndex = ruleIndex;
+         this.range = range;
+         this.skippedCells = skippedCells;
+         this.blocks = blocks;
+         this.blockLogs = new StringBuilder[blocks.size()];
+         this.rowRecords = rowRecords;
+         this.completedRows = completedRows;
+         this.restoredRows = restoredRows;
+      }
+
+      synchronized void markCompleted(RowBlock block)
+      {
+         for (int i = 0; i < block.getRowCount(); i++) {
+            completedRows.set(block.getRow(i));
+         }
+      }
+
+      synchronized BitSet getCompletedRows()
+      {
+         return (BitSet) completedRows.clone();
+      }
+
+      void markStarted()
+      {
+         startTime.accumulateAndGet(System.nanoTime(), Math::min);
+      }
+
+      void markFinished()
+      {
+         finishTime.accumulateAndGet(System.nanoTime(), Math::max);
+      }
+
+      boolean isStarted()
+      {
+         return startTime.get() != Long.MAX_VALUE || blocks.isEmpty() || restoredRows > 0;
+      }
+
+      long getWallTimeMillis()
+      {
+         long start = startTime.get();
+         long finish = finishTime.get();
+         return finish < start ? 0 : (finish - start) / 1000000L;
+      }
+   }
+
+   private static class WorkItem
+   {
+      private final RuleJob job;
+      private final int blockIndex;
+
+      WorkItem(RuleJob job, int blockIndex)
+      {
+         this.job = job;
+         this.blockIndex = blockIndex;
+      }
+   }
+
+   /**
+    * Saves the progress of a run to the checkpoint file. The axioms pass through the
+    * checkpoint on their way to the sink of the run, and the ones the sink has not seen
+    * before are queued until the next save, which appends them to the axiom log of the
+    * checkpoint. So are the declarations of the entities created during the run. A
+    * block is recorded as completed only after all its axioms reached the queue.
+    */
+   private class RunCheckpoint implements AxiomSink
+   {
+      private final List<RuleJob> jobs;
+      private final AxiomSink axiomSink;
+      private final ConcurrentEntityResolver entityResolver;
+      private final GenerationProgress progress;
+
+      private final Queue<OWLAxiom> unsavedAxioms = new ConcurrentLinkedQueue<>();
+      private long axiomLogLength; // guarded by saveLock
+
+      private final ReentrantLock saveLock = new ReentrantLock();
+      private volatile long lastSaveTime = System.currentTimeMillis();
+      private volatile IOException saveError;
+
+      RunCheckpoint(List<RuleJob> jobs, AxiomSink axiomSink, EntityCreationBatch creationBatch,
+            ConcurrentEntityResolver entityResolver, GenerationProgress progress, long axiomLogLength)
+      {
+         this.jobs = jobs;
+         this.axiomSink = axiomSink;
+         this.entityResolver = entityResolver;
+         this.progress = progress;
+         this.axiomLogLength = axiomLogLength;
+         creationBatch.setListener(unsavedAxioms::add);
+      }
+
+      @Override
+      public boolean accept(OWLAxiom axiom)
+      {
+         boolean isNew = axiomSink.accept(axiom);
+         if (isNew) {
+            unsavedAxioms.add(axiom);
+         }
+         return isNew;
+      }
+
+      /*
+       * Saves a checkpoint if the last one is old enough and no other worker is saving
+       * one already. A failed save does not stop the run, it is reported in the log.
+       */
+      void saveIfDue()
+      {
+         if (System.currentTimeMillis() - lastSaveTime < CHECKPOINT_INTERVAL || !saveLock.tryLock()) {
+            return;
+         }
+         try {
+            save();
+         } catch (IOException e) {
+            saveError = e;
+         } finally {
+            saveLock.unlock();
+         }
+      }
+
+      void save() throws IOException
+      {
+         saveLock.lock();
+         try {
+            Map<Integer, BitSet> completedRows = new HashMap<>();
+            long processedCells = 0;
+            for (RuleJob job : jobs) {
+               BitSet rows = job.getCompletedRows();
+               completedRows.put(job.ruleIndex, rows);
+               processedCells += (long) rows.cardinality() * job.range.getColumnCount();
+            }
+            // Take the axioms after the completed rows and the created entities, so they
+            // cover at least those rows and the declarations of those entities
+            Map<EntityKey, OWLEntity> createdEntities = entityResolver.getCreatedEntities();
+            List<OWLAxiom> axioms = new ArrayList<>();
+            OWLAxiom axiom;
+            while ((axiom = unsavedAxioms.poll()) != null) {
+               axioms.add(axiom);
+            }
+            try {
+               axiomLogLength = GenerationCheckpoint.appendAxioms(checkpointFile.get(), axiomLogLength, axioms);
+            } catch (IOException e) {
+               unsavedAxioms.addAll(axioms); // for the next save
+               throw e;
+            }
+            GenerationCheckpoint checkpoint = new GenerationCheckpoint(runKey, completedRows, createdEntities,
+                  axiomLogLength, processedCells, progress.getTotalCells());
+            checkpoint.save(checkpointFile.get());
+            lastSaveTime = System.currentTimeMillis();
+         } finally {
+            saveLock.unlock();
+         }
+      }
+   }
+}
@@ -0,0 +1,19 @@
+package org.mm.cellfie.ui.view;
+
+import org.semanticweb.owlapi.model.OWLAxiom;
+
+/**
+ * A consumer of the axioms produced by the generation. Implementations must be
+ * safe to call from several worker threads at the same time.
+ */
+public interface AxiomSink
+{
+   /**
+    * Receives a generated axiom.
+    *
+    * @param axiom
+    *          The generated OWL axiom.
+    * @return {@code true} if the axiom was not seen before by this sink.
+    */
+   boolean accept(OWLAxiom axiom);
+}
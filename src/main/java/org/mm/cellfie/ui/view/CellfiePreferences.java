@@ -0,0 +1,88 @@
+package org.mm.cellfie.ui.view;
+
+import java.io.File;
+
+import org.protege.editor.core.prefs.Preferences;
+import org.protege.editor.core.prefs.PreferencesManager;
+
+/**
+ * Access to the user-configurable Cellfie settings. The values are stored in the
+ * Protege application preferences so they survive between sessions.
+ */
+public class CellfiePreferences
+{
+   private static final String PREFERENCES_KEY = "org.mm.cellfie";
+
+   private static final String GENERATION_PARALLELISM = "GENERATION_PARALLELISM";
+   private static final String INCREMENTAL_GENERATION = "INCREMENTAL_GENERATION";
+   private static final String WORKBOOK_SNAPSHOTS = "WORKBOOK_SNAPSHOTS";
+
+   private static Preferences getPreferences()
+   {
+      return PreferencesManager.getInstance().getApplicationPreferences(PREFERENCES_KEY);
+   }
+
+   /**
+    * Returns the number of worker threads used to evaluate the transformation rules.
+    * The default is the number of available processors.
+    *
+    * @return the generation parallelism level, always at least 1
+    */
+   public static int getGenerationParallelism()
+   {
+      int parallelism = getPreferences().getInt(GENERATION_PARALLELISM, getDefaultParallelism());
+      return Math.max(1, parallelism);
+   }
+
+   public static void setGenerationParallelism(int parallelism)
+   {
+      getPreferences().putInt(GENERATION_PARALLELISM, Math.max(1, parallelism));
+   }
+
+   public static int getDefaultParallelism()
+   {
+      return Runtime.getRuntime().availableProcessors();
+   }
+
+   /**
+    * Returns whether the generation should only evaluate the rows that changed since
+    * the previous run in the same Cellfie session.
+    *
+    * @return {@code true} if the incremental generation is enabled
+    */
+   public static boolean isIncrementalGeneration()
+   {
+      return getPreferences().getBoolean(INCREMENTAL_GENERATION, false);
+   }
+
+   public static void setIncrementalGeneration(boolean incremental)
+   {
+      getPreferences().putBoolean(INCREMENTAL_GENERATION, incremental);
+   }
+
+   /**
+    * Returns whether large workbooks are kept as binary snapshots in the Cellfie cache
+    * directory, so they open faster the next time.
+    *
+    * @return {@code true} if the workbook snapshots are enabled
+    */
+   public static boolean isWorkbookSnapshots()
+   {
+      return getPreferences().getBoolean(WORKBOOK_SNAPSHOTS, true);
+   }
+
+   public static void setWorkbookSnapshots(boolean snapshots)
+   {
+      getPreferences().putBoolean(WORKBOOK_SNAPSHOTS, snapshots);
+   }
+
+   /**
+    * Returns the directory that keeps the workbook snapshots.
+    *
+    * @return the {@code .cellfie/cache} directory in the user home directory
+    */
+   public static File getCacheDirectory()
+   {
+      return new File(new File(System.getProperty("user.home"), ".cellfie"), "cache");
+   }
+}
@@ -0,0 +1,110 @@
+package org.mm.cellfie.ui.view;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Nonnull;
+
+import org.mm.core.settings.ReferenceSettings;
+import org.mm.parser.ASTExpression;
+import org.mm.parser.MappingMasterParser;
+import org.mm.parser.ParseException;
+import org.mm.parser.node.ExpressionNode;
+import org.mm.parser.node.MMExpressionNode;
+
+/**
+ * A cache of parsed transformation rules. Each rule string is parsed once for a given
+ * {@code ReferenceSettings} and the resulting expression node is reused for every cell
+ * and every generation run until the rule is edited.
+ *
+ * @author Josef Hardi <johardi@stanford.edu> <br>
+ * Stanford Center for Biomedical Informatics Research
+ */
+public class CompiledRuleCache {
+
+   private final ConcurrentMap<RuleKey, MMExpressionNode> compiledRules = new ConcurrentHashMap<>();
+
+   /**
+    * Returns the parsed expression node of the given rule string. The rule is parsed
+    * only at the first request and the result is kept in the cache.
+    *
+    * @param ruleString
+    *          The transformation rule string.
+    * @param referenceSettings
+    *          The reference settings used by the parser. The settings object is compared
+    *          by identity, so callers should keep a single instance per configuration.
+    * @return The compiled expression node.
+    * @throws ParseException If the rule string has a syntax error.
+    */
+   public MMExpressionNode getExpressionNode(@Nonnull String ruleString,
+         @Nonnull ReferenceSettings referenceSettings) throws ParseException {
+      RuleKey key = new RuleKey(checkNotNull(ruleString), checkNotNull(referenceSettings));
+      MMExpressionNode ruleNode = compiledRules.get(key);
+      if (ruleNode == null) {
+         ruleNode = parse(ruleString, referenceSettings);
+         MMExpressionNode existingNode = compiledRules.putIfAbsent(key, ruleNode);
+         if (existingNode != null) {
+            ruleNode = existingNode;
+         }
+      }
+      return ruleNode;
+   }
+
+   /**
+    * Removes all the compiled forms of the given rule string from the cache.
+    *
+    * @param ruleString
+    *          The transformation rule string.
+    */
+   public void invalidate(String ruleString) {
+      compiledRules.keySet().removeIf(key -> key.ruleString.equals(ruleString));
+   }
+
+   /**
+    * Removes all the compiled rules from the cache.
+    */
+   public void invalidateAll() {
+      compiledRules.clear();
+   }
+
+   public int size() {
+      return compiledRules.size();
+   }
+
+   private static MMExpressionNode parse(String ruleString, ReferenceSettings referenceSettings)
+         throws ParseException {
+      MappingMasterParser parser = new MappingMasterParser(new ByteArrayInputStream(ruleString.getBytes()), referenceSettings, -1);
+      return new ExpressionNode((ASTExpression) parser.expression()).getMMExpressionNode();
+   }
+
+   private static class RuleKey {
+
+      private final String ruleString;
+      private final ReferenceSettings referenceSettings;
+
+      RuleKey(String ruleString, ReferenceSettings referenceSettings) {
+         this.ruleString = ruleString;
+         this.referenceSettings = referenceSettings;
+      }
+
+      @Override
+      public boolean equals(Object obj) {
+         if (this == obj) {
+            return true;
+         }
+         if (!(obj instanceof RuleKey)) {
+            return false;
+         }
+         RuleKey other = (RuleKey) obj;
+         return ruleString.equals(other.ruleString) && referenceSettings == other.referenceSettings;
+      }
+
+      @Override
+      public int hashCode() {
+         return 31 * ruleString.hashCode() + System.identityHashCode(referenceSettings);
+      }
+   }
+}
@@ -4,6 +4,8 @@ import java.awt.BorderLayout;
 
 import javax.swing.BorderFactory;
 import javax.swing.JPanel;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
 
 import org.mm.ui.ModelView;
 import org.protege.editor.core.ui.tabbedpane.ViewTabbedPane;
@@ -35,16 +37,28 @@ public class DataSourceView extends JPanel implements ModelView
       pnlWorkbook.add(tabSheetContainer, BorderLayout.CENTER);
       pnlContainer.add(pnlWorkbook, BorderLayout.CENTER);
 
+      /*
+       * The tabs start empty, a sheet table is only built once its tab is selected
+       */
       for (org.apache.poi.ss.usermodel.Sheet sheet : container.getActiveWorkbook().getSheets()) {
-         SheetPanel sheetPanel = new SheetPanel(sheet);
-         tabSheetContainer.addTab(sheet.getSheetName(), null, sheetPanel);
+         tabSheetContainer.addTab(sheet.getSheetName(), null, new SheetTab(sheet));
       }
+      tabSheetContainer.addChangeListener(new LoadSheetOnTabSelected());
+      loadSelectedSheet();
       validate();
    }
 
+   private void loadSelectedSheet()
+   {
+      SheetTab selectedTab = (SheetTab) tabSheetContainer.getSelectedComponent();
+      if (selectedTab != null) {
+         selectedTab.getSheetPanel();
+      }
+   }
+
    public Sheet getActiveSheet()
    {
-      SheetPanel selectedSheetPanel = (SheetPanel) tabSheetContainer.getSelectedComponent();
+      SheetPanel selectedSheetPanel = ((SheetTab) tabSheetContainer.getSelectedComponent()).getSheetPanel();
       Sheet sheet = new Sheet(selectedSheetPanel.getSheetName());
       sheet.setSelectionRange(selectedSheetPanel.getSelectionRange());
       return sheet;
@@ -55,4 +69,40 @@ public class DataSourceView extends JPanel implements ModelView
    {
       // NO-OP
    }
+
+   /*
+    * A tab that builds the panel of its sheet when the panel is first needed
+    */
+   private class SheetTab extends JPanel
+   {
+      private static final long serialVersionUID = 1L;
+
+      private final org.apache.poi.ss.usermodel.Sheet sheet;
+      private SheetPanel sheetPanel;
+
+      public SheetTab(org.apache.poi.ss.usermodel.Sheet sheet)
+      {
+         super(new BorderLayout());
+         this.sheet = sheet;
+      }
+
+      public SheetPanel getSheetPanel()
+      {
+         if (sheetPanel == null) {
+            sheetPanel = new SheetPanel(sheet);
+            add(sheetPanel, BorderLayout.CENTER);
+            revalidate();
+         }
+         return sheetPanel;
+      }
+   }
+
+   private class LoadSheetOnTabSelected implements ChangeListener
+   {
+      @Override
+      public void stateChanged(ChangeEvent e)
+      {
+         loadSelectedSheet();
+      }
+   }
 }
@@ -1,34 +1,34 @@
 package org.mm.cellfie.ui.view;
 
+import java.awt.Component;
+import java.awt.Dialog;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.io.ByteArrayInputStream;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.io.File;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import javax.swing.JDialog;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
-
-import org.apache.poi.ss.usermodel.Sheet;
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
+import javax.swing.WindowConstants;
+
+import org.mm.cellfie.action.ConcurrentEntityResolver;
+import org.mm.cellfie.action.PrefixTable;
+import org.mm.cellfie.action.ResolverStatistics;
+import org.mm.cellfie.action.SuggestionIndex;
 import org.mm.cellfie.ui.exception.CellfieException;
 import org.mm.core.TransformationRule;
-import org.mm.core.settings.ReferenceSettings;
-import org.mm.core.settings.ValueEncodingSetting;
-import org.mm.parser.ASTExpression;
-import org.mm.parser.MappingMasterParser;
-import org.mm.parser.ParseException;
-import org.mm.parser.node.ExpressionNode;
-import org.mm.parser.node.MMExpressionNode;
-import org.mm.renderer.RendererException;
-import org.mm.rendering.Rendering;
-import org.mm.rendering.owlapi.OWLRendering;
 import org.mm.ss.SpreadSheetDataSource;
-import org.mm.ss.SpreadSheetUtil;
-import org.mm.ss.SpreadsheetLocation;
 import org.mm.ui.DialogManager;
 import org.protege.editor.core.ui.util.JOptionPaneEx;
 import org.protege.editor.owl.model.OWLModelManager;
@@ -49,6 +49,8 @@ public class GenerateAxiomsAction implements ActionListener
    private static final int ADD_TO_NEW_ONTOLOGY = 1;
    private static final int ADD_TO_CURRENT_ONTOLOGY = 2;
 
+   private static final int MAX_SUGGESTIONS = 5;
+
    private final WorkspacePanel container;
    private final OWLModelManager modelManager;
 
@@ -68,73 +70,107 @@ public class GenerateAxiomsAction implements ActionListener
          // Initialize string builder to stack log messages
          StringBuilder logBuilder = new StringBuilder(getLogHeader());
 
-         // TODO: Move this business logic inside the renderer
-         Set<Rendering> results = new HashSet<Rendering>();
-         for (TransformationRule rule : rules) {
-            if (rule.isActive()) {
-               String sheetName = rule.getSheetName();
-               Sheet sheet = getActiveWorkbook().getWorkbook().getSheet(sheetName);
-               
-               int startColumnIndex = getStartColumnIndex(rule);
-               int startRowIndex = getStartRowIndex(rule);
-               int endColumnIndex = getEndColumnIndex(rule, sheet, startRowIndex);
-               int endRowIndex = getEndRowIndex(rule, sheet);
-
-               if (startColumnIndex > endColumnIndex) {
-                  throw new CellfieException("Start column after finish column in rule " + rule);
-               }
-               if (startRowIndex > endRowIndex) {
-                  throw new CellfieException("Start row after finish row in rule " + rule);
-               }
-
-               SpreadsheetLocation endLocation = new SpreadsheetLocation(sheetName, endColumnIndex, endRowIndex);
-               SpreadsheetLocation startLocation = new SpreadsheetLocation(sheetName, startColumnIndex, startRowIndex);
-               SpreadsheetLocation currentLocation = new SpreadsheetLocation(sheetName, startColumnIndex, startRowIndex);
-
-               getActiveWorkbook().setCurrentLocation(currentLocation);
-               logExpression(rule, logBuilder);
-               do {
-                  evaluate(rule, results);
-                  logEvaluation(rule, logBuilder);
-                  if (currentLocation.equals(endLocation)) {
-                     break;
-                  }
-                  currentLocation = incrementLocation(currentLocation, startLocation, endLocation);
-                  getActiveWorkbook().setCurrentLocation(currentLocation);
-               } while (true);
-            }
-         }
-         String logMessage = logBuilder.toString();
-         
-         // Store Cellfie logging to a file
-         LogUtils.save(getLoggingFile(), logMessage, true);
-         
-         // Show the preview dialog to users to see all the generated axioms
-         showAxiomPreviewDialog(toAxioms(results), logMessage);
+         // Read the prefixes again, they can be edited without an ontology change
+         PrefixTable.invalidate();
+
+         // Evaluate the rules using multiple worker threads in the background
+         Optional<IncrementalGenerationState> incrementalState = getIncrementalState();
+         AxiomGenerator generator = new AxiomGenerator(container, getActiveWorkbook().getWorkbook(),
+               CellfiePreferences.getGenerationParallelism(), incrementalState);
+         generator.setResolverSources(container.getSignatureSnapshot(), PrefixTable.getActiveTable(modelManager),
+               container.getLabelIndex());
+         GenerationProgress progress = new GenerationProgress();
+         JDialog progressDialog = createProgressDialog(progress);
+         new GenerationTask(generator, rules, container.getWorkbookFileLocation(), getCheckpointFile(), logBuilder,
+               progress, progressDialog).execute();
+         progressDialog.setVisible(true);
       }
       catch (Exception ex) {
          getApplicationDialogManager().showErrorMessageDialog(container, ex.getMessage());
       }
    }
 
-   private void logExpression(TransformationRule rule, StringBuilder logBuilder)
+   private Optional<IncrementalGenerationState> getIncrementalState()
+   {
+      if (CellfiePreferences.isIncrementalGeneration()) {
+         return Optional.of(container.getIncrementalState());
+      }
+      return Optional.empty();
+   }
+
+   private JDialog createProgressDialog(GenerationProgress progress)
+   {
+      final JDialog dialog = new JDialog(SwingUtilities.getWindowAncestor(container), "Generating Axioms",
+            Dialog.ModalityType.DOCUMENT_MODAL);
+      dialog.setContentPane(new GenerationProgressPanel(progress));
+      dialog.setDefaultCloseOperation(WindowConstants.DO_NOTHING_ON_CLOSE);
+      dialog.addWindowListener(new WindowAdapter()
+      {
+         @Override
+         public void windowClosing(WindowEvent e)
+         {
+            progress.cancel();
+         }
+      });
+      dialog.pack();
+      dialog.setResizable(false);
+      dialog.setLocationRelativeTo(container);
+      return dialog;
+   }
+
+   private boolean shouldKeepPartialResults(GenerationProgress progress)
+   {
+      String message = String.format("The generation was cancelled after processing %,d of %,d cells.\n"
+            + "Do you want to keep the %,d axioms produced so far?",
+            progress.getProcessedCells(), progress.getTotalCells(), progress.getProducedAxioms());
+      int answer = getApplicationDialogManager().showConfirmDialog(container, "Generation Cancelled", message);
+      return answer == JOptionPane.YES_OPTION;
+   }
+
+   private boolean shouldResume(GenerationCheckpoint checkpoint, Component parent)
    {
-       logBuilder.append("\n");
-       String additionalInformation = String.format("Cell range: (%s!%s%s:%s%s) Comment: \"%s\"",
-               rule.getSheetName(), rule.getStartColumn(), rule.getStartRow(), rule.getEndColumn(), rule.getEndRow(),
-               rule.getComment());
-       logBuilder.append(asComment(additionalInformation));
-       logBuilder.append("\n");
-       logBuilder.append(asComment(rule.getRuleString()));
-       logBuilder.append("\n\n");
+      String message = String.format("A previous generation with these rules stopped after %,d of %,d cells (saved %s).\n"
+            + "Do you want to resume it from there?",
+            checkpoint.getProcessedCells(), checkpoint.getTotalCells(),
+            new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(checkpoint.getCreationTime()));
+      int answer = getApplicationDialogManager().showConfirmDialog(parent, "Resume Generation", message);
+      return answer == JOptionPane.YES_OPTION;
    }
 
-   private static String asComment(String text)
+   /*
+    * Returns the "did you mean" part of the error message when the generation failed on
+    * an entity name missing in the ontology, or an empty string otherwise. No names are
+    * suggested while the suggestion index is still being built.
+    */
+   private String getSuggestions(Throwable error)
    {
-      return text.replaceAll("(?m)^(.*)", "# $1");
+      Optional<String> unresolvedName = ConcurrentEntityResolver.getUnresolvedName(error);
+      Optional<SuggestionIndex> suggestionIndex = container.getSuggestionIndex();
+      if (!unresolvedName.isPresent() || !suggestionIndex.isPresent()) {
+         return "";
+      }
+      List<String> suggestions = suggestionIndex.get().suggest(unresolvedName.get(), MAX_SUGGESTIONS);
+      if (suggestions.isEmpty()) {
+         return "";
+      }
+      StringBuilder sb = new StringBuilder("\n\nDid you mean:");
+      for (String suggestion : suggestions) {
+         sb.append("\n   ").append(suggestion);
+      }
+      return sb.toString();
+   }
+
+   private File getCheckpointFile()
+   {
+      return new File(getOutputDirectory(), "cellfie.checkpoint");
    }
 
    private File getLoggingFile()
+   {
+      return new File(getOutputDirectory(), "cellfie.log");
+   }
+
+   private String getOutputDirectory()
    {
       String rootDir = getDefaultRootDirectory();
       Optional<String> ruleFilePath = container.getRuleFileLocation();
@@ -144,7 +180,7 @@ public class GenerateAxiomsAction implements ActionListener
       if (!rootDir.endsWith(System.getProperty("file.separator"))) {
          rootDir += System.getProperty("file.separator");
       }
-      return new File(rootDir, "cellfie.log");
+      return rootDir;
    }
 
    private String getLogHeader()
@@ -166,69 +202,27 @@ public class GenerateAxiomsAction implements ActionListener
       return System.getProperty("java.io.tmpdir");
    }
 
-   private int getStartColumnIndex(TransformationRule rule) throws Exception
-   {
-      String startColumn = rule.getStartColumn();
-      if (startColumn.isEmpty()) {
-         throw new CellfieException("Start column is not specified");
-      }
-      return SpreadSheetUtil.columnName2Number(startColumn);
-   }
-
-   private int getStartRowIndex(TransformationRule rule) throws Exception
-   {
-      String startRow = rule.getStartRow();
-      if (startRow.isEmpty()) {
-         throw new CellfieException("Start row is not specified");
-      }
-      return SpreadSheetUtil.rowLabel2Number(startRow);
-   }
-
-   private int getEndColumnIndex(TransformationRule rule, Sheet sheet, int startRowIndex) throws Exception
-   {
-      String endColumn = rule.getEndColumn();
-      if (endColumn.isEmpty()) {
-         throw new CellfieException("End column is not specified. (Hint: Use a wildcard '+' to indicate the last column)");
-      }
-      return rule.hasEndColumnWildcard()
-            ? sheet.getRow(startRowIndex).getLastCellNum() + 1
-            : SpreadSheetUtil.columnName2Number(endColumn);
-   }
-
-   private int getEndRowIndex(TransformationRule rule, Sheet sheet) throws Exception
-   {
-      String endRow = rule.getEndRow();
-      if (endRow.isEmpty()) {
-         throw new CellfieException("End row is not specified. (Hint: Use a wildcard '+' to indicate the last row)");
-      }
-      int endRowIndex = rule.hasEndRowWildcard() ? sheet.getLastRowNum() + 1
-            : SpreadSheetUtil.rowLabel2Number(endRow);
-      return endRowIndex;
-   }
-
-   private Set<OWLAxiom> toAxioms(Set<Rendering> results)
-   {
-      Set<OWLAxiom> axiomSet = new HashSet<OWLAxiom>();
-      for (Rendering rendering : results) {
-         if (rendering instanceof OWLRendering) {
-            axiomSet.addAll(((OWLRendering) rendering).getOWLAxioms());
-         }
-      }
-      return axiomSet;
-   }
-
-   private void showAxiomPreviewDialog(Set<OWLAxiom> axioms, String logMessage) throws CellfieException
+   private void showAxiomPreviewDialog(List<TransformationRule> rules, Set<OWLAxiom> axioms, String logMessage,
+         ResolverStatistics resolverStatistics, boolean isComplete)
+         throws CellfieException
    {
       final ImportOption[] options = { new ImportOption(CANCEL_IMPORT, "Cancel"),
             new ImportOption(ADD_TO_NEW_ONTOLOGY, "Add to a new ontology"),
             new ImportOption(ADD_TO_CURRENT_ONTOLOGY, "Add to current ontology") };
       try {
          OWLOntology currentOntology = container.getActiveOntology();
-         int answer = JOptionPaneEx.showConfirmDialog(container, "Generated Axioms", createPreviewAxiomsPanel(axioms, logMessage),
+         int answer = JOptionPaneEx.showConfirmDialog(container, "Generated Axioms", createPreviewAxiomsPanel(axioms, logMessage, resolverStatistics),
                JOptionPane.PLAIN_MESSAGE, JOptionPane.DEFAULT_OPTION, null, options, options[1]);
          switch (answer) {
             case ADD_TO_CURRENT_ONTOLOGY :
-               modelManager.applyChanges(addAxioms(currentOntology, axioms));
+               Optional<IncrementalGenerationState> incrementalState = getIncrementalState();
+               if (incrementalState.isPresent() && isComplete) { // partial results must not remove axioms
+                  List<OWLOntologyChange> changes = incrementalState.get().createChanges(currentOntology, rules, axioms);
+                  modelManager.applyChanges(changes);
+                  incrementalState.get().markApplied(rules, axioms, changes);
+               } else {
+                  modelManager.applyChanges(addAxioms(currentOntology, axioms));
+               }
                break;
             case ADD_TO_NEW_ONTOLOGY :
                OWLOntologyID id = createOntologyID();
@@ -271,28 +265,10 @@ public class GenerateAxiomsAction implements ActionListener
       return changes;
    }
 
-   private JPanel createPreviewAxiomsPanel(Set<OWLAxiom> axioms, String logMessage)
-   {
-      return new PreviewAxiomsPanel(container, axioms, logMessage);
-   }
-
-   private void evaluate(TransformationRule rule, Set<Rendering> results) throws ParseException
-   {
-      container.evaluate(rule, container.getDefaultRenderer(), results);
-   }
-
-   private SpreadsheetLocation incrementLocation(SpreadsheetLocation current, SpreadsheetLocation start,
-         SpreadsheetLocation end) throws RendererException
+   private JPanel createPreviewAxiomsPanel(Set<OWLAxiom> axioms, String logMessage,
+         ResolverStatistics resolverStatistics)
    {
-      if (current.getPhysicalRowNumber() < end.getPhysicalRowNumber()) {
-         return new SpreadsheetLocation(current.getSheetName(), current.getPhysicalColumnNumber(), current.getPhysicalRowNumber() + 1);
-      }
-      if (current.getPhysicalRowNumber() == end.getPhysicalRowNumber()) {
-         if (current.getPhysicalColumnNumber() < end.getPhysicalColumnNumber()) {
-            return new SpreadsheetLocation(current.getSheetName(), current.getPhysicalColumnNumber() + 1, start.getPhysicalRowNumber());
-         }
-      }
-      throw new RendererException("incrementLocation called redundantly");
+      return new PreviewAxiomsPanel(container, axioms, logMessage, resolverStatistics);
    }
 
    private SpreadSheetDataSource getActiveWorkbook() throws CellfieException
@@ -318,22 +294,98 @@ public class GenerateAxiomsAction implements ActionListener
       return container.getApplicationDialogManager();
    }
 
-   private void logEvaluation(TransformationRule rule, StringBuilder logBuilder) throws ParseException
+   /**
+    * Runs the axiom generation outside the event dispatch thread and shows the results
+    * once it finishes or is cancelled. The run key, which takes a checksum of the whole
+    * workbook file, and the checkpoint of an earlier run are read by the task too; only
+    * the question whether to resume goes back to the event dispatch thread.
+    */
+   class GenerationTask extends SwingWorker<Set<OWLAxiom>, Void>
    {
-      String ruleString = rule.getRuleString();
-      MappingMasterParser parser = new MappingMasterParser(new ByteArrayInputStream(ruleString.getBytes()), getReferenceSettings(), -1);
-      MMExpressionNode ruleNode = new ExpressionNode((ASTExpression) parser.expression()).getMMExpressionNode();
-      Optional<? extends Rendering> renderingResult = container.getLogRenderer().render(ruleNode);
-      if (renderingResult.isPresent()) {
-         logBuilder.append(renderingResult.get().getRendering());
+      private final AxiomGenerator generator;
+      private final List<TransformationRule> rules;
+      private final String workbookLocation;
+      private final File checkpointFile;
+      private final StringBuilder logBuilder;
+      private final GenerationProgress progress;
+      private final JDialog progressDialog;
+      private final int logHeaderLength;
+
+      public GenerationTask(AxiomGenerator generator, List<TransformationRule> rules, String workbookLocation,
+            File checkpointFile, StringBuilder logBuilder, GenerationProgress progress, JDialog progressDialog)
+      {
+         this.generator = generator;
+         this.rules = rules;
+         this.workbookLocation = workbookLocation;
+         this.checkpointFile = checkpointFile;
+         this.logBuilder = logBuilder;
+         this.progress = progress;
+         this.progressDialog = progressDialog;
+         logHeaderLength = logBuilder.length();
       }
-   }
 
-   private ReferenceSettings getReferenceSettings()
-   {
-      ReferenceSettings referenceSettings = new ReferenceSettings();
-      referenceSettings.setValueEncodingSetting(ValueEncodingSetting.RDFS_LABEL);
-      return referenceSettings;
+      @Override
+      protected Set<OWLAxiom> doInBackground() throws Exception
+      {
+         String runKey = GenerationCheckpoint.createRunKey(workbookLocation, rules);
+         Optional<GenerationCheckpoint> checkpoint = GenerationCheckpoint.load(checkpointFile, runKey);
+         if (checkpoint.isPresent() && !confirmResume(checkpoint.get())) {
+            checkpoint = Optional.empty();
+         }
+         generator.enableCheckpoints(checkpointFile, runKey, checkpoint);
+         UniqueAxiomSink axiomSink = new UniqueAxiomSink();
+         generator.generate(rules, axiomSink, logBuilder, progress);
+         return axiomSink.getAxioms();
+      }
+
+      /*
+       * Asks on the event dispatch thread, over the progress dialog, whether to resume
+       * from the given checkpoint
+       */
+      private boolean confirmResume(GenerationCheckpoint checkpoint) throws Exception
+      {
+         AtomicBoolean resume = new AtomicBoolean();
+         SwingUtilities.invokeAndWait(() -> resume.set(shouldResume(checkpoint, progressDialog)));
+         return resume.get();
+      }
+
+      @Override
+      protected void done()
+      {
+         progressDialog.dispose();
+         try {
+            Set<OWLAxiom> axioms = get();
+            if (progress.isCancelled()) {
+               if (!shouldKeepPartialResults(progress)) {
+                  return;
+               }
+               logBuilder.append("\n").append(String.format("# Generation cancelled after %,d of %,d cells",
+                     progress.getProcessedCells(), progress.getTotalCells()));
+               logBuilder.append("\n").append("# The progress was saved, run the generation again to resume it");
+            }
+            if (progress.getReusedCells() > 0) {
+               logBuilder.append("\n").append(String.format("# %,d of %,d cells were reused from unchanged rows of the previous run",
+                     progress.getReusedCells(), progress.getProcessedCells()));
+            }
+            ResolverStatistics resolverStatistics = generator.getResolverStatistics();
+            logBuilder.insert(logHeaderLength, String.join("\n", resolverStatistics.getSummary()) + "\n");
+            String logMessage = logBuilder.toString();
+            
+            // Store Cellfie logging to a file
+            LogUtils.save(getLoggingFile(), logMessage, true);
+            
+            // Show the preview dialog to users to see all the generated axioms
+            showAxiomPreviewDialog(rules, axioms, logMessage, resolverStatistics, !progress.isCancelled());
+         } catch (ExecutionException ex) {
+            String message = ex.getCause().getMessage() + getSuggestions(ex.getCause());
+            if (getCheckpointFile().isFile()) {
+               message += "\n\nThe progress so far was saved, run the generation again to resume it.";
+            }
+            getApplicationDialogManager().showErrorMessageDialog(container, message);
+         } catch (Exception ex) {
+            getApplicationDialogManager().showErrorMessageDialog(container, ex.getMessage());
+         }
+      }
    }
 
    /**
@@ -0,0 +1,278 @@
+package org.mm.cellfie.ui.view;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import org.mm.cellfie.action.ConcurrentEntityResolver.EntityKey;
+import org.mm.cellfie.ss.WorkbookLoader;
+import org.mm.core.TransformationRule;
+import org.semanticweb.owlapi.model.OWLAxiom;
+import org.semanticweb.owlapi.model.OWLEntity;
+
+/**
+ * A snapshot of an unfinished generation run: the rows each rule has completed, the
+ * axioms produced so far and the entities created for names missing in the ontology. A
+ * run that fails or is cancelled can be resumed from the snapshot and only evaluates
+ * the rows that were not completed, reusing the entities created before.
+ * <p>
+ * The axioms are kept in an axiom log next to the checkpoint file. Each save appends
+ * the axioms produced since the previous save to the log, and then replaces the small
+ * checkpoint file, which records how much of the log belongs to it. A save that does
+ * not finish therefore leaves the previous checkpoint intact.
+ * <p>
+ * A checkpoint belongs to the run key it was created with, which is made of the
+ * workbook location, size, modification time and checksum, and the selected rules. A
+ * checkpoint with a different key is never used.
+ */
+public class GenerationCheckpoint implements Serializable
+{
+   private static final long serialVersionUID = 3L;
+
+   private final String runKey;
+   private final Map<Integer, BitSet> completedRows;
+   private final Map<EntityKey, OWLEntity> createdEntities;
+   private final long axiomLogLength;
+   private final long processedCells;
+   private final long totalCells;
+   private final Date creationTime = new Date();
+
+   private transient Set<OWLAxiom> axioms = Collections.emptySet();
+
+   /**
+    * Creates a checkpoint that owns the first bytes of the axiom log, up to the given
+    * length. The completed rows are not copied.
+    */
+   public GenerationCheckpoint(String runKey, Map<Integer, BitSet> completedRows, long axiomLogLength,
+         long processedCells, long totalCells)
+   {
+      this(runKey, completedRows, new HashMap<>(), axiomLogLength, processedCells, totalCells);
+   }
+
+   /**
+    * Creates a checkpoint that also holds the entities the run created, whose
+    * declarations must be in the owned part of the axiom log. The maps are not copied.
+    */
+   public GenerationCheckpoint(String runKey, Map<Integer, BitSet> completedRows,
+         Map<EntityKey, OWLEntity> createdEntities, long axiomLogLength, long processedCells, long totalCells)
+   {
+      this.runKey = runKey;
+      this.completedRows = completedRows;
+      this.createdEntities = createdEntities;
+      this.axiomLogLength = axiomLogLength;
+      this.processedCells = processedCells;
+      this.totalCells = totalCells;
+   }
+
+   /**
+    * Creates the key that identifies a generation run over the given workbook with the
+    * given rules. The rule index in the list is part of the key, and so are the size,
+    * the modification time and the checksum of the workbook file, so a checkpoint is
+    * not resumed after the workbook was edited. The checksum reads the whole workbook
+    * file, so the key is not meant to be created on the event dispatch thread.
+    *
+    * @throws IOException If the workbook file cannot be read.
+    */
+   public static String createRunKey(String workbookLocation, List<TransformationRule> rules) throws IOException
+   {
+      File workbookFile = new File(workbookLocation);
+      StringBuilder sb = new StringBuilder(workbookLocation);
+      sb.append("\n").append(workbookFile.length());
+      sb.append(" ").append(workbookFile.lastModified());
+      sb.append(" ").append(Long.toHexString(WorkbookLoader.checksum(workbookFile)));
+      for (TransformationRule rule : rules) {
+         sb.append("\n").append(rule.isActive() ? "+" : "-");
+         sb.append(rule.getSheetName()).append("!");
+         sb.append(rule.getStartColumn()).append(rule.getStartRow()).append(":");
+         sb.append(rule.getEndColumn()).append(rule.getEndRow()).append("\n");
+         sb.append(rule.getRuleString());
+      }
+      return sb.toString();
+   }
+
+   /**
+    * Reads the checkpoint stored in the given file, together with its axioms, if it
+    * belongs to the given run. A missing, unreadable or unrelated checkpoint file is
+    * ignored.
+    */
+   public static Optional<GenerationCheckpoint> load(File file, String runKey)
+   {
+      if (!file.isFile()) {
+         return Optional.empty();
+      }
+      try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+         GenerationCheckpoint checkpoint = (GenerationCheckpoint) in.readObject();
+         if (checkpoint.runKey.equals(runKey)) {
+            checkpoint.axioms = readAxiomLog(getAxiomLogFile(file), checkpoint.axiomLogLength);
+            return Optional.of(checkpoint);
+         }
+      } catch (IOException | ClassNotFoundException | ClassCastException e) {
+         // NO-OP: A broken checkpoint is treated as no checkpoint
+      }
+      return Optional.empty();
+   }
+
+   /**
+    * Appends the given axioms to the axiom log of the given checkpoint file. Whatever
+    * follows the given log length, left by a save that did not finish, is dropped
+    * first.
+    *
+    * @param file
+    *          The checkpoint file.
+    * @param axiomLogLength
+    *          The length of the log owned by the last saved checkpoint.
+    * @param axioms
+    *          The axioms produced since the last saved checkpoint.
+    * @return The length of the log that includes the given axioms.
+    */
+   public static long appendAxioms(File file, long axiomLogLength, Collection<OWLAxiom> axioms) throws IOException
+   {
+      if (axioms.isEmpty()) {
+         return axiomLogLength;
+      }
+      ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+      buffer.write(new byte[4], 0, 4); // the segment length, set below
+      try (ObjectOutputStream out = new ObjectOutputStream(buffer)) {
+         out.writeObject(new ArrayList<>(axioms));
+      }
+      ByteBuffer segment = ByteBuffer.wrap(buffer.toByteArray());
+      segment.putInt(0, segment.capacity() - 4);
+      try (FileChannel channel = FileChannel.open(getAxiomLogFile(file).toPath(), StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE)) {
+         channel.truncate(axiomLogLength);
+         channel.position(axiomLogLength);
+         while (segment.hasRemaining()) {
+            channel.write(segment);
+         }
+         channel.force(false);
+      }
+      return axiomLogLength + segment.capacity();
+   }
+
+   @SuppressWarnings("unchecked")
+   private static Set<OWLAxiom> readAxiomLog(File logFile, long length) throws IOException, ClassNotFoundException
+   {
+      Set<OWLAxiom> axioms = new HashSet<>();
+      if (length == 0) {
+         return axioms;
+      }
+      if (logFile.length() < length) {
+         throw new IOException("The axiom log of the checkpoint is truncated");
+      }
+      try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(logFile.toPath())))) {
+         long position = 0;
+         while (position < length) {
+            byte[] segment = new byte[in.readInt()];
+            in.readFully(segment);
+            try (ObjectInputStream objects = new ObjectInputStream(new ByteArrayInputStream(segment))) {
+               axioms.addAll((List<OWLAxiom>) objects.readObject());
+            }
+            position += 4 + segment.length;
+         }
+      }
+      return axioms;
+   }
+
+   /**
+    * Writes the checkpoint to the given file. The axioms must have been appended to the
+    * axiom log before. The content goes to a temporary file first so a crash while
+    * saving never leaves a truncated checkpoint behind.
+    */
+   public void save(File file) throws IOException
+   {
+      Path target = file.toPath();
+      Path tempFile = target.resolveSibling(file.getName() + ".tmp");
+      try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+         out.writeObject(this);
+      }
+      Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+   }
+
+   /**
+    * Deletes the given checkpoint file and its axiom log.
+    */
+   public static void delete(File file)
+   {
+      file.delete();
+      getAxiomLogFile(file).delete();
+   }
+
+   private static File getAxiomLogFile(File file)
+   {
+      return new File(file.getParentFile(), file.getName() + ".axioms");
+   }
+
+   public String getRunKey()
+   {
+      return runKey;
+   }
+
+   /**
+    * Returns the 1-based numbers of the rows the rule at the given index has completed.
+    */
+   public BitSet getCompletedRows(int ruleIndex)
+   {
+      BitSet rows = completedRows.get(ruleIndex);
+      return rows == null ? new BitSet() : (BitSet) rows.clone();
+   }
+
+   /**
+    * Returns the entities the run had created, by name and requested type.
+    */
+   public Map<EntityKey, OWLEntity> getCreatedEntities()
+   {
+      return Collections.unmodifiableMap(createdEntities);
+   }
+
+   /**
+    * Returns the axioms read from the axiom log when the checkpoint was loaded.
+    */
+   public Set<OWLAxiom> getAxioms()
+   {
+      return axioms;
+   }
+
+   public long getAxiomLogLength()
+   {
+      return axiomLogLength;
+   }
+
+   public long getProcessedCells()
+   {
+      return processedCells;
+   }
+
+   public long getTotalCells()
+   {
+      return totalCells;
+   }
+
+   public Date getCreationTime()
+   {
+      return creationTime;
+   }
+}
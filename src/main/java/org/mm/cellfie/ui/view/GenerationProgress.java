@@ -0,0 +1,123 @@
+package org.mm.cellfie.ui.view;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread-safe progress counters of a generation run. The worker threads report the
+ * processed cells and produced axioms while the UI polls the numbers and may request
+ * the run to stop.
+ */
+public class GenerationProgress
+{
+   private final long startTime = System.nanoTime();
+
+   private volatile long totalCells = 0;
+   private volatile boolean cancelled = false;
+
+   private final LongAdder processedCells = new LongAdder();
+   private final LongAdder producedAxioms = new LongAdder();
+   private final LongAdder reusedCells = new LongAdder();
+   private final LongAdder skippedCells = new LongAdder();
+
+   public void setTotalCells(long totalCells)
+   {
+      this.totalCells = totalCells;
+   }
+
+   public long getTotalCells()
+   {
+      return totalCells;
+   }
+
+   public void addProcessedCells(long count)
+   {
+      processedCells.add(count);
+   }
+
+   public long getProcessedCells()
+   {
+      return processedCells.sum();
+   }
+
+   public void addProducedAxioms(long count)
+   {
+      producedAxioms.add(count);
+   }
+
+   public long getProducedAxioms()
+   {
+      return producedAxioms.sum();
+   }
+
+   /**
+    * Counts cells that were not evaluated because their row did not change since the
+    * previous run.
+    */
+   public void addReusedCells(long count)
+   {
+      reusedCells.add(count);
+   }
+
+   public long getReusedCells()
+   {
+      return reusedCells.sum();
+   }
+
+   /**
+    * Counts cells that were not evaluated because the reference analysis showed they
+    * produce the same output as another cell of the rule range.
+    */
+   public void addSkippedCells(long count)
+   {
+      skippedCells.add(count);
+   }
+
+   public long getSkippedCells()
+   {
+      return skippedCells.sum();
+   }
+
+   /**
+    * Requests the generation to stop. The workers finish the cell they are evaluating
+    * and return the results produced so far.
+    */
+   public void cancel()
+   {
+      cancelled = true;
+   }
+
+   public boolean isCancelled()
+   {
+      return cancelled;
+   }
+
+   public long getElapsedMillis()
+   {
+      return (System.nanoTime() - startTime) / 1000000L;
+   }
+
+   public double getCellsPerSecond()
+   {
+      long elapsed = getElapsedMillis();
+      if (elapsed == 0) {
+         return 0;
+      }
+      return getProcessedCells() * 1000.0 / elapsed;
+   }
+
+   /**
+    * Returns the estimated time to finish the remaining cells, or -1 if the rate is
+    * not known yet.
+    *
+    * @return the estimated remaining time in milliseconds
+    */
+   public long getEstimatedRemainingMillis()
+   {
+      double rate = getCellsPerSecond();
+      if (rate <= 0) {
+         return -1;
+      }
+      long remainingCells = Math.max(0, totalCells - getProcessedCells());
+      return (long) (remainingCells * 1000.0 / rate);
+   }
+}
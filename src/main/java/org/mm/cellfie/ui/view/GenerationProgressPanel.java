@@ -0,0 +1,121 @@
+package org.mm.cellfie.ui.view;
+
+import java.awt.BorderLayout;
+import java.awt.Dimension;
+import java.awt.FlowLayout;
+import java.awt.GridLayout;
+
+import javax.swing.BorderFactory;
+import javax.swing.JButton;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JProgressBar;
+import javax.swing.Timer;
+
+/**
+ * Shows the live progress of a generation run: processed cells, throughput, produced
+ * axioms and the estimated remaining time, with a button to cancel the run.
+ */
+public class GenerationProgressPanel extends JPanel
+{
+   private static final long serialVersionUID = 1L;
+
+   private static final int REFRESH_INTERVAL = 250; // in milliseconds
+
+   private final GenerationProgress progress;
+
+   private final JProgressBar progressBar;
+   private final JLabel lblCells;
+   private final JLabel lblSkippedCells;
+   private final JLabel lblThroughput;
+   private final JLabel lblAxioms;
+   private final JLabel lblRemainingTime;
+   private final JButton cmdCancel;
+
+   private final Timer refreshTimer;
+
+   public GenerationProgressPanel(GenerationProgress progress)
+   {
+      this.progress = progress;
+
+      setLayout(new BorderLayout(0, 8));
+      setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+
+      progressBar = new JProgressBar(0, 1000);
+      progressBar.setStringPainted(true);
+      progressBar.setPreferredSize(new Dimension(420, 22));
+      add(progressBar, BorderLayout.NORTH);
+
+      JPanel pnlStatistics = new JPanel(new GridLayout(5, 2, 10, 2));
+      pnlStatistics.add(new JLabel("Cells processed:"));
+      lblCells = new JLabel();
+      pnlStatistics.add(lblCells);
+      pnlStatistics.add(new JLabel("Cells skipped:"));
+      lblSkippedCells = new JLabel();
+      pnlStatistics.add(lblSkippedCells);
+      pnlStatistics.add(new JLabel("Cells/sec:"));
+      lblThroughput = new JLabel();
+      pnlStatistics.add(lblThroughput);
+      pnlStatistics.add(new JLabel("Axioms produced:"));
+      lblAxioms = new JLabel();
+      pnlStatistics.add(lblAxioms);
+      pnlStatistics.add(new JLabel("Time remaining:"));
+      lblRemainingTime = new JLabel();
+      pnlStatistics.add(lblRemainingTime);
+      add(pnlStatistics, BorderLayout.CENTER);
+
+      JPanel pnlCommandButton = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+      cmdCancel = new JButton("Cancel");
+      cmdCancel.setPreferredSize(new Dimension(92, 22));
+      cmdCancel.addActionListener(e -> {
+         progress.cancel();
+         cmdCancel.setEnabled(false);
+         cmdCancel.setText("Cancelling...");
+      });
+      pnlCommandButton.add(cmdCancel);
+      add(pnlCommandButton, BorderLayout.SOUTH);
+
+      refreshTimer = new Timer(REFRESH_INTERVAL, e -> refresh());
+      refresh();
+   }
+
+   @Override
+   public void addNotify()
+   {
+      super.addNotify();
+      refreshTimer.start();
+   }
+
+   @Override
+   public void removeNotify()
+   {
+      refreshTimer.stop();
+      super.removeNotify();
+   }
+
+   private void refresh()
+   {
+      long totalCells = progress.getTotalCells();
+      long processedCells = progress.getProcessedCells();
+      if (totalCells > 0) {
+         progressBar.setValue((int) (Math.min(processedCells, totalCells) * 1000 / totalCells));
+         progressBar.setString(String.format("%.1f%%", processedCells * 100.0 / totalCells));
+      } else {
+         progressBar.setString("Preparing...");
+      }
+      lblCells.setText(String.format("%,d of %,d", processedCells, totalCells));
+      lblSkippedCells.setText(String.format("%,d", progress.getSkippedCells()));
+      lblThroughput.setText(String.format("%,.0f", progress.getCellsPerSecond()));
+      lblAxioms.setText(String.format("%,d", progress.getProducedAxioms()));
+      lblRemainingTime.setText(formatDuration(progress.getEstimatedRemainingMillis()));
+   }
+
+   private static String formatDuration(long millis)
+   {
+      if (millis < 0) {
+         return "-";
+      }
+      long seconds = millis / 1000;
+      return String.format("%d:%02d:%02d", seconds / 3600, (seconds / 60) % 60, seconds % 60);
+   }
+}
@@ -0,0 +1,159 @@
+package org.mm.cellfie.ui.view;
+
+import java.util.HashSet;
+import java.util.Optional;
+import java.util.Set;
+
+import org.apache.poi.ss.usermodel.Workbook;
+import org.mm.cellfie.action.OWLProtegeOntology;
+import org.mm.cellfie.ss.SheetStore;
+import org.mm.cellfie.ui.view.IncrementalGenerationState.RowRecord;
+import org.mm.cellfie.ui.view.IncrementalGenerationState.RowRecords;
+import org.mm.core.OWLEntityResolver;
+import org.mm.core.TransformationRule;
+import org.mm.core.settings.ReferenceSettings;
+import org.mm.parser.node.MMExpressionNode;
+import org.mm.renderer.Renderer;
+import org.mm.renderer.owlapi.OWLAPIRenderer;
+import org.mm.renderer.text.TextRenderer;
+import org.mm.rendering.Rendering;
+import org.mm.rendering.owlapi.OWLRendering;
+import org.mm.ss.SpreadSheetDataSource;
+import org.mm.ss.SpreadsheetLocation;
+import org.semanticweb.owlapi.model.OWLAxiom;
+
+/**
+ * The evaluation state owned by a single generation thread. Each worker has its own
+ * data source view over the shared workbook, so moving its current location does not
+ * interfere with the other workers, and its own renderers bound to that data source.
+ * The entity resolver is shared by all workers of a run and must be thread-safe.
+ */
+class GenerationWorker
+{
+   private final WorkspacePanel container;
+   private final ReferenceSettings logReferenceSettings;
+
+   private final SpreadSheetDataSource dataSource;
+   private final Renderer renderer;
+   private final Renderer logRenderer;
+
+   public GenerationWorker(WorkspacePanel container, Workbook workbook, ReferenceSettings logReferenceSettings,
+         OWLEntityResolver entityResolver)
+   {
+      this.container = container;
+      this.logReferenceSettings = logReferenceSettings;
+      dataSource = new SpreadSheetDataSource(workbook);
+      renderer = new OWLAPIRenderer(new OWLProtegeOntology(container.getEditorKit(), entityResolver), dataSource);
+      logRenderer = new TextRenderer(dataSource);
+   }
+
+   /**
+    * Evaluates the rule at every cell of the given row block. The cells are visited
+    * row by row, and the produced axioms are pushed to the given sink as soon as each
+    * cell is rendered. The method returns early when the run is cancelled.
+    * <p>
+    * If row records are given, a row whose fingerprint matches the record of the
+    * last applied run is not evaluated and its recorded axioms are pushed instead.
+    * Every visited row is recorded for the current run.
+    */
+   public void evaluate(RuleRange range, RowBlock block, AxiomSink axiomSink, StringBuilder logBuilder,
+         GenerationProgress progress, Optional<RowRecords> rowRecords) throws Exception
+   {
+      TransformationRule rule = range.getRule();
+      CompiledRuleCache compiledRuleCache = container.getCompiledRuleCache();
+      MMExpressionNode ruleNode = compiledRuleCache.getExpressionNode(rule.getRuleString(), container.getDefaultReferenceSettings());
+      MMExpressionNode logNode = compiledRuleCache.getExpressionNode(rule.getRuleString(), logReferenceSettings);
+      int columnCount = range.getColumnCount();
+      SheetStore store = SheetStore.of(range.getSheet());
+      String sheetName = range.getSheet().getSheetName();
+      for (int i = 0; i < block.getRowCount(); i++) {
+         if (progress.isCancelled()) {
+            return;
+         }
+         int row = block.getRow(i);
+         long fingerprint = 0;
+         if (rowRecords.isPresent()) {
+            fingerprint = IncrementalGenerationState.fingerprint(store, row - 1);
+            RowRecord record = rowRecords.get().get(row);
+            if (record != null && record.getFingerprint() == fingerprint) {
+               rowRecords.get().put(row, record);
+               for (OWLAxiom axiom : record.getAxioms()) {
+                  axiomSink.accept(axiom);
+               }
+               progress.addProducedAxioms(record.getAxioms().size());
+               progress.addReusedCells(columnCount);
+               progress.addProcessedCells(columnCount);
+               continue;
+            }
+         }
+         Set<OWLAxiom> rowAxioms = rowRecords.isPresent() ? new HashSet<>() : null;
+         for (int column = range.getStartColumn(); column <= range.getEndColumn(); column++) {
+            dataSource.setCurrentLocation(new SpreadsheetLocation(sheetName, column, row));
+            Optional<? extends Rendering> renderingResult = renderer.render(ruleNode);
+            if (renderingResult.isPresent()) {
+               Rendering rendering = renderingResult.get();
+               if (rendering instanceof OWLRendering) {
+                  Set<OWLAxiom> axioms = ((OWLRendering) rendering).getOWLAxioms();
+                  for (OWLAxiom axiom : axioms) {
+                     axiomSink.accept(axiom);
+                  }
+                  progress.addProducedAxioms(axioms.size());
+                  if (rowRecords.isPresent()) {
+                     for (OWLAxiom axiom : axioms) {
+                        rowAxioms.add(rowRecords.get().intern(axiom));
+                     }
+                  }
+               }
+            }
+            Optional<? extends Rendering> logResult = logRenderer.render(logNode);
+            if (logResult.isPresent()) {
+               logBuilder.append(logResult.get().getRendering());
+            }
+         }
+         if (rowRecords.isPresent()) {
+            rowRecords.get().put(row, new RowRecord(fingerprint, rowAxioms));
+         }
+         progress.addProcessedCells(columnCount);
+      }
+   }
+
+   /**
+    * The rows assigned to one generation task, either a contiguous range of rows
+    * (inclusive) or a slice of the row list of a sparse range.
+    */
+   static class RowBlock
+   {
+      private final int startRow;
+      private final int[] rows;
+      private final int offset;
+      private final int rowCount;
+
+      private RowBlock(int startRow, int[] rows, int offset, int rowCount)
+      {
+         this.startRow = startRow;
+         this.rows = rows;
+         this.offset = offset;
+         this.rowCount = rowCount;
+      }
+
+      public static RowBlock contiguous(int startRow, int endRow)
+      {
+         return new RowBlock(startRow, null, 0, endRow - startRow + 1);
+      }
+
+      public static RowBlock slice(int[] rows, int from, int to)
+      {
+         return new RowBlock(-1, rows, from, to - from);
+      }
+
+      public int getRowCount()
+      {
+         return rowCount;
+      }
+
+      public int getRow(int index)
+      {
+         return rows == null ? startRow + index : rows[offset + index];
+      }
+   }
+}
@@ -0,0 +1,347 @@
+package org.mm.cellfie.ui.view;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.mm.cellfie.ss.SheetStore;
+import org.mm.core.TransformationRule;
+import org.semanticweb.owlapi.model.AddAxiom;
+import org.semanticweb.owlapi.model.OWLAxiom;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyChange;
+import org.semanticweb.owlapi.model.RemoveAxiom;
+
+/**
+ * Remembers, for each transformation rule, a fingerprint of every row visited in the
+ * previous runs together with the axioms the row produced. Rows whose fingerprint did
+ * not change are not evaluated again; their stored axioms are reused instead.
+ * <p>
+ * The state also tracks, per rule, the axioms that Cellfie added to the target
+ * ontology, so that a new run of some of the rules can be applied as a minimal set of
+ * additions and removals that leaves the axioms of the other rules alone.
+ * <p>
+ * The records of a run are kept apart until its axioms are added to the target ontology,
+ * see {@link #markApplied(List, Set, List)}. A run whose result is not applied, because
+ * it was cancelled or its preview was dismissed, leaves the records of the last applied
+ * run in place. Equal axioms recorded for different rows of a run share one instance,
+ * through a bounded {@link InterningPool}.
+ * <p>
+ * The fingerprint covers all the cells of the row in the rule's sheet. References to
+ * fixed cells in other rows or sheets are not tracked, so such rules should be run
+ * with the incremental mode turned off after those cells change.
+ */
+public class IncrementalGenerationState
+{
+   private static final int MAX_POOLED_AXIOMS = 1000000;
+
+   // An axiom object that refers to entities and expressions kept elsewhere, on a 64-bit
+   // JVM with compressed references
+   private static final long AXIOM_SIZE = 32;
+
+   private final ConcurrentMap<RuleKey, Map<Integer, RowRecord>> ruleRows = new ConcurrentHashMap<>();
+   private final ConcurrentMap<RuleKey, ConcurrentMap<Integer, RowRecord>> runRows = new ConcurrentHashMap<>();
+   private volatile InterningPool<OWLAxiom> axiomPool = createAxiomPool();
+
+   private final Map<RuleKey, Set<OWLAxiom>> appliedAxioms = new HashMap<>();
+
+   /**
+    * Starts a new run and drops the records of the previous run that were not applied.
+    * A run resumed from a checkpoint keeps them instead, since the rows completed before
+    * the checkpoint are not visited again.
+    *
+    * @param resumed
+    *          Whether the run continues the previous one from a checkpoint.
+    */
+   public void startRun(boolean resumed)
+   {
+      if (!resumed) {
+         runRows.clear();
+      }
+      axiomPool = createAxiomPool();
+   }
+
+   /**
+    * Returns the pool that shares the equal axioms recorded by the current run, and
+    * counts the bytes it saved.
+    */
+   public InterningPool<OWLAxiom> getAxiomPool()
+   {
+      return axiomPool;
+   }
+
+   private static InterningPool<OWLAxiom> createAxiomPool()
+   {
+      return new InterningPool<>(MAX_POOLED_AXIOMS, AXIOM_SIZE);
+   }
+
+   /**
+    * Returns the row records of the given rule for the current run, see
+    * {@link #startRun(boolean)}. The returned records are shared by the generation
+    * workers.
+    */
+   public RowRecords getRowRecords(TransformationRule rule)
+   {
+      RuleKey key = new RuleKey(rule);
+      return new RowRecords(ruleRows.getOrDefault(key, Collections.emptyMap()),
+            runRows.computeIfAbsent(key, k -> new ConcurrentHashMap<>()), axiomPool);
+   }
+
+   /**
+    * Removes the row records of all the rules with the given rule string.
+    */
+   public void invalidate(String ruleString)
+   {
+      ruleRows.keySet().removeIf(key -> key.ruleString.equals(ruleString));
+      runRows.keySet().removeIf(key -> key.ruleString.equals(ruleString));
+   }
+
+   /**
+    * Removes all the row records and forgets the applied axioms.
+    */
+   public void invalidateAll()
+   {
+      ruleRows.clear();
+      runRows.clear();
+      axiomPool = createAxiomPool();
+      appliedAxioms.clear();
+   }
+
+   /**
+    * Creates the ontology changes that bring the target ontology from the axioms
+    * applied by the previous runs of the given rules to the given generated axioms.
+    * Only the axioms applied by the given rules are candidates for removal, and an
+    * axiom is kept while it is still generated or still applied by a rule that was not
+    * part of this run. Generated axioms that are missing from the ontology are added.
+    *
+    * @param ontology
+    *          The target ontology.
+    * @param rules
+    *          The rules of the current run, inactive rules are ignored.
+    * @param axioms
+    *          The axioms generated by the current run.
+    * @return a list of {@code RemoveAxiom} and {@code AddAxiom} changes.
+    */
+   public List<OWLOntologyChange> createChanges(OWLOntology ontology, List<TransformationRule> rules,
+         Set<OWLAxiom> axioms)
+   {
+      Set<RuleKey> runKeys = getRunKeys(rules);
+      Set<OWLAxiom> keptAxioms = new HashSet<>();
+      for (Map.Entry<RuleKey, Set<OWLAxiom>> entry : appliedAxioms.entrySet()) {
+         if (!runKeys.contains(entry.getKey())) {
+            keptAxioms.addAll(entry.getValue());
+         }
+      }
+      List<OWLOntologyChange> changes = new ArrayList<>();
+      Set<OWLAxiom> removedAxioms = new HashSet<>();
+      for (RuleKey key : runKeys) {
+         for (OWLAxiom axiom : appliedAxioms.getOrDefault(key, Collections.emptySet())) {
+            if (!axioms.contains(axiom) && !keptAxioms.contains(axiom) && ontology.containsAxiom(axiom)
+                  && removedAxioms.add(axiom)) {
+               changes.add(new RemoveAxiom(ontology, axiom));
+            }
+         }
+      }
+      for (OWLAxiom axiom : axioms) {
+         if (!ontology.containsAxiom(axiom)) {
+            changes.add(new AddAxiom(ontology, axiom));
+         }
+      }
+      return changes;
+   }
+
+   /**
+    * Records, for each of the given rules, the axioms that are now in the target
+    * ontology because of Cellfie, after the changes from
+    * {@link #createChanges(OWLOntology, List, Set)} have been applied. The row records
+    * of the current run replace those of the given rules, so rows that the run did not
+    * visit, for example deleted rows, are dropped. The axioms of a rule are taken from
+    * these records. Axioms that already existed in the ontology are not recorded, so
+    * they are never removed by a later run.
+    */
+   public void markApplied(List<TransformationRule> rules, Set<OWLAxiom> axioms,
+         List<? extends OWLOntologyChange> changes)
+   {
+      Set<OWLAxiom> ownedAxioms = new HashSet<>();
+      for (Set<OWLAxiom> ruleAxioms : appliedAxioms.values()) {
+         ownedAxioms.addAll(ruleAxioms);
+      }
+      for (OWLOntologyChange change : changes) {
+         if (change.isAddAxiom()) {
+            ownedAxioms.add(change.getAxiom());
+         }
+      }
+      for (RuleKey key : getRunKeys(rules)) {
+         Map<Integer, RowRecord> records = new HashMap<>(runRows.getOrDefault(key, new ConcurrentHashMap<>()));
+         ruleRows.put(key, records);
+         Set<OWLAxiom> applied = new HashSet<>();
+         for (RowRecord record : records.values()) {
+            for (OWLAxiom axiom : record.getAxioms()) {
+               if (axioms.contains(axiom) && ownedAxioms.contains(axiom)) {
+                  applied.add(axiom);
+               }
+            }
+         }
+         appliedAxioms.put(key, applied);
+      }
+      runRows.clear();
+      axiomPool = createAxiomPool(); // the applied records keep the shared instances
+   }
+
+   private static Set<RuleKey> getRunKeys(List<TransformationRule> rules)
+   {
+      Set<RuleKey> keys = new HashSet<>();
+      for (TransformationRule rule : rules) {
+         if (rule.isActive()) {
+            keys.add(new RuleKey(rule));
+         }
+      }
+      return keys;
+   }
+
+   /**
+    * Computes the fingerprint of the cell values in the given row.
+    *
+    * @param store
+    *          The cells of the sheet.
+    * @param row
+    *          The 0-based row number, the row may not exist.
+    * @return a 64-bit hash of the row content.
+    */
+   public static long fingerprint(SheetStore store, int row)
+   {
+      long hash = 0xcbf29ce484222325L;
+      int cellCount = store.getCellCount(row);
+      for (int column = 0; column < cellCount; column++) {
+         int cellType = store.getType(row, column);
+         if (cellType != SheetStore.BLANK) {
+            hash = (hash ^ column) * 0x100000001b3L;
+            hash = (hash ^ hashCellValue(store, row, column, cellType)) * 0x100000001b3L;
+         }
+      }
+      return hash;
+   }
+
+   private static long hashCellValue(SheetStore store, int row, int column, int cellType)
+   {
+      switch (cellType) {
+         case SheetStore.STRING :
+            return store.getString(row, column).hashCode();
+         case SheetStore.NUMBER :
+            return Double.doubleToLongBits(store.getNumber(row, column));
+         case SheetStore.BOOLEAN :
+            return store.getBoolean(row, column) ? 1231 : 1237;
+         default :
+            return 0;
+      }
+   }
+
+   /**
+    * The row records of one rule during a run, keyed by the 1-based row number. Records
+    * are read from the last applied run and written for the current run.
+    */
+   public static class RowRecords
+   {
+      private final Map<Integer, RowRecord> appliedRecords;
+      private final ConcurrentMap<Integer, RowRecord> runRecords;
+      private final InterningPool<OWLAxiom> axiomPool;
+
+      RowRecords(Map<Integer, RowRecord> appliedRecords, ConcurrentMap<Integer, RowRecord> runRecords,
+            InterningPool<OWLAxiom> axiomPool)
+      {
+         this.appliedRecords = appliedRecords;
+         this.runRecords = runRecords;
+         this.axiomPool = axiomPool;
+      }
+
+      /**
+       * Returns the instance of the given axiom to keep in a row record, which is shared
+       * with the records of other rows that produced an equal axiom.
+       */
+      public OWLAxiom intern(OWLAxiom axiom)
+      {
+         return axiomPool.intern(axiom);
+      }
+
+      /**
+       * Returns the record of the given row in the last applied run, or {@code null}.
+       */
+      public RowRecord get(int row)
+      {
+         return appliedRecords.get(row);
+      }
+
+      /**
+       * Records the given row for the current run.
+       */
+      public void put(int row, RowRecord record)
+      {
+         runRecords.put(row, record);
+      }
+   }
+
+   /**
+    * The fingerprint of a row and the axioms it produced.
+    */
+   public static class RowRecord
+   {
+      private final long fingerprint;
+      private final Set<OWLAxiom> axioms;
+
+      public RowRecord(long fingerprint, Set<OWLAxiom> axioms)
+      {
+         this.fingerprint = fingerprint;
+         this.axioms = axioms;
+      }
+
+      public long getFingerprint()
+      {
+         return fingerprint;
+      }
+
+      public Set<OWLAxiom> getAxioms()
+      {
+         return axioms;
+      }
+   }
+
+   private static class RuleKey
+   {
+      private final String sheetName;
+      private final String cellRange;
+      private final String ruleString;
+
+      RuleKey(TransformationRule rule)
+      {
+         sheetName = rule.getSheetName();
+         cellRange = rule.getStartColumn() + rule.getStartRow() + ":" + rule.getEndColumn() + rule.getEndRow();
+         ruleString = rule.getRuleString();
+      }
+
+      @Override
+      public boolean equals(Object obj)
+      {
+         if (this == obj) {
+            return true;
+         }
+         if (!(obj instanceof RuleKey)) {
+            return false;
+         }
+         RuleKey other = (RuleKey) obj;
+         return sheetName.equals(other.sheetName) && cellRange.equals(other.cellRange)
+               && ruleString.equals(other.ruleString);
+      }
+
+      @Override
+      public int hashCode()
+      {
+         return (sheetName.hashCode() * 31 + cellRange.hashCode()) * 31 + ruleString.hashCode();
+      }
+   }
+}
@@ -0,0 +1,78 @@
+package org.mm.cellfie.ui.view;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded pool of canonical instances, so equal values that are kept over a run share
+ * one instance. Once the pool is full, new values are returned as they are and only the
+ * values already pooled are shared. The pool can be used from several threads.
+ * <p>
+ * Each time an equal instance is shared instead of the given one, the pool adds the
+ * estimated size of the given instance to the bytes saved, assuming the caller keeps
+ * the shared instance and drops its own.
+ */
+public class InterningPool<T>
+{
+   private final ConcurrentMap<T, T> instances = new ConcurrentHashMap<>();
+   private final int maxSize;
+   private final long instanceSize;
+
+   private final LongAdder hits = new LongAdder();
+
+   /**
+    * @param maxSize
+    *          The maximum number of pooled instances.
+    * @param instanceSize
+    *          The estimated heap size, in bytes, of one instance.
+    */
+   public InterningPool(int maxSize, long instanceSize)
+   {
+      this.maxSize = maxSize;
+      this.instanceSize = instanceSize;
+   }
+
+   /**
+    * Returns the pooled instance equal to the given value, adding the value to the pool
+    * if there is none and the pool is not full.
+    */
+   public T intern(T value)
+   {
+      T instance = instances.get(value);
+      if (instance == null) {
+         if (instances.size() >= maxSize) {
+            return value;
+         }
+         instance = instances.putIfAbsent(value, value);
+         if (instance == null) {
+            return value;
+         }
+      }
+      if (instance != value) {
+         hits.increment();
+      }
+      return instance;
+   }
+
+   /**
+    * Returns how many times an equal instance was shared instead of the given one.
+    */
+   public long getHitCount()
+   {
+      return hits.sum();
+   }
+
+   /**
+    * Returns the estimated heap bytes saved by sharing the pooled instances.
+    */
+   public long getSavedBytes()
+   {
+      return hits.sum() * instanceSize;
+   }
+
+   public int size()
+   {
+      return instances.size();
+   }
+}
@@ -17,6 +17,7 @@ import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.border.EmptyBorder;
 
+import org.mm.cellfie.action.ResolverStatistics;
 import org.mm.cellfie.ui.list.OWLAxiomList;
 import org.protege.editor.core.ui.util.JOptionPaneEx;
 import org.semanticweb.owlapi.model.OWLAxiom;
@@ -28,7 +29,8 @@ public class PreviewAxiomsPanel extends JPanel
    private final WorkspacePanel container;
    private final String logMessage;
 
-   public PreviewAxiomsPanel(WorkspacePanel container, Set<OWLAxiom> axioms, String logMessage)
+   public PreviewAxiomsPanel(WorkspacePanel container, Set<OWLAxiom> axioms, String logMessage,
+         ResolverStatistics resolverStatistics)
    {
       this.container = container;
       this.logMessage = logMessage;
@@ -47,6 +49,11 @@ public class PreviewAxiomsPanel extends JPanel
       pnlViewLog.setLayout(new FlowLayout(FlowLayout.RIGHT));
       add(pnlViewLog, BorderLayout.SOUTH);
 
+      JLabel lblResolution = new JLabel("Entity resolution: " + resolverStatistics.getShortSummary());
+      lblResolution.setForeground(Color.DARK_GRAY);
+      lblResolution.setToolTipText("<html>" + String.join("<br>", resolverStatistics.getSummary()) + "</html>");
+      pnlViewLog.add(lblResolution);
+
       JLabel lblViewLog = new JLabel("View Log");
       lblViewLog.setBorder(new EmptyBorder(0, 7, 0, 0));
       Font font = lblViewLog.getFont();
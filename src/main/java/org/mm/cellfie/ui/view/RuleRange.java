@@ -0,0 +1,187 @@
+package org.mm.cellfie.ui.view;
+
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.mm.cellfie.ui.exception.CellfieException;
+import org.mm.core.TransformationRule;
+import org.mm.ss.SpreadSheetUtil;
+
+/**
+ * The resolved cell range of a transformation rule. Column and row numbers follow the
+ * 1-based numbering used by {@code SpreadsheetLocation}.
+ */
+class RuleRange
+{
+   private final TransformationRule rule;
+   private final String sheetName;
+   private final Sheet sheet;
+   private final int startColumn;
+   private final int endColumn;
+   private final int startRow;
+   private final int endRow;
+   private final int[] rows; // the rows to visit if not every row of the range, otherwise null
+
+   private RuleRange(TransformationRule rule, String sheetName, Sheet sheet, int startColumn, int endColumn,
+         int startRow, int endRow)
+   {
+      this(rule, sheetName, sheet, startColumn, endColumn, startRow, endRow, null);
+   }
+
+   private RuleRange(TransformationRule rule, String sheetName, Sheet sheet, int startColumn, int endColumn,
+         int startRow, int endRow, int[] rows)
+   {
+      this.rule = rule;
+      this.sheetName = sheetName;
+      this.sheet = sheet;
+      this.startColumn = startColumn;
+      this.endColumn = endColumn;
+      this.startRow = startRow;
+      this.endRow = endRow;
+      this.rows = rows;
+   }
+
+   public static RuleRange create(TransformationRule rule, Workbook workbook) throws Exception
+   {
+      String sheetName = rule.getSheetName();
+      Sheet sheet = workbook.getSheet(sheetName);
+      if (sheet == null) {
+         throw new CellfieException("Sheet '" + sheetName + "' does not exist in rule " + rule);
+      }
+      int startColumnIndex = getStartColumnIndex(rule);
+      int startRowIndex = getStartRowIndex(rule);
+      int endColumnIndex = getEndColumnIndex(rule, sheet, startRowIndex);
+      int endRowIndex = getEndRowIndex(rule, sheet);
+
+      if (startColumnIndex > endColumnIndex) {
+         throw new CellfieException("Start column after finish column in rule " + rule);
+      }
+      if (startRowIndex > endRowIndex) {
+         throw new CellfieException("Start row after finish row in rule " + rule);
+      }
+      return new RuleRange(rule, sheetName, sheet, startColumnIndex, endColumnIndex, startRowIndex, endRowIndex);
+   }
+
+   /**
+    * Returns a copy of this range with the given end column and end row.
+    */
+   public RuleRange withEnd(int endColumn, int endRow)
+   {
+      return new RuleRange(rule, sheetName, sheet, startColumn, endColumn, startRow, endRow);
+   }
+
+   /**
+    * Returns a copy of this range that visits only the given rows. The rows must be
+    * sorted and lie between the start and end row.
+    */
+   public RuleRange withRows(int[] rows)
+   {
+      return new RuleRange(rule, sheetName, sheet, startColumn, endColumn, startRow, endRow, rows);
+   }
+
+   /**
+    * Returns {@code true} if the range visits only some of the rows between its start
+    * and end row.
+    */
+   public boolean isSparse()
+   {
+      return rows != null;
+   }
+
+   /**
+    * Returns the rows visited by a sparse range.
+    */
+   public int[] getRows()
+   {
+      return rows;
+   }
+
+   public TransformationRule getRule()
+   {
+      return rule;
+   }
+
+   public String getSheetName()
+   {
+      return sheetName;
+   }
+
+   public Sheet getSheet()
+   {
+      return sheet;
+   }
+
+   public int getStartColumn()
+   {
+      return startColumn;
+   }
+
+   public int getEndColumn()
+   {
+      return endColumn;
+   }
+
+   public int getStartRow()
+   {
+      return startRow;
+   }
+
+   public int getEndRow()
+   {
+      return endRow;
+   }
+
+   public int getColumnCount()
+   {
+      return endColumn - startColumn + 1;
+   }
+
+   public int getRowCount()
+   {
+      return isSparse() ? rows.length : endRow - startRow + 1;
+   }
+
+   public long getCellCount()
+   {
+      return (long) getColumnCount() * getRowCount();
+   }
+
+   private static int getStartColumnIndex(TransformationRule rule) throws Exception
+   {
+      String startColumn = rule.getStartColumn();
+      if (startColumn.isEmpty()) {
+         throw new CellfieException("Start column is not specified");
+      }
+      return SpreadSheetUtil.columnName2Number(startColumn);
+   }
+
+   private static int getStartRowIndex(TransformationRule rule) throws Exception
+   {
+      String startRow = rule.getStartRow();
+      if (startRow.isEmpty()) {
+         throw new CellfieException("Start row is not specified");
+      }
+      return SpreadSheetUtil.rowLabel2Number(startRow);
+   }
+
+   private static int getEndColumnIndex(TransformationRule rule, Sheet sheet, int startRowIndex) throws Exception
+   {
+      String endColumn = rule.getEndColumn();
+      if (endColumn.isEmpty()) {
+         throw new CellfieException("End column is not specified. (Hint: Use a wildcard '+' to indicate the last column)");
+      }
+      return rule.hasEndColumnWildcard()
+            ? sheet.getRow(startRowIndex).getLastCellNum() + 1
+            : SpreadSheetUtil.columnName2Number(endColumn);
+   }
+
+   private static int getEndRowIndex(TransformationRule rule, Sheet sheet) throws Exception
+   {
+      String endRow = rule.getEndRow();
+      if (endRow.isEmpty()) {
+         throw new CellfieException("End row is not specified. (Hint: Use a wildcard '+' to indicate the last row)");
+      }
+      int endRowIndex = rule.hasEndRowWildcard() ? sheet.getLastRowNum() + 1
+            : SpreadSheetUtil.rowLabel2Number(endRow);
+      return endRowIndex;
+   }
+}
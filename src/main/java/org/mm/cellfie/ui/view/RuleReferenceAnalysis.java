@@ -0,0 +1,156 @@
+package org.mm.cellfie.ui.view;
+
+/**
+ * Finds out which part of the current location a transformation rule depends on. A
+ * rule output can only change with the current column if one of its references uses
+ * a wildcard column (e.g., {@code @*5}), and only with the current row if one of its
+ * references uses a wildcard row (e.g., {@code @A*}). Positions along an axis the rule
+ * does not depend on produce exactly the same axioms and need not be evaluated.
+ * <p>
+ * The analysis scans the reference tokens of the rule string, skipping quoted text.
+ * Any reference it cannot read is treated as depending on both the column and the
+ * row, so the analysis never skips a position that could change the output.
+ */
+class RuleReferenceAnalysis
+{
+   private static final char REFERENCE_SYMBOL = '@';
+   private static final char WILDCARD = '*';
+
+   private boolean columnDependent = false;
+   private boolean rowDependent = false;
+   private int referenceCount = 0;
+
+   private RuleReferenceAnalysis()
+   {
+      // NO-OP
+   }
+
+   public static RuleReferenceAnalysis analyze(String ruleString)
+   {
+      RuleReferenceAnalysis analysis = new RuleReferenceAnalysis();
+      analysis.scan(ruleString);
+      return analysis;
+   }
+
+   public boolean isColumnDependent()
+   {
+      return columnDependent;
+   }
+
+   public boolean isRowDependent()
+   {
+      return rowDependent;
+   }
+
+   public int getReferenceCount()
+   {
+      return referenceCount;
+   }
+
+   /**
+    * Returns the part of the given range that needs to be evaluated. Along an axis the
+    * rule does not depend on, only the first position of the range is kept.
+    */
+   public RuleRange narrow(RuleRange range)
+   {
+      int endColumn = columnDependent ? range.getEndColumn() : range.getStartColumn();
+      int endRow = rowDependent ? range.getEndRow() : range.getStartRow();
+      return range.withEnd(endColumn, endRow);
+   }
+
+   private void scan(String text)
+   {
+      int length = text.length();
+      int i = 0;
+      while (i < length) {
+         char c = text.charAt(i);
+         if (c == '"' || c == '\'') {
+            i = skipQuoted(text, i);
+         } else if (c == REFERENCE_SYMBOL) {
+            i = scanReference(text, i + 1);
+         } else {
+            i++;
+         }
+      }
+   }
+
+   private int scanReference(String text, int start)
+   {
+      referenceCount++;
+      int i = skipSheetName(text, start);
+
+      // Column part: a wildcard or a sequence of letters
+      int columnStart = i;
+      boolean columnWildcard = false;
+      if (i < text.length() && text.charAt(i) == WILDCARD) {
+         columnWildcard = true;
+         i++;
+      } else {
+         while (i < text.length() && Character.isLetter(text.charAt(i))) {
+            i++;
+         }
+      }
+      boolean hasColumn = i > columnStart;
+
+      // Row part: a wildcard or a sequence of digits
+      int rowStart = i;
+      boolean rowWildcard = false;
+      if (i < text.length() && text.charAt(i) == WILDCARD) {
+         rowWildcard = true;
+         i++;
+      } else {
+         while (i < text.length() && Character.isDigit(text.charAt(i))) {
+            i++;
+         }
+      }
+      boolean hasRow = i > rowStart;
+
+      if (!hasColumn || !hasRow) { // unknown reference form, assume the worst
+         columnDependent = true;
+         rowDependent = true;
+         return Math.max(i, start);
+      }
+      columnDependent |= columnWildcard;
+      rowDependent |= rowWildcard;
+      return i;
+   }
+
+   /*
+    * Skips an optional sheet qualifier, i.e., 'Sheet name'! or SheetName!
+    */
+   private static int skipSheetName(String text, int start)
+   {
+      if (start < text.length() && text.charAt(start) == '\'') {
+         int end = skipQuoted(text, start);
+         if (end < text.length() && text.charAt(end) == '!') {
+            return end + 1;
+         }
+         return start;
+      }
+      int i = start;
+      while (i < text.length() && (Character.isLetterOrDigit(text.charAt(i)) || text.charAt(i) == '_')) {
+         i++;
+      }
+      if (i < text.length() && text.charAt(i) == '!') {
+         return i + 1;
+      }
+      return start;
+   }
+
+   private static int skipQuoted(String text, int start)
+   {
+      char quote = text.charAt(start);
+      int i = start + 1;
+      while (i < text.length()) {
+         char c = text.charAt(i);
+         if (c == '\\') {
+            i += 2;
+         } else if (c == quote) {
+            return i + 1;
+         } else {
+            i++;
+         }
+      }
+      return text.length();
+   }
+}
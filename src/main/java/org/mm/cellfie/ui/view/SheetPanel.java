@@ -14,9 +14,8 @@ import javax.swing.JTable;
 import javax.swing.table.AbstractTableModel;
 import javax.swing.table.JTableHeader;
 
-import org.apache.poi.ss.usermodel.Cell;
-import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Sheet;
+import org.mm.cellfie.ss.SheetStore;
 import org.mm.ss.SpreadSheetUtil;
 
 /**
@@ -45,15 +44,20 @@ public class SheetPanel extends JPanel {
    private Point startMousePt;
    private Point endMousePt;
 
+   private boolean pinned;
+
    /**
-    * Constructs the UI panel for the given input {@code Sheet} object.
+    * Constructs the UI panel for the given input {@code Sheet} object. The sheet is
+    * pinned while the panel is shown, so that the table does not read a released sheet
+    * again as it is scrolled.
     *
     * @param sheet
     *           The Apache POI sheet instance
     */
    public SheetPanel(@Nonnull Sheet sheet) {
       this.sheet = checkNotNull(sheet);
-      sheetModel = new SheetTableModel(sheet);
+      sheetModel = new SheetTableModel(SheetStore.pin(sheet));
+      pinned = true;
 
       setLayout(new BorderLayout());
 
@@ -79,6 +83,15 @@ public class SheetPanel extends JPanel {
       validate();
    }
 
+   @Override
+   public void removeNotify() {
+      super.removeNotify();
+      if (pinned) {
+         SheetStore.unpin(sheet);
+         pinned = false;
+      }
+   }
+
    /**
     * Returns the name of the sheet presented by this UI panel.
     *
@@ -106,37 +119,23 @@ public class SheetPanel extends JPanel {
    }
 
    /**
-    * The table model used to presenting the data from the Apache POI Sheet instance
+    * The table model used to presenting the data from the cell store of a sheet
     */
    class SheetTableModel extends AbstractTableModel {
       private static final long serialVersionUID = 1L;
 
-      private final Sheet sheet;
+      private final SheetStore store;
 
-      public SheetTableModel(@Nonnull Sheet sheet) {
-         this.sheet = checkNotNull(sheet);
+      public SheetTableModel(@Nonnull SheetStore store) {
+         this.store = checkNotNull(store);
       }
 
       public int getRowCount() {
-         if (sheet.rowIterator().hasNext()) {
-            return sheet.getLastRowNum() + 1;
-         } else {
-            return 0; // is empty
-         }
+         return store.getRowCount();
       }
 
       public int getColumnCount() {
-         int maxCount = 0;
-         for (int i = 0; i < getRowCount(); i++) {
-            Row row = sheet.getRow(i);
-            if (row != null) {
-               int currentCount = row.getLastCellNum();
-               if (currentCount > maxCount) {
-                  maxCount = currentCount;
-               }
-            }
-         }
-         return maxCount;
+         return store.getColumnCount();
       }
 
       public String getColumnName(int column) {
@@ -144,30 +143,21 @@ public class SheetPanel extends JPanel {
       }
 
       public Object getValueAt(int row, int column) {
-         try {
-            Cell cell = sheet.getRow(row).getCell(column);
-            switch (cell.getCellType()) {
-               case Cell.CELL_TYPE_BLANK :
-                  return "";
-               case Cell.CELL_TYPE_STRING :
-                  return cell.getStringCellValue();
-               case Cell.CELL_TYPE_NUMERIC :
-                  // Check if the numeric is double or integer
-                  if (isInteger(cell.getNumericCellValue())) {
-                     return (int) cell.getNumericCellValue();
-                  } else {
-                     return cell.getNumericCellValue();
-                  }
-               case Cell.CELL_TYPE_BOOLEAN :
-                  return cell.getBooleanCellValue();
-               case Cell.CELL_TYPE_FORMULA :
-                  return cell.getNumericCellValue();
-               default :
-                  return "";
-            }
-         } catch (NullPointerException e) {
-            // TODO Log this strange error
-            return "";
+         switch (store.getType(row, column)) {
+            case SheetStore.STRING :
+               return store.getString(row, column);
+            case SheetStore.NUMBER :
+               // Check if the numeric is double or integer
+               double number = store.getNumber(row, column);
+               if (isInteger(number)) {
+                  return (int) number;
+               } else {
+                  return number;
+               }
+            case SheetStore.BOOLEAN :
+               return store.getBoolean(row, column);
+            default :
+               return ""; // blank and error cells
          }
       }
 
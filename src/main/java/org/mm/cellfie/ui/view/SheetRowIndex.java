@@ -0,0 +1,75 @@
+package org.mm.cellfie.ui.view;
+
+import java.util.Arrays;
+
+import org.mm.cellfie.ss.SheetStore;
+
+/**
+ * A sorted index of the non-blank rows of a sheet. The index is built once by walking
+ * the rows that the sheet store holds, so rows that were never written and rows whose
+ * cells are all blank are left out. Row numbers are 1-based, as in
+ * {@code SpreadsheetLocation}.
+ */
+class SheetRowIndex
+{
+   private final int[] rows;
+
+   private SheetRowIndex(int[] rows)
+   {
+      this.rows = rows;
+   }
+
+   public static SheetRowIndex build(SheetStore store)
+   {
+      int[] rows = new int[Math.max(16, store.getPhysicalRowCount())];
+      int size = 0;
+      for (int row = 0; row < store.getRowCount(); row++) {
+         if (store.hasRow(row) && !isBlank(store, row)) {
+            if (size == rows.length) {
+               rows = Arrays.copyOf(rows, size * 2);
+            }
+            rows[size++] = row + 1; // the store is 0-based
+         }
+      }
+      return new SheetRowIndex(Arrays.copyOf(rows, size));
+   }
+
+   /**
+    * Returns the non-blank rows between the given row numbers (inclusive).
+    */
+   public int[] getRows(int startRow, int endRow)
+   {
+      int from = lowerBound(startRow);
+      int to = lowerBound(endRow + 1);
+      return Arrays.copyOfRange(rows, from, to);
+   }
+
+   public int size()
+   {
+      return rows.length;
+   }
+
+   private int lowerBound(int row)
+   {
+      int index = Arrays.binarySearch(rows, row);
+      return index >= 0 ? index : -(index + 1);
+   }
+
+   private static boolean isBlank(SheetStore store, int row)
+   {
+      for (int column = 0; column < store.getColumnCount(); column++) {
+         switch (store.getType(row, column)) {
+            case SheetStore.BLANK :
+               break;
+            case SheetStore.STRING :
+               if (!store.getString(row, column).trim().isEmpty()) {
+                  return false;
+               }
+               break;
+            default :
+               return false;
+         }
+      }
+      return true;
+   }
+}
@@ -21,6 +21,12 @@ public class SheetTable extends JTable
 {
    private static final long serialVersionUID = 1L;
 
+   /*
+    * Column widths are fitted to the first rows only, measuring every cell of a large
+    * sheet would hold up the first display of the sheet
+    */
+   private static final int MAX_MEASURED_ROWS = 500;
+
    public SheetTable(TableModel model)
    {
       super(model);
@@ -43,9 +49,10 @@ public class SheetTable extends JTable
    private void resizeColumnWidth()
    {
       final TableColumnModel columnModel = getColumnModel();
+      final int measuredRows = Math.min(getRowCount(), MAX_MEASURED_ROWS);
       for (int column = 0; column < getColumnCount(); column++) {
          int width = 50; // Min width
-         for (int row = 0; row < getRowCount(); row++) {
+         for (int row = 0; row < measuredRows; row++) {
             TableCellRenderer renderer = getCellRenderer(row, column);
             Component comp = prepareRenderer(renderer, row, column);
             width = Math.max(comp.getPreferredSize().width + 1, width);
@@ -29,10 +29,12 @@ import javax.swing.JLabel;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
+import javax.swing.JSpinner;
 import javax.swing.JTable;
 import javax.swing.JTextArea;
 import javax.swing.KeyStroke;
 import javax.swing.ListSelectionModel;
+import javax.swing.SpinnerNumberModel;
 import javax.swing.SwingConstants;
 import javax.swing.SwingUtilities;
 import javax.swing.UIManager;
@@ -68,6 +70,9 @@ public class TransformationRuleBrowserView extends JPanel implements ModelView
    private JButton cmdSave;
    private JButton cmdSaveAs;
    private JButton cmdGenerateAxioms;
+   private JSpinner spnParallelism;
+   private JCheckBox chkIncremental;
+   private JCheckBox chkSnapshots;
 
    private JTable tblTransformationRules;
    private CheckBoxHeaderRenderer tblHeaderRenderer;
@@ -166,6 +171,26 @@ public class TransformationRuleBrowserView extends JPanel implements ModelView
       cmdGenerateAxioms.setEnabled(false);
       pnlGenerateAxioms.add(cmdGenerateAxioms);
 
+      JLabel lblParallelism = new JLabel("Threads:");
+      lblParallelism.setBorder(new EmptyBorder(0, 10, 0, 0));
+      pnlGenerateAxioms.add(lblParallelism);
+
+      spnParallelism = new JSpinner(new SpinnerNumberModel(CellfiePreferences.getGenerationParallelism(), 1,
+            Math.max(64, CellfiePreferences.getDefaultParallelism()), 1));
+      spnParallelism.setToolTipText("Number of worker threads used to generate the axioms");
+      spnParallelism.addChangeListener(e -> CellfiePreferences.setGenerationParallelism((Integer) spnParallelism.getValue()));
+      pnlGenerateAxioms.add(spnParallelism);
+
+      chkIncremental = new JCheckBox("Only changed rows", CellfiePreferences.isIncrementalGeneration());
+      chkIncremental.setToolTipText("Re-evaluate only the rows that changed since the previous run and update the target ontology accordingly");
+      chkIncremental.addActionListener(e -> CellfiePreferences.setIncrementalGeneration(chkIncremental.isSelected()));
+      pnlGenerateAxioms.add(chkIncremental);
+
+      chkSnapshots = new JCheckBox("Cache workbooks", CellfiePreferences.isWorkbookSnapshots());
+      chkSnapshots.setToolTipText("Keep a binary copy of large workbooks in " + CellfiePreferences.getCacheDirectory() + " so they open faster the next time");
+      chkSnapshots.addActionListener(e -> CellfiePreferences.setWorkbookSnapshots(chkSnapshots.isSelected()));
+      pnlGenerateAxioms.add(chkSnapshots);
+
       update();
       validate();
    }
@@ -668,6 +693,9 @@ public class TransformationRuleBrowserView extends JPanel implements ModelView
             container, "Transformation Rule Editor", editorPanel, JOptionPane.PLAIN_MESSAGE, JOptionPane.OK_CANCEL_OPTION, null);
       switch (answer) {
          case JOptionPane.OK_OPTION :
+            if (selectedRow != -1) {
+               container.invalidateRule(getValueAt(selectedRow, 6));
+            }
             TransformationRule userInput = editorPanel.getUserInput();
             updateTableModel(selectedRow, userInput.getSheetName(), userInput.getStartColumn(),
                   userInput.getEndColumn(), userInput.getStartRow(), userInput.getEndRow(),
@@ -708,6 +736,7 @@ public class TransformationRuleBrowserView extends JPanel implements ModelView
                "Do you really want to delete the selected transformation rule?");
          switch (answer) {
             case JOptionPane.YES_OPTION :
+               container.invalidateRule(getValueAt(selectedRow, 6));
                tableModel.removeRow(selectedRow);
                tblTransformationRules.setRowSelectionInterval(selectedRow, selectedRow);
          }
@@ -0,0 +1,55 @@
+package org.mm.cellfie.ui.view;
+
+import java.util.Collections;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.semanticweb.owlapi.model.OWLAxiom;
+
+/**
+ * An axiom sink that removes duplicates as the axioms arrive. Each distinct axiom is
+ * stored once and, if a downstream sink is given, forwarded to it the first time it is
+ * seen. The memory used is bounded by the number of unique axioms.
+ */
+public class UniqueAxiomSink implements AxiomSink
+{
+   private final Set<OWLAxiom> axioms = ConcurrentHashMap.newKeySet();
+
+   private final Optional<AxiomSink> downstream;
+
+   public UniqueAxiomSink()
+   {
+      this.downstream = Optional.empty();
+   }
+
+   public UniqueAxiomSink(AxiomSink downstream)
+   {
+      this.downstream = Optional.of(downstream);
+   }
+
+   @Override
+   public boolean accept(OWLAxiom axiom)
+   {
+      boolean isNew = axioms.add(axiom);
+      if (isNew && downstream.isPresent()) {
+         downstream.get().accept(axiom);
+      }
+      return isNew;
+   }
+
+   /**
+    * Returns an unmodifiable view of the unique axioms received so far.
+    *
+    * @return a set of OWL axioms
+    */
+   public Set<OWLAxiom> getAxioms()
+   {
+      return Collections.unmodifiableSet(axioms);
+   }
+
+   public int size()
+   {
+      return axioms.size();
+   }
+}
@@ -8,10 +8,12 @@ import java.awt.event.ActionEvent;
 import java.awt.event.KeyEvent;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
-import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 import javax.swing.AbstractAction;
 import javax.swing.JComponent;
@@ -27,16 +29,19 @@ import javax.swing.border.EmptyBorder;
 import org.mm.app.MMApplication;
 import org.mm.app.MMApplicationFactory;
 import org.mm.app.MMApplicationModel;
+import org.mm.cellfie.action.EntityResolutionCache;
+import org.mm.cellfie.action.LabelIndex;
 import org.mm.cellfie.action.OWLProtegeOntology;
+import org.mm.cellfie.action.OntologyTerms;
+import org.mm.cellfie.action.PrefixTable;
+import org.mm.cellfie.action.SignatureSnapshot;
+import org.mm.cellfie.action.SuggestionIndex;
+import org.mm.cellfie.ss.WorkbookLoader;
 import org.mm.core.OWLOntologySourceHook;
 import org.mm.core.TransformationRule;
 import org.mm.core.TransformationRuleSet;
 import org.mm.core.settings.ReferenceSettings;
-import org.mm.parser.ASTExpression;
-import org.mm.parser.MappingMasterParser;
 import org.mm.parser.ParseException;
-import org.mm.parser.SimpleNode;
-import org.mm.parser.node.ExpressionNode;
 import org.mm.parser.node.MMExpressionNode;
 import org.mm.renderer.Renderer;
 import org.mm.rendering.Rendering;
@@ -44,8 +49,11 @@ import org.mm.ss.SpreadSheetDataSource;
 import org.mm.ui.DialogManager;
 import org.protege.editor.core.ui.split.ViewSplitPane;
 import org.protege.editor.owl.OWLEditorKit;
+import org.protege.editor.owl.model.event.EventType;
+import org.protege.editor.owl.model.event.OWLModelManagerListener;
 import org.semanticweb.owlapi.model.IRI;
 import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyChangeListener;
 import org.semanticweb.owlapi.util.OntologyIRIShortFormProvider;
 
 /**
@@ -66,6 +74,32 @@ public class WorkspacePanel extends JPanel
    private MMApplication application;
    private MMApplicationFactory applicationFactory = new MMApplicationFactory();
 
+   private SpreadSheetDataSource workbook;
+
+   private final CompiledRuleCache compiledRuleCache = new CompiledRuleCache();
+   private final IncrementalGenerationState incrementalState = new IncrementalGenerationState();
+   private final ReferenceSettings defaultReferenceSettings = new ReferenceSettings();
+   private final EntityResolutionCache resolutionCache = new EntityResolutionCache();
+
+   private OntologyTerms ontologyTerms; // guarded by this
+   private SignatureSnapshot signatureSnapshot; // guarded by this
+   private CompletableFuture<LabelIndex> labelIndex; // guarded by this
+   private CompletableFuture<SuggestionIndex> suggestionIndex; // guarded by this
+   private final OWLOntologyChangeListener ontologyTermsInvalidator = changes -> {
+      if (OntologyTerms.isAffectedBy(changes)) {
+         invalidateOntologyTerms(); // taken again on the next request
+      }
+   };
+
+   private final OWLModelManagerListener modelManagerListener = event -> {
+      if (event.isType(EventType.ACTIVE_ONTOLOGY_CHANGED) || event.isType(EventType.ONTOLOGY_RELOADED)) {
+         PrefixTable.invalidate();
+         invalidateOntologyTerms();
+      } else if (event.isType(EventType.ENTITY_RENDERER_CHANGED)) {
+         invalidateOntologyTerms();
+      }
+   };
+
    public WorkspacePanel(OWLOntology ontology, String workbookFilePath, OWLEditorKit editorKit, DialogManager dialogHelper)
    {
       this.ontology = ontology;
@@ -93,6 +127,8 @@ public class WorkspacePanel extends JPanel
       loadWorkbookDocument(workbookFilePath);
 //      loadTransformationRuleDocument(ruleFilePath) // XXX In case the UI will allow users to input rule file in advance
       setupApplication();
+      getLabelIndex();
+      getSuggestionIndexAsync();
 
       /*
        * Workbook sheet GUI presentation
@@ -146,9 +182,22 @@ public class WorkspacePanel extends JPanel
       return sb.toString();
    }
 
+   /*
+    * The workbook is loaded here rather than by the application factory, so that large
+    * workbooks can be streamed instead of being parsed into POI's object model. The
+    * factory still gets the location, which MappingMaster reads.
+    */
    private void loadWorkbookDocument(String path)
    {
       applicationFactory.setWorkbookFileLocation(path);
+      try {
+         File workbookFile = new File(path);
+         workbook = new SpreadSheetDataSource(CellfiePreferences.isWorkbookSnapshots()
+               ? WorkbookLoader.load(workbookFile, CellfiePreferences.getCacheDirectory())
+               : WorkbookLoader.load(workbookFile));
+      } catch (IOException | RuntimeException e) {
+         dialogHelper.showErrorMessageDialog(this, "Error while opening workbook: " + e.getMessage());
+      }
    }
 
    /**
@@ -163,6 +212,8 @@ public class WorkspacePanel extends JPanel
 
    public void loadTransformationRuleDocument(String path)
    {
+      compiledRuleCache.invalidateAll();
+      incrementalState.invalidateAll();
       setRuleFileLocation(path);
       setupApplication();
       transformationRuleBrowserView.update();
@@ -183,10 +234,110 @@ public class WorkspacePanel extends JPanel
       applicationFactory.setRuleFileLocation(path);
    }
 
+   /*
+    * Returns the terms of the active ontologies, which the signature snapshot and the
+    * indexes are built from. The terms are copied on the event dispatch thread, so the
+    * Protege model is never read while it changes.
+    */
+   private synchronized OntologyTerms getOntologyTerms()
+   {
+      if (ontologyTerms == null) {
+         ontologyTerms = OntologyTerms.take(editorKit.getModelManager());
+      }
+      return ontologyTerms;
+   }
+
+   private synchronized void invalidateOntologyTerms()
+   {
+      ontologyTerms = null;
+      signatureSnapshot = null;
+      labelIndex = null;
+      suggestionIndex = null;
+   }
+
+   /**
+    * Returns the signature snapshot of the active ontologies that the generation runs
+    * resolve names against. The snapshot is taken on the first request and kept until
+    * a change of the entities or their renderings. Must be called on the event dispatch
+    * thread.
+    *
+    * @return the signature snapshot of the active ontologies
+    */
+   public synchronized SignatureSnapshot getSignatureSnapshot()
+   {
+      if (signatureSnapshot == null) {
+         signatureSnapshot = SignatureSnapshot.create(getOntologyTerms());
+      }
+      return signatureSnapshot;
+   }
+
+   /**
+    * Returns the label index of the active ontologies. The index is built in the
+    * background from the ontology terms, when the workspace opens and again after the
+    * terms change, so the returned future may not be done yet. Must be called on the
+    * event dispatch thread; the future must only be waited for outside of it.
+    *
+    * @return the rdfs:label index of the active ontologies
+    */
+   public synchronized CompletableFuture<LabelIndex> getLabelIndex()
+   {
+      if (labelIndex == null) {
+         OntologyTerms terms = getOntologyTerms();
+         labelIndex = CompletableFuture.supplyAsync(() -> LabelIndex.build(terms));
+      }
+      return labelIndex;
+   }
+
+   /**
+    * Returns the index used to suggest entity names for a name that could not be
+    * resolved. Like the label index, it is built in the background and rebuilt after
+    * the ontology terms change. The method does not wait for the build, so the index is
+    * empty while it is running or if it failed. Must be called on the event dispatch
+    * thread.
+    *
+    * @return the trigram index over the entity names and labels of the active ontologies
+    */
+   public Optional<SuggestionIndex> getSuggestionIndex()
+   {
+      CompletableFuture<SuggestionIndex> index = getSuggestionIndexAsync();
+      if (!index.isDone() || index.isCompletedExceptionally()) {
+         return Optional.empty();
+      }
+      return Optional.of(index.join());
+   }
+
+   private synchronized CompletableFuture<SuggestionIndex> getSuggestionIndexAsync()
+   {
+      if (suggestionIndex == null) {
+         OntologyTerms terms = getOntologyTerms();
+         suggestionIndex = CompletableFuture.supplyAsync(() -> SuggestionIndex.build(terms));
+      }
+      return suggestionIndex;
+   }
+
+   @Override
+   public void addNotify()
+   {
+      super.addNotify();
+      editorKit.getModelManager().getOWLOntologyManager().addOntologyChangeListener(ontologyTermsInvalidator);
+      resolutionCache.attach(editorKit.getModelManager());
+      editorKit.getModelManager().addListener(modelManagerListener);
+   }
+
+   @Override
+   public void removeNotify()
+   {
+      editorKit.getModelManager().removeListener(modelManagerListener);
+      resolutionCache.detach();
+      editorKit.getModelManager().getOWLOntologyManager().removeOntologyChangeListener(ontologyTermsInvalidator);
+      invalidateOntologyTerms(); // changes are not tracked while detached
+      super.removeNotify();
+   }
+
    private void setupApplication()
    {
       try {
-         OWLOntologySourceHook ontologySourceHook = new OWLProtegeOntology(getEditorKit());
+         OWLOntologySourceHook ontologySourceHook = new OWLProtegeOntology(getEditorKit(), resolutionCache);
          application = applicationFactory.createApplication(ontologySourceHook);
       } catch (Exception e) {
          dialogHelper.showErrorMessageDialog(this, "Initialization error: " + e.getMessage());
@@ -200,16 +351,59 @@ public class WorkspacePanel extends JPanel
 
    public void evaluate(TransformationRule rule, Renderer renderer, Set<Rendering> results) throws ParseException
    {
-      String ruleString = rule.getRuleString();
-      MappingMasterParser parser = new MappingMasterParser(new ByteArrayInputStream(ruleString.getBytes()), new ReferenceSettings(), -1);
-      SimpleNode simpleNode = parser.expression();
-      MMExpressionNode ruleNode = new ExpressionNode((ASTExpression) simpleNode).getMMExpressionNode();
+      MMExpressionNode ruleNode = compiledRuleCache.getExpressionNode(rule.getRuleString(), defaultReferenceSettings);
       Optional<? extends Rendering> renderingResult = renderer.render(ruleNode);
       if (renderingResult.isPresent()) {
          results.add(renderingResult.get());
       }
    }
 
+   /**
+    * Returns the reference settings used to parse the rules for evaluation. The same
+    * instance is returned on every call so it can serve as a cache key.
+    *
+    * @return the default reference settings
+    */
+   public ReferenceSettings getDefaultReferenceSettings()
+   {
+      return defaultReferenceSettings;
+   }
+
+   /**
+    * Returns the cache of parsed transformation rules shared by all generation runs
+    * in this workspace.
+    *
+    * @return the compiled rule cache
+    */
+   public CompiledRuleCache getCompiledRuleCache()
+   {
+      return compiledRuleCache;
+   }
+
+   /**
+    * Returns the row fingerprints and applied axioms kept from the previous generation
+    * runs in this workspace.
+    *
+    * @return the incremental generation state
+    */
+   public IncrementalGenerationState getIncrementalState()
+   {
+      return incrementalState;
+   }
+
+   /**
+    * Discards everything cached for the given rule string, typically after the rule
+    * was edited or deleted.
+    *
+    * @param ruleString
+    *          The transformation rule string before the change.
+    */
+   public void invalidateRule(String ruleString)
+   {
+      compiledRuleCache.invalidate(ruleString);
+      incrementalState.invalidate(ruleString);
+   }
+
    public OWLOntology getActiveOntology()
    {
       return ontology;
@@ -217,7 +411,7 @@ public class WorkspacePanel extends JPanel
 
    public SpreadSheetDataSource getActiveWorkbook()
    {
-      return getApplicationModel().getDataSourceModel().getDataSource();
+      return workbook;
    }
 
    public List<TransformationRule> getActiveTransformationRules()
@@ -237,16 +431,6 @@ public class WorkspacePanel extends JPanel
       getApplicationModel().getTransformationRuleModel().changeTransformationRuleSet(ruleSet);
    }
 
-   public Renderer getDefaultRenderer()
-   {
-      return getApplicationModel().getDefaultRenderer();
-   }
-
-   public Renderer getLogRenderer()
-   {
-      return getApplicationModel().getLogRenderer();
-   }
-
    public OWLEditorKit getEditorKit()
    {
       return editorKit;
@@ -0,0 +1,265 @@
+package org.mm.cellfie.action;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import java.util.Optional;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mm.core.OWLEntityResolver;
+import org.mm.exceptions.EntityNotFoundException;
+import org.protege.editor.owl.OWLEditorKit;
+import org.protege.editor.owl.model.OWLModelManager;
+import org.protege.editor.owl.model.entity.OWLEntityCreationSet;
+import org.protege.editor.owl.model.entity.OWLEntityFactory;
+import org.protege.editor.owl.model.find.OWLEntityFinder;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.formats.TurtleDocumentFormat;
+import org.semanticweb.owlapi.model.AddAxiom;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLDataProperty;
+import org.semanticweb.owlapi.model.OWLDatatype;
+import org.semanticweb.owlapi.model.OWLEntity;
+import org.semanticweb.owlapi.model.OWLNamedIndividual;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyManager;
+
+/**
+ * Checks that the concurrent resolver finds and creates the same entities as the
+ * serial {@link OWLProtegeEntityResolver}, over a model manager whose entity finder
+ * and entity factory are stubbed.
+ */
+public class ConcurrentEntityResolverTest
+{
+   private static final String NS = "http://example.org/test#";
+   private static final String DEFAULT_NS = "http://example.org/default#";
+
+   private OWLDataFactory dataFactory;
+   private OWLOntology ontology;
+   private OWLModelManager modelManager;
+   private OWLEntityFinder entityFinder;
+   private OWLEntityFactory entityFactory;
+   private OWLEditorKit editorKit;
+
+   @Before
+   public void setUp() throws Exception
+   {
+      OWLOntologyManager manager = OWLManager.createOWLOntologyManager();
+      dataFactory = manager.getOWLDataFactory();
+      ontology = manager.createOntology(IRI.create("http://example.org/test"));
+      TurtleDocumentFormat format = new TurtleDocumentFormat();
+      format.setPrefix("ex:", NS);
+      manager.setOntologyFormat(ontology, format);
+      declare(dataFactory.getOWLClass(IRI.create(NS + "Person")));
+      declare(dataFactory.getOWLNamedIndividual(IRI.create(NS + "alice")));
+      declare(dataFactory.getOWLDataProperty(IRI.create(NS + "hasAge")));
+
+      entityFinder = mock(OWLEntityFinder.class);
+      when(entityFinder.getOWLEntity(anyString())).thenAnswer(invocation -> findByRendering(
+            (String) invocation.getArguments()[0]));
+      entityFactory = mock(OWLEntityFactory.class);
+      when(entityFactory.createOWLEntity(any(Class.class), anyString(), any(IRI.class))).thenAnswer(
+            invocation -> createEntity((Class<?>) invocation.getArguments()[0], (String) invocation.getArguments()[1],
+                  (IRI) invocation.getArguments()[2]));
+
+      modelManager = mock(OWLModelManager.class);
+      when(modelManager.getActiveOntology()).thenReturn(ontology);
+      when(modelManager.getActiveOntologies()).thenReturn(Collections.singleton(ontology));
+      when(modelManager.getOWLOntologyManager()).thenReturn(manager);
+      when(modelManager.getOWLDataFactory()).thenReturn(dataFactory);
+      when(modelManager.getOWLEntityFinder()).thenReturn(entityFinder);
+      when(modelManager.getOWLEntityFactory()).thenReturn(entityFactory);
+      when(modelManager.getRendering(any(OWLEntity.class))).thenAnswer(
+            invocation -> ((OWLEntity) invocation.getArguments()[0]).getIRI().getShortForm());
+
+      editorKit = mock(OWLEditorKit.class);
+      when(editorKit.getModelManager()).thenReturn(modelManager);
+      PrefixTable.invalidate();
+   }
+
+   @Test
+   public void looksUpTheSameEntities() throws Exception
+   {
+      OWLProtegeEntityResolver serial = new OWLProtegeEntityResolver(editorKit);
+      ConcurrentEntityResolver concurrent = createConcurrentResolver();
+
+      assertSameResult(serial, concurrent, "Person", OWLClass.class);
+      assertSameResult(serial, concurrent, "alice", OWLNamedIndividual.class);
+      assertSameResult(serial, concurrent, "hasAge", OWLDataProperty.class);
+      assertSameResult(serial, concurrent, "xsd:string", OWLDatatype.class);
+      assertSameResult(serial, concurrent, "owl:Thing", OWLClass.class);
+      assertSameResult(serial, concurrent, "Unknown", OWLClass.class);
+   }
+
+   @Test
+   public void rejectsTheSameUnknownNames() throws Exception
+   {
+      OWLProtegeEntityResolver serial = new OWLProtegeEntityResolver(editorKit);
+      ConcurrentEntityResolver concurrent = createConcurrentResolver();
+
+      assertNotFound(serial, "Unknown");
+      EntityNotFoundException miss = assertNotFound(concurrent, "Unknown");
+      assertSame(miss, assertNotFound(concurrent, "Unknown")); // from the miss cache
+      assertEquals(0, miss.getStackTrace().length);
+   }
+
+   @Test
+   public void rejectsKnownMissesFromTheResolutionCache() throws Exception
+   {
+      EntityResolutionCache cache = new EntityResolutionCache();
+      OWLProtegeEntityResolver serial = new OWLProtegeEntityResolver(editorKit, Optional.of(cache));
+
+      EntityNotFoundException miss = assertNotFound(serial, "Unknown");
+      assertSame(miss, assertNotFound(serial, "Unknown"));
+      assertEquals(0, miss.getStackTrace().length);
+      verify(entityFinder, times(1)).getOWLEntity("Unknown");
+
+      declare(dataFactory.getOWLClass(IRI.create(NS + "Unknown")));
+      cache.clear(); // as done by the cache on a declaration change
+      assertTrue(serial.lookup("Unknown", OWLClass.class).isPresent());
+   }
+
+   @Test
+   public void reportsTheUnresolvedNameOfAWrappedMiss() throws Exception
+   {
+      OWLProtegeEntityResolver serial = new OWLProtegeEntityResolver(editorKit);
+      ConcurrentEntityResolver concurrent = createConcurrentResolver();
+
+      assertEquals(Optional.of("it's unknown"), ConcurrentEntityResolver.getUnresolvedName(
+            new IllegalStateException("rendering failed", assertNotFound(serial, "it's unknown"))));
+      assertEquals(Optional.of("Unknown"), ConcurrentEntityResolver.getUnresolvedName(
+            resolveUnchecked(concurrent, "Unknown")));
+      assertEquals(Optional.of("Unknown"), ConcurrentEntityResolver.getUnresolvedName(
+            resolveUnchecked(serial, "Unknown")));
+      assertEquals(Optional.empty(), ConcurrentEntityResolver.getUnresolvedName(
+            new RuntimeException("The expected entity name 'Unknown' does not exist in the ontology")));
+   }
+
+   @Test
+   public void createsTheSameEntitiesThroughTheEntityFactory() throws Exception
+   {
+      OWLProtegeEntityResolver serial = new OWLProtegeEntityResolver(editorKit);
+      ConcurrentEntityResolver concurrent = createConcurrentResolver();
+
+      assertEquals(serial.create("Company", OWLClass.class), concurrent.create("Company", OWLClass.class));
+      assertEquals(serial.create("ex:bob", OWLNamedIndividual.class),
+            concurrent.create("ex:bob", OWLNamedIndividual.class));
+      assertEquals(serial.create("Person", OWLClass.class), concurrent.create("Person", OWLClass.class));
+
+      verify(entityFactory, times(2)).createOWLEntity(eq(OWLClass.class), eq("Company"), any(IRI.class));
+      verify(entityFactory, times(2)).createOWLEntity(OWLNamedIndividual.class, "bob", IRI.create(NS));
+   }
+
+   @Test
+   public void createsEachNewEntityOnce() throws Exception
+   {
+      EntityCreationBatch creationBatch = new EntityCreationBatch(dataFactory);
+      ConcurrentEntityResolver concurrent = createConcurrentResolver(creationBatch);
+
+      OWLClass first = concurrent.create("Company", OWLClass.class);
+      OWLClass second = concurrent.create("Company", OWLClass.class);
+
+      assertSame(first, second);
+      verify(entityFactory, times(1)).createOWLEntity(eq(OWLClass.class), eq("Company"), any(IRI.class));
+      assertEquals(1, creationBatch.size());
+      assertTrue(creationBatch.getAxioms().contains(dataFactory.getOWLDeclarationAxiom(first)));
+      assertFalse(ontology.containsEntityInSignature(first)); // the batch is applied by the caller
+   }
+
+   @Test
+   public void reusesTheEntitiesOfAnEarlierRun() throws Exception
+   {
+      ConcurrentEntityResolver earlier = createConcurrentResolver();
+      OWLClass company = earlier.create("Company", OWLClass.class);
+      EntityCreationBatch creationBatch = new EntityCreationBatch(dataFactory);
+      ConcurrentEntityResolver resumed = createConcurrentResolver(creationBatch);
+
+      resumed.reuseCreatedEntities(earlier.getCreatedEntities());
+
+      assertSame(company, resumed.create("Company", OWLClass.class));
+      verify(entityFactory, times(1)).createOWLEntity(eq(OWLClass.class), eq("Company"), any(IRI.class));
+      assertEquals(0, creationBatch.size()); // declared by the earlier run
+   }
+
+   private ConcurrentEntityResolver createConcurrentResolver()
+   {
+      return createConcurrentResolver(new EntityCreationBatch(dataFactory));
+   }
+
+   private ConcurrentEntityResolver createConcurrentResolver(EntityCreationBatch creationBatch)
+   {
+      OntologyTerms terms = OntologyTerms.take(modelManager);
+      return new ConcurrentEntityResolver(modelManager, SignatureSnapshot.create(terms),
+            PrefixTable.getActiveTable(modelManager), LabelIndex.build(terms), creationBatch);
+   }
+
+   private static <T extends OWLEntity> void assertSameResult(OWLProtegeEntityResolver serial,
+         ConcurrentEntityResolver concurrent, String entityName, Class<T> entityType)
+   {
+      assertEquals(entityName, serial.lookup(entityName, entityType), concurrent.lookup(entityName, entityType));
+   }
+
+   private static EntityNotFoundException assertNotFound(OWLEntityResolver resolver, String entityName)
+   {
+      try {
+         resolver.resolve(entityName, OWLClass.class);
+         fail("Expected no entity for " + entityName);
+         return null;
+      } catch (EntityNotFoundException e) {
+         return e;
+      }
+   }
+
+   private static RuntimeException resolveUnchecked(OWLEntityResolver resolver, String entityName)
+   {
+      try {
+         resolver.resolveUnchecked(entityName, OWLClass.class);
+         fail("Expected no entity for " + entityName);
+         return null;
+      } catch (RuntimeException e) {
+         return e;
+      }
+   }
+
+   private void declare(OWLEntity entity)
+   {
+      ontology.getOWLOntologyManager().addAxiom(ontology, dataFactory.getOWLDeclarationAxiom(entity));
+   }
+
+   private OWLEntity findByRendering(String name)
+   {
+      for (OWLEntity entity : ontology.getSignature()) {
+         if (entity.getIRI().getShortForm().equals(name)) {
+            return entity;
+         }
+      }
+      return null;
+   }
+
+   /*
+    * Creates the entity like the Protege entity factory does, in the default namespace
+    * when no base IRI is given
+    */
+   private OWLEntityCreationSet<OWLEntity> createEntity(Class<?> type, String localName, IRI baseIri)
+   {
+      IRI iri = IRI.create((baseIri != null ? baseIri.toString() : DEFAULT_NS) + localName);
+      OWLEntity entity = dataFactory.getOWLEntity(EntityCreationBatch.getEntityType(type.asSubclass(OWLEntity.class)),
+            iri);
+      return new OWLEntityCreationSet<>(entity,
+            Collections.singletonList(new AddAxiom(ontology, dataFactory.getOWLDeclarationAxiom(entity))));
+   }
+}
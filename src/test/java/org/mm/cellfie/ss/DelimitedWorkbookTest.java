@@ -0,0 +1,209 @@
+package org.mm.cellfie.ss;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.poi.ss.usermodel.Workbook;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DelimitedWorkbookTest
+{
+   @Rule
+   public TemporaryFolder folder = new TemporaryFolder();
+
+   @Test
+   public void readsQuotedFields() throws Exception
+   {
+      SheetStore store = read("quotes.csv", "a,\"b,c\",\"line 1\nline 2\",\"say \"\"hi\"\"\"\r\nnext,\"\",,end\r\n");
+
+      assertEquals(2, store.getRowCount());
+      assertEquals("a", store.getString(0, 0));
+      assertEquals("b,c", store.getString(0, 1));
+      assertEquals("line 1\nline 2", store.getString(0, 2));
+      assertEquals("say \"hi\"", store.getString(0, 3));
+      assertEquals("next", store.getString(1, 0));
+      assertTrue(store.isBlank(1, 1));
+      assertTrue(store.isBlank(1, 2));
+      assertEquals("end", store.getString(1, 3));
+   }
+
+   @Test
+   public void keepsACarriageReturnWithinQuotes() throws Exception
+   {
+      SheetStore store = read("returns.csv", "\"a\r\",\"b\r\"\r\nc\r\n");
+
+      assertEquals("a\r", store.getString(0, 0));
+      assertEquals("b\r", store.getString(0, 1));
+      assertEquals("c", store.getString(1, 0));
+   }
+
+   @Test
+   public void infersNumbersAndBooleans() throws Exception
+   {
+      SheetStore store = read("types.csv", "42,-1.5,1e3,0,0.25,TRUE,false,007,\"12\",1234567890123456,12a\n");
+
+      assertNumber(42, store, 0);
+      assertNumber(-1.5, store, 1);
+      assertNumber(1000, store, 2);
+      assertNumber(0, store, 3);
+      assertNumber(0.25, store, 4);
+      assertEquals(SheetStore.BOOLEAN, store.getType(0, 5));
+      assertTrue(store.getBoolean(0, 5));
+      assertEquals(SheetStore.BOOLEAN, store.getType(0, 6));
+      assertFalse(store.getBoolean(0, 6));
+      assertString("007", store, 7); // a code keeps its leading zeros
+      assertString("12", store, 8); // quoted fields are text
+      assertString("1234567890123456", store, 9); // more digits than a double holds
+      assertString("12a", store, 10);
+   }
+
+   @Test
+   public void recognizesNumbers()
+   {
+      assertTrue(isNumber("7"));
+      assertTrue(isNumber("-0.5"));
+      assertTrue(isNumber("6.02E+23"));
+      assertTrue(isNumber("1e-300"));
+      assertFalse(isNumber(""));
+      assertFalse(isNumber("-"));
+      assertFalse(isNumber("1."));
+      assertFalse(isNumber("01"));
+      assertFalse(isNumber("1e"));
+      assertFalse(isNumber("1e400"));
+      assertFalse(isNumber("+1"));
+      assertFalse(isNumber("1 000"));
+   }
+
+   @Test
+   public void recognizesBooleans()
+   {
+      assertTrue(isBoolean("TRUE"));
+      assertTrue(isBoolean("False"));
+      assertFalse(isBoolean("yes"));
+      assertFalse(isBoolean("TRUEX"));
+   }
+
+   @Test
+   public void readsTabSeparatedFieldsWithoutQuotes() throws Exception
+   {
+      SheetStore store = read("data.tsv", "\"a\"\tb,c\t3\n");
+
+      assertEquals("\"a\"", store.getString(0, 0));
+      assertEquals("b,c", store.getString(0, 1));
+      assertNumber(3, store, 2);
+   }
+
+   @Test
+   public void skipsTheByteOrderMark() throws Exception
+   {
+      SheetStore store = read("bom.csv", "\uFEFFname\nalpha\n");
+
+      assertEquals(2, store.getRowCount());
+      assertEquals("name", store.getString(0, 0));
+   }
+
+   @Test
+   public void namesTheSheetAfterTheFile() throws Exception
+   {
+      File file = write("people.list.csv", "a\n");
+      try (Workbook workbook = DelimitedWorkbook.open(file)) {
+         assertEquals(1, workbook.getNumberOfSheets());
+         assertEquals("people.list", workbook.getSheetName(0));
+      }
+      assertTrue(DelimitedWorkbook.isDelimited(file));
+      assertTrue(DelimitedWorkbook.isDelimited(new File("data.TAB")));
+      assertFalse(DelimitedWorkbook.isDelimited(new File("data.xlsx")));
+   }
+
+   @Test
+   public void joinsTheChunksOfALargeFile() throws Exception
+   {
+      // Each record holds a long quoted field of many lines, so the chunk boundaries of
+      // a megabyte each fall inside quoted fields
+      StringBuilder content = new StringBuilder("id,text,end\r\n");
+      List<String> texts = new ArrayList<>();
+      for (int record = 0; content.length() < 3 * (1 << 20) + 12345; record++) {
+         StringBuilder text = new StringBuilder();
+         for (int line = 0; line < 50; line++) {
+            text.append("line ").append(line).append(" of \"record\" ").append(record).append(", quoted\n");
+         }
+         texts.add(text.toString());
+         content.append(record).append(",\"").append(text.toString().replace("\"", "\"\"")).append("\",TRUE\r\n");
+      }
+      assertTrue(isWithinQuotes(content, 1 << 20));
+
+      SheetStore store = read("large.csv", content.toString());
+
+      assertEquals(texts.size() + 1, store.getRowCount());
+      assertEquals(texts.size() + 1, store.getPhysicalRowCount());
+      assertEquals(3, store.getColumnCount());
+      for (int record = 0; record < texts.size(); record++) {
+         int row = record + 1;
+         assertEquals(record, store.getNumber(row, 0), 0);
+         assertEquals(texts.get(record), store.getString(row, 1));
+         assertTrue(store.getBoolean(row, 2));
+      }
+   }
+
+   private SheetStore read(String fileName, String content) throws Exception
+   {
+      try (Workbook workbook = DelimitedWorkbook.open(write(fileName, content))) {
+         return SheetStore.of(workbook.getSheetAt(0));
+      }
+   }
+
+   private File write(String fileName, String content) throws Exception
+   {
+      File file = folder.newFile(fileName);
+      Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+      return file;
+   }
+
+   private static void assertNumber(double expected, SheetStore store, int column)
+   {
+      assertEquals(SheetStore.NUMBER, store.getType(0, column));
+      assertEquals(expected, store.getNumber(0, column), 0);
+   }
+
+   private static void assertString(String expected, SheetStore store, int column)
+   {
+      assertEquals(SheetStore.STRING, store.getType(0, column));
+      assertEquals(expected, store.getString(0, column));
+   }
+
+   private static boolean isNumber(String field)
+   {
+      byte[] bytes = field.getBytes(StandardCharsets.US_ASCII);
+      return DelimitedWorkbook.isNumber(bytes, bytes.length);
+   }
+
+   private static boolean isBoolean(String field)
+   {
+      byte[] bytes = field.getBytes(StandardCharsets.US_ASCII);
+      return DelimitedWorkbook.isBoolean(bytes, bytes.length);
+   }
+
+   /*
+    * Returns whether the given position of an ASCII content follows an odd number of
+    * quotes
+    */
+   private static boolean isWithinQuotes(CharSequence content, int position)
+   {
+      int quotes = 0;
+      for (int i = 0; i < position; i++) {
+         if (content.charAt(i) == '"') {
+            quotes++;
+         }
+      }
+      return quotes % 2 == 1;
+   }
+}
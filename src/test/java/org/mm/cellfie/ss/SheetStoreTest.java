@@ -0,0 +1,139 @@
+package org.mm.cellfie.ss;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.nio.ByteBuffer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class SheetStoreTest
+{
+   private StringTable strings;
+   private SheetStore store;
+
+   @Before
+   public void setUp()
+   {
+      strings = new StringTable(new String[] { "shared" });
+      SheetStore.Builder builder = new SheetStore.Builder("Sheet1", strings);
+      builder.startRow(0);
+      builder.addString(0, strings.add("name"));
+      builder.addString(1, 0);
+      builder.addNumber(2, 42.5, (short) 0);
+      builder.startRow(2); // row 1 is missing
+      builder.addBoolean(0, true);
+      builder.addBoolean(1, false);
+      builder.addError(2, strings.add("#N/A"));
+      builder.startRow(130); // beyond the first bitmap word
+      builder.addNumber(4, 0.1, (short) 14);
+      builder.addString(5, strings.add("name"));
+      builder.addNumber(6, 42.6, (short) 0);
+      builder.addFormula(6, strings.add("C1+0.1"));
+      store = builder.build();
+   }
+
+   @Test
+   public void storesTheCellsOfEachType()
+   {
+      assertCells(store);
+   }
+
+   @Test
+   public void readsTheStoreItWrote() throws Exception
+   {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      try (DataOutputStream out = new DataOutputStream(bytes)) {
+         store.writeTo(out);
+      }
+
+      ByteBuffer in = ByteBuffer.wrap(bytes.toByteArray());
+      SheetStore copy = SheetStore.readFrom("Sheet1", strings, in);
+
+      assertCells(copy);
+      assertFalse(in.hasRemaining());
+      assertEquals(store.getMemorySize(), copy.getMemorySize());
+   }
+
+   @Test
+   public void copiesTheCellsToAnotherBuilder()
+   {
+      SheetStore.Builder builder = new SheetStore.Builder("Sheet1", strings);
+      store.copyTo(builder, 10);
+      SheetStore copy = builder.build();
+
+      assertEquals(141, copy.getRowCount());
+      assertEquals(3, copy.getPhysicalRowCount());
+      assertEquals("name", copy.getString(10, 0));
+      assertTrue(copy.getBoolean(12, 0));
+      assertEquals(14, copy.getNumberFormat(140, 4));
+      assertEquals("C1+0.1", copy.getFormula(140, 6));
+      assertFalse(copy.hasRow(0));
+   }
+
+   @Test
+   public void addsEqualStringsOnce()
+   {
+      int index = strings.add("other");
+
+      assertEquals(index, strings.add("other"));
+      assertEquals("other", strings.get(index));
+      assertEquals(5, strings.size()); // shared, name, #N/A, the formula and other
+   }
+
+   @Test(expected = IllegalStateException.class)
+   public void rejectsACellBeforeTheFirstRow()
+   {
+      new SheetStore.Builder("Sheet1", strings).addString(0, 0);
+   }
+
+   private static void assertCells(SheetStore store)
+   {
+      assertEquals(131, store.getRowCount());
+      assertEquals(3, store.getPhysicalRowCount());
+      assertEquals(7, store.getColumnCount());
+
+      assertTrue(store.hasRow(0));
+      assertFalse(store.hasRow(1));
+      assertTrue(store.hasRow(130));
+      assertFalse(store.hasRow(131));
+      assertEquals(3, store.getCellCount(0));
+      assertEquals(0, store.getCellCount(1));
+      assertEquals(7, store.getCellCount(130));
+
+      assertEquals(SheetStore.STRING, store.getType(0, 0));
+      assertEquals("name", store.getString(0, 0));
+      assertEquals("shared", store.getString(0, 1));
+      assertEquals(SheetStore.NUMBER, store.getType(0, 2));
+      assertEquals(42.5, store.getNumber(0, 2), 0);
+      assertEquals(0, store.getNumberFormat(0, 2));
+
+      assertEquals(SheetStore.BOOLEAN, store.getType(2, 0));
+      assertTrue(store.getBoolean(2, 0));
+      assertEquals(SheetStore.BOOLEAN, store.getType(2, 1));
+      assertFalse(store.getBoolean(2, 1));
+      assertEquals(SheetStore.ERROR, store.getType(2, 2));
+      assertEquals("#N/A", store.getString(2, 2));
+
+      assertEquals(SheetStore.NUMBER, store.getType(130, 4));
+      assertEquals(0.1, store.getNumber(130, 4), 0);
+      assertEquals(14, store.getNumberFormat(130, 4));
+      assertEquals(store.getString(0, 0), store.getString(130, 5));
+
+      assertEquals(SheetStore.NUMBER, store.getType(130, 6));
+      assertEquals(42.6, store.getNumber(130, 6), 0);
+      assertTrue(store.hasFormula(130, 6));
+      assertEquals("C1+0.1", store.getFormula(130, 6));
+      assertFalse(store.hasFormula(130, 4));
+      assertFalse(store.hasFormula(0, 99));
+
+      assertTrue(store.isBlank(1, 0));
+      assertTrue(store.isBlank(130, 3));
+      assertTrue(store.isBlank(0, 99));
+      assertTrue(store.isBlank(-1, 0));
+   }
+}
@@ -0,0 +1,67 @@
+package org.mm.cellfie.ss;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+
+import javax.xml.parsers.SAXParserFactory;
+
+import org.junit.Test;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+
+public class SheetXmlHandlerTest
+{
+   @Test
+   public void readsFormulasWithTheirCachedValues() throws Exception
+   {
+      SheetStore store = read("<row r=\"1\"><c r=\"A1\"><v>2</v></c>"
+            + "<c r=\"B1\"><f t=\"shared\" ref=\"B1:B3\" si=\"0\">A1*2</f><v>4</v></c>"
+            + "<c r=\"C1\" t=\"str\"><f>\"x\"&amp;A1</f><v>x2</v></c></row>"
+            + "<row r=\"3\"><c r=\"A3\"><v>5</v></c><c r=\"B3\"><f t=\"shared\" si=\"0\"/><v>10</v></c></row>");
+
+      assertEquals(SheetStore.NUMBER, store.getType(0, 0));
+      assertFalse(store.hasFormula(0, 0));
+      assertEquals(4, store.getNumber(0, 1), 0);
+      assertEquals("A1*2", store.getFormula(0, 1));
+      assertEquals("x2", store.getString(0, 2));
+      assertEquals("\"x\"&A1", store.getFormula(0, 2));
+      assertEquals(10, store.getNumber(2, 1), 0);
+      assertTrue(store.hasFormula(2, 1));
+      assertEquals("A3*2", store.getFormula(2, 1));
+   }
+
+   @Test
+   public void shiftsTheRelativeReferencesOfASharedFormula()
+   {
+      assertEquals("A3+$B$1+$C3+D$1", SheetXmlHandler.shiftFormula("A1+$B$1+$C1+D$1", 2, 0));
+      assertEquals("SUM(B1:C1)*LOG10(B1)", SheetXmlHandler.shiftFormula("SUM(A1:B1)*LOG10(A1)", 0, 1));
+      assertEquals("Data!AA2&\"A1\"&'Q1 2020'!B2", SheetXmlHandler.shiftFormula("Data!Z1&\"A1\"&'Q1 2020'!A1", 1, 1));
+      assertEquals("IF(TRUE,1.5E10,Rate)", SheetXmlHandler.shiftFormula("IF(TRUE,1.5E10,Rate)", 1, 1));
+   }
+
+   @Test
+   public void namesColumnsLikeExcel()
+   {
+      assertEquals("A", SheetXmlHandler.getColumnName(0));
+      assertEquals("Z", SheetXmlHandler.getColumnName(25));
+      assertEquals("AA", SheetXmlHandler.getColumnName(26));
+      assertEquals(701, SheetXmlHandler.getColumnIndex(SheetXmlHandler.getColumnName(701)));
+   }
+
+   private static SheetStore read(String rows) throws Exception
+   {
+      StringTable strings = new StringTable(new String[0]);
+      SheetStore.Builder builder = new SheetStore.Builder("Sheet1", strings);
+      SAXParserFactory factory = SAXParserFactory.newInstance();
+      factory.setNamespaceAware(true);
+      XMLReader parser = factory.newSAXParser().getXMLReader();
+      parser.setContentHandler(new SheetXmlHandler(builder, strings, new short[0]));
+      parser.parse(new InputSource(new StringReader(
+            "<worksheet xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\"><sheetData>"
+                  + rows + "</sheetData></worksheet>")));
+      return builder.build();
+   }
+}
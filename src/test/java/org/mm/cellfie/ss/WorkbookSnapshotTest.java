@@ -0,0 +1,226 @@
+package org.mm.cellfie.ss;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+import org.apache.poi.ss.usermodel.Workbook;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class WorkbookSnapshotTest
+{
+   private static final String CONTENT = "name,age,member\nalice,30,TRUE\n\"bob, jr\",,false\n,4.5e3,\"007\"\n";
+
+   @Rule
+   public TemporaryFolder folder = new TemporaryFolder();
+
+   private File source;
+   private File cacheDirectory;
+
+   @Before
+   public void setUp() throws Exception
+   {
+      source = folder.newFile("people.csv");
+      Files.write(source.toPath(), CONTENT.getBytes(StandardCharsets.UTF_8));
+      cacheDirectory = new File(folder.getRoot(), "cache");
+   }
+
+   @Test
+   public void reopensTheCellsOfTheWorkbook() throws Exception
+   {
+      try (Workbook workbook = WorkbookLoader.load(source)) {
+         writeSnapshot(workbook);
+
+         Optional<Workbook> snapshot = WorkbookSnapshot.open(source, cacheDirectory);
+
+         assertTrue(snapshot.isPresent());
+         try (Workbook copy = snapshot.get()) {
+            assertEquals(1, copy.getNumberOfSheets());
+            assertEquals("people", copy.getSheetName(0));
+            assertSameCells(SheetStore.of(workbook.getSheetAt(0)), SheetStore.of(copy.getSheetAt(0)));
+            assertEquals("bob, jr", copy.getSheetAt(0).getRow(2).getCell(0).getStringCellValue());
+         }
+      }
+   }
+
+   @Test
+   public void reopensTheWorkbookSettings() throws Exception
+   {
+      List<String> sheetNames = Arrays.asList("Data", "Notes", "Lists");
+      StringTable strings = new StringTable(new String[0]);
+      WorkbookMetadata metadata = new WorkbookMetadata(1, 0,
+            new int[] { Workbook.SHEET_STATE_VISIBLE, Workbook.SHEET_STATE_HIDDEN, Workbook.SHEET_STATE_VERY_HIDDEN },
+            Arrays.asList(new NameView("Ages", -1, "Data", "Data!$B$2:$B$4", null, false),
+                  new NameView("_xlnm.Print_Area", 1, "Notes", "Notes!$A$1:$C$9", "Printed", false)));
+      try (Workbook workbook = WorkbookView.create(sheetNames, metadata,
+            sheetIndex -> new SheetStore.Builder(sheetNames.get(sheetIndex), strings).build(),
+            Collections.emptyMap(), () -> {}, Long.MAX_VALUE)) {
+         writeSnapshot(workbook);
+      }
+
+      try (Workbook copy = WorkbookSnapshot.open(source, cacheDirectory).get()) {
+         assertEquals(1, copy.getActiveSheetIndex());
+         assertTrue(copy.getSheetAt(1).isSelected());
+         assertFalse(copy.getSheetAt(0).isSelected());
+         assertTrue(copy.isSheetHidden(1));
+         assertTrue(copy.isSheetVeryHidden(2));
+         assertFalse(copy.isSheetHidden(2));
+         assertEquals(2, copy.getNumberOfNames());
+         assertEquals("Data", copy.getName("ages").getSheetName());
+         assertEquals("Data!$B$2:$B$4", copy.getNameAt(0).getRefersToFormula());
+         assertEquals("Printed", copy.getNameAt(1).getComment());
+         assertEquals("Notes!$A$1:$C$9", copy.getPrintArea(1));
+      }
+   }
+
+   @Test
+   public void ignoresTheSnapshotOfAnotherModificationTime() throws Exception
+   {
+      try (Workbook workbook = WorkbookLoader.load(source)) {
+         writeSnapshot(workbook);
+      }
+      Files.write(source.toPath(), CONTENT.replace("alice", "alina").getBytes(StandardCharsets.UTF_8));
+      source.setLastModified(source.lastModified() + 2000); // same size, edited later
+
+      assertFalse(WorkbookSnapshot.open(source, cacheDirectory).isPresent());
+   }
+
+   @Test
+   public void ignoresTheSnapshotOfAnotherSize() throws Exception
+   {
+      try (Workbook workbook = WorkbookLoader.load(source)) {
+         writeSnapshot(workbook);
+      }
+      Files.write(source.toPath(), (CONTENT + "carol,41,TRUE\n").getBytes(StandardCharsets.UTF_8));
+
+      assertFalse(WorkbookSnapshot.open(source, cacheDirectory).isPresent());
+   }
+
+   @Test
+   public void writesNothingIfTheWorkbookChangedWhileItWasRead() throws Exception
+   {
+      try (Workbook workbook = WorkbookLoader.load(source)) {
+         WorkbookSnapshot.writeAsLoaded(workbook, source, source.length() - 1, source.lastModified(),
+               cacheDirectory, Runnable::run);
+         SheetStore.of(workbook.getSheetAt(0));
+      }
+
+      assertFalse(WorkbookSnapshot.getSnapshotFile(source, cacheDirectory).exists());
+      assertEquals(0, cacheDirectory.list().length);
+   }
+
+   @Test
+   public void writesNothingIfTheWorkbookIsClosedBeforeAllSheetsWereLoaded() throws Exception
+   {
+      List<String> sheetNames = Arrays.asList("Data", "Notes");
+      StringTable strings = new StringTable(new String[0]);
+      try (Workbook workbook = WorkbookView.create(sheetNames,
+            sheetIndex -> new SheetStore.Builder(sheetNames.get(sheetIndex), strings).build(),
+            Collections.emptyMap(), () -> {})) {
+         WorkbookSnapshot.writeAsLoaded(workbook, source, source.length(), source.lastModified(), cacheDirectory,
+               Runnable::run);
+         SheetStore.of(workbook.getSheetAt(0));
+      }
+
+      assertFalse(WorkbookSnapshot.getSnapshotFile(source, cacheDirectory).exists());
+      assertEquals(0, cacheDirectory.list().length);
+   }
+
+   @Test
+   public void ignoresADamagedSnapshot() throws Exception
+   {
+      try (Workbook workbook = WorkbookLoader.load(source)) {
+         writeSnapshot(workbook);
+      }
+      try (RandomAccessFile snapshotFile = new RandomAccessFile(
+            WorkbookSnapshot.getSnapshotFile(source, cacheDirectory), "rw")) {
+         snapshotFile.setLength(snapshotFile.length() - 10);
+      }
+
+      assertFalse(WorkbookSnapshot.open(source, cacheDirectory).isPresent());
+   }
+
+   @Test
+   public void workbooksOfTheSameNameDoNotShareASnapshot() throws Exception
+   {
+      File other = new File(folder.newFolder("other"), source.getName());
+
+      assertNotEquals(WorkbookSnapshot.getSnapshotFile(source, cacheDirectory),
+            WorkbookSnapshot.getSnapshotFile(other, cacheDirectory));
+   }
+
+   @Test
+   public void loaderReopensALargeWorkbookFromItsSnapshot() throws Exception
+   {
+      StringBuilder content = new StringBuilder("id,name,score\n");
+      for (int i = 0; content.length() <= WorkbookLoader.SNAPSHOT_THRESHOLD; i++) {
+         content.append(i).append(",name").append(i % 100).append(',').append(i * 0.5).append('\n');
+      }
+      Files.write(source.toPath(), content.toString().getBytes(StandardCharsets.UTF_8));
+      File snapshotFile = WorkbookSnapshot.getSnapshotFile(source, cacheDirectory);
+
+      try (Workbook parsed = WorkbookLoader.load(source, cacheDirectory)) {
+         for (int i = 0; i < 100 && !snapshotFile.exists(); i++) {
+            Thread.sleep(100); // the snapshot is written in the background
+         }
+         assertTrue(snapshotFile.exists());
+         try (Workbook reopened = WorkbookLoader.load(source, cacheDirectory)) {
+            assertSameCells(SheetStore.of(parsed.getSheetAt(0)), SheetStore.of(reopened.getSheetAt(0)));
+         }
+      }
+   }
+
+   /*
+    * Writes the snapshot as the loader does, on the thread that loads the sheets here
+    */
+   private void writeSnapshot(Workbook workbook) throws Exception
+   {
+      WorkbookSnapshot.writeAsLoaded(workbook, source, source.length(), source.lastModified(), cacheDirectory,
+            Runnable::run);
+      for (int i = 0; i < workbook.getNumberOfSheets(); i++) {
+         SheetStore.of(workbook.getSheetAt(i));
+      }
+   }
+
+   private static void assertSameCells(SheetStore expected, SheetStore actual)
+   {
+      assertEquals(expected.getRowCount(), actual.getRowCount());
+      assertEquals(expected.getPhysicalRowCount(), actual.getPhysicalRowCount());
+      assertEquals(expected.getColumnCount(), actual.getColumnCount());
+      for (int row = 0; row < expected.getRowCount(); row++) {
+         assertEquals(expected.hasRow(row), actual.hasRow(row));
+         for (int column = 0; column < expected.getColumnCount(); column++) {
+            int type = expected.getType(row, column);
+            assertEquals(type, actual.getType(row, column));
+            switch (type) {
+               case SheetStore.STRING :
+               case SheetStore.ERROR :
+                  assertEquals(expected.getString(row, column), actual.getString(row, column));
+                  break;
+               case SheetStore.NUMBER :
+                  assertEquals(expected.getNumber(row, column), actual.getNumber(row, column), 0);
+                  assertEquals(expected.getNumberFormat(row, column), actual.getNumberFormat(row, column));
+                  break;
+               case SheetStore.BOOLEAN :
+                  assertEquals(expected.getBoolean(row, column), actual.getBoolean(row, column));
+                  break;
+               default :
+                  break;
+            }
+         }
+      }
+   }
+}
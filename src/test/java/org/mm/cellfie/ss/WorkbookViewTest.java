@@ -0,0 +1,78 @@
+package org.mm.cellfie.ss;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class WorkbookViewTest
+{
+   private int[] loadCounts;
+   private WorkbookView workbook;
+
+   @Before
+   public void setUp()
+   {
+      loadCounts = new int[3];
+      long sheetSize = createStore(0).getMemorySize();
+      workbook = WorkbookView.create(Arrays.asList("Sheet1", "Sheet2", "Sheet3"), sheetIndex -> {
+         loadCounts[sheetIndex]++;
+         return createStore(sheetIndex);
+      }, Collections.emptyMap(), () -> {}, sheetSize + sheetSize / 2);
+   }
+
+   private static SheetStore createStore(int sheetIndex)
+   {
+      StringTable strings = new StringTable(new String[0]);
+      SheetStore.Builder builder = new SheetStore.Builder("Sheet" + (sheetIndex + 1), strings);
+      builder.startRow(0);
+      builder.addNumber(0, sheetIndex, (short) 0);
+      return builder.build();
+   }
+
+   @Test
+   public void releasesTheSheetLoadedFirstBeyondTheBudget()
+   {
+      SheetStore.of(workbook.getSheetAt(0));
+      SheetStore.of(workbook.getSheetAt(1));
+      SheetStore.of(workbook.getSheetAt(0));
+
+      assertEquals(2, loadCounts[0]);
+      assertEquals(1, loadCounts[1]);
+   }
+
+   @Test
+   public void keepsPinnedSheetsLoaded()
+   {
+      SheetStore pinned = SheetStore.pin(workbook.getSheetAt(0));
+      SheetStore.of(workbook.getSheetAt(1));
+      SheetStore.of(workbook.getSheetAt(2));
+
+      assertSame(pinned, SheetStore.of(workbook.getSheetAt(0)));
+      assertEquals(1, loadCounts[0]);
+   }
+
+   @Test
+   public void releasesIdleSheetsWhenUnpinned()
+   {
+      SheetStore.pin(workbook.getSheetAt(0));
+      SheetStore.pin(workbook.getSheetAt(1));
+      SheetStore.unpin(workbook.getSheetAt(0));
+
+      SheetStore.of(workbook.getSheetAt(1));
+      SheetStore.of(workbook.getSheetAt(0));
+
+      assertEquals(2, loadCounts[0]);
+      assertEquals(1, loadCounts[1]);
+   }
+
+   @Test(expected = IllegalStateException.class)
+   public void rejectsUnpinningASheetThatIsNotPinned()
+   {
+      SheetStore.unpin(workbook.getSheetAt(0));
+   }
+}
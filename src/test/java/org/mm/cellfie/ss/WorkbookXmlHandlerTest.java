@@ -0,0 +1,70 @@
+package org.mm.cellfie.ss;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+
+import javax.xml.parsers.SAXParserFactory;
+
+import org.apache.poi.ss.usermodel.Workbook;
+import org.junit.Test;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+
+public class WorkbookXmlHandlerTest
+{
+   @Test
+   public void readsTheWorkbookSettings() throws Exception
+   {
+      WorkbookMetadata metadata = read("<bookViews><workbookView activeTab=\"2\" firstSheet=\"1\"/></bookViews>"
+            + "<sheets><sheet name=\"Data\" sheetId=\"1\"/><sheet name=\"Notes\" sheetId=\"2\" state=\"hidden\"/>"
+            + "<sheet name=\"Q1 '20\" sheetId=\"3\"/><sheet name=\"Lists\" sheetId=\"4\" state=\"veryHidden\"/></sheets>"
+            + "<definedNames><definedName name=\"Ages\">Data!$B$2:$B$40</definedName>"
+            + "<definedName name=\"Total\" localSheetId=\"2\" comment=\"Sum\">SUM('Q1 ''20'!$A:$A)</definedName>"
+            + "<definedName name=\"Rates\">'Q1 ''20'!$C$1</definedName></definedNames>");
+
+      assertEquals(2, metadata.getActiveSheetIndex());
+      assertEquals(1, metadata.getFirstVisibleTab());
+      assertEquals(Workbook.SHEET_STATE_VISIBLE, metadata.getSheetState(0));
+      assertEquals(Workbook.SHEET_STATE_HIDDEN, metadata.getSheetState(1));
+      assertEquals(Workbook.SHEET_STATE_VERY_HIDDEN, metadata.getSheetState(3));
+      assertEquals(3, metadata.getNames().size());
+
+      NameView ages = metadata.getNames().get(0);
+      assertEquals("Ages", ages.getNameName());
+      assertEquals(-1, ages.getSheetIndex());
+      assertEquals("Data", ages.getSheetName());
+      assertEquals("Data!$B$2:$B$40", ages.getRefersToFormula());
+      assertNull(ages.getComment());
+
+      NameView total = metadata.getNames().get(1);
+      assertEquals(2, total.getSheetIndex());
+      assertEquals("Q1 '20", total.getSheetName());
+      assertEquals("Sum", total.getComment());
+
+      assertEquals("Q1 '20", metadata.getNames().get(2).getSheetName());
+   }
+
+   @Test
+   public void defaultsToTheFirstSheetWithoutAWorkbookView() throws Exception
+   {
+      WorkbookMetadata metadata = read("<sheets><sheet name=\"Data\" sheetId=\"1\"/></sheets>");
+
+      assertEquals(0, metadata.getActiveSheetIndex());
+      assertTrue(metadata.getNames().isEmpty());
+   }
+
+   private static WorkbookMetadata read(String content) throws Exception
+   {
+      SAXParserFactory factory = SAXParserFactory.newInstance();
+      factory.setNamespaceAware(true);
+      XMLReader parser = factory.newSAXParser().getXMLReader();
+      WorkbookXmlHandler handler = new WorkbookXmlHandler();
+      parser.setContentHandler(handler);
+      parser.parse(new InputSource(new StringReader(
+            "<workbook xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\">" + content + "</workbook>")));
+      return handler.getMetadata();
+   }
+}
@@ -0,0 +1,176 @@
+package org.mm.cellfie.ui.view;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mm.cellfie.action.ConcurrentEntityResolver.EntityKey;
+import org.mm.core.TransformationRule;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLAxiom;
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLEntity;
+
+public class GenerationCheckpointTest
+{
+   private static final String NS = "http://example.org/test#";
+
+   @Rule
+   public TemporaryFolder folder = new TemporaryFolder();
+
+   private final OWLDataFactory dataFactory = OWLManager.getOWLDataFactory();
+   private final List<TransformationRule> rules = Collections.singletonList(
+         new TransformationRule("Sheet1", "A", "A", "2", "+", "", "Class: @A*"));
+
+   private File workbookFile;
+   private File checkpointFile;
+
+   @Before
+   public void setUp() throws Exception
+   {
+      workbookFile = folder.newFile("workbook.csv");
+      Files.write(workbookFile.toPath(), "name\nalpha\nbeta\n".getBytes(StandardCharsets.UTF_8));
+      checkpointFile = new File(folder.getRoot(), "cellfie.checkpoint");
+   }
+
+   @Test
+   public void resumesTheSavedRowsAndAxioms() throws Exception
+   {
+      String runKey = GenerationCheckpoint.createRunKey(workbookFile.getPath(), rules);
+      long logLength = GenerationCheckpoint.appendAxioms(checkpointFile, 0, Arrays.asList(declaration("A1")));
+      logLength = GenerationCheckpoint.appendAxioms(checkpointFile, logLength, Arrays.asList(declaration("A2")));
+      new GenerationCheckpoint(runKey, completedRows(2, 3), logLength, 2, 4).save(checkpointFile);
+
+      Optional<GenerationCheckpoint> checkpoint = GenerationCheckpoint.load(checkpointFile, runKey);
+
+      assertTrue(checkpoint.isPresent());
+      assertEquals(new HashSet<>(Arrays.asList(declaration("A1"), declaration("A2"))), checkpoint.get().getAxioms());
+      assertEquals(completedRows(2, 3).get(0), checkpoint.get().getCompletedRows(0));
+      assertTrue(checkpoint.get().getCompletedRows(1).isEmpty());
+      assertEquals(logLength, checkpoint.get().getAxiomLogLength());
+      assertEquals(2, checkpoint.get().getProcessedCells());
+      assertEquals(4, checkpoint.get().getTotalCells());
+   }
+
+   @Test
+   public void resumesTheCreatedEntities() throws Exception
+   {
+      String runKey = GenerationCheckpoint.createRunKey(workbookFile.getPath(), rules);
+      Map<EntityKey, OWLEntity> createdEntities = new HashMap<>();
+      createdEntities.put(new EntityKey("alpha", OWLClass.class),
+            dataFactory.getOWLClass(IRI.create(NS + "CF_00001")));
+      long logLength = GenerationCheckpoint.appendAxioms(checkpointFile, 0, Arrays.asList(declaration("CF_00001")));
+      new GenerationCheckpoint(runKey, completedRows(2), createdEntities, logLength, 1, 4).save(checkpointFile);
+
+      Optional<GenerationCheckpoint> checkpoint = GenerationCheckpoint.load(checkpointFile, runKey);
+
+      assertTrue(checkpoint.isPresent());
+      assertEquals(createdEntities, checkpoint.get().getCreatedEntities());
+   }
+
+   @Test
+   public void ignoresTheAxiomsOfAnUnfinishedSave() throws Exception
+   {
+      String runKey = GenerationCheckpoint.createRunKey(workbookFile.getPath(), rules);
+      long logLength = GenerationCheckpoint.appendAxioms(checkpointFile, 0, Arrays.asList(declaration("A1")));
+      new GenerationCheckpoint(runKey, completedRows(2), logLength, 1, 4).save(checkpointFile);
+      GenerationCheckpoint.appendAxioms(checkpointFile, logLength, Arrays.asList(declaration("A2")));
+
+      Optional<GenerationCheckpoint> checkpoint = GenerationCheckpoint.load(checkpointFile, runKey);
+
+      assertTrue(checkpoint.isPresent());
+      assertEquals(Collections.singleton(declaration("A1")), checkpoint.get().getAxioms());
+   }
+
+   @Test
+   public void appendDropsTheAxiomsOfAnUnfinishedSave() throws Exception
+   {
+      String runKey = GenerationCheckpoint.createRunKey(workbookFile.getPath(), rules);
+      long logLength = GenerationCheckpoint.appendAxioms(checkpointFile, 0, Arrays.asList(declaration("A1")));
+      GenerationCheckpoint.appendAxioms(checkpointFile, logLength, Arrays.asList(declaration("Lost")));
+      long newLength = GenerationCheckpoint.appendAxioms(checkpointFile, logLength, Arrays.asList(declaration("A2")));
+      new GenerationCheckpoint(runKey, completedRows(2, 3), newLength, 2, 4).save(checkpointFile);
+
+      Optional<GenerationCheckpoint> checkpoint = GenerationCheckpoint.load(checkpointFile, runKey);
+
+      assertTrue(checkpoint.isPresent());
+      assertEquals(new HashSet<>(Arrays.asList(declaration("A1"), declaration("A2"))), checkpoint.get().getAxioms());
+   }
+
+   @Test
+   public void ignoresACheckpointOfAnotherRun() throws Exception
+   {
+      String runKey = GenerationCheckpoint.createRunKey(workbookFile.getPath(), rules);
+      new GenerationCheckpoint(runKey, completedRows(2), 0, 1, 4).save(checkpointFile);
+      List<TransformationRule> otherRules = Collections.singletonList(
+            new TransformationRule("Sheet1", "A", "A", "2", "+", "", "Individual: @A*"));
+
+      String otherKey = GenerationCheckpoint.createRunKey(workbookFile.getPath(), otherRules);
+
+      assertNotEquals(runKey, otherKey);
+      assertFalse(GenerationCheckpoint.load(checkpointFile, otherKey).isPresent());
+   }
+
+   @Test
+   public void runKeyChangesWithTheWorkbookContent() throws Exception
+   {
+      String runKey = GenerationCheckpoint.createRunKey(workbookFile.getPath(), rules);
+      long modified = workbookFile.lastModified();
+      Files.write(workbookFile.toPath(), "name\nalpha\nbeth\n".getBytes(StandardCharsets.UTF_8));
+      workbookFile.setLastModified(modified); // same size and time, only the content differs
+
+      assertNotEquals(runKey, GenerationCheckpoint.createRunKey(workbookFile.getPath(), rules));
+   }
+
+   @Test
+   public void deleteRemovesTheCheckpointAndItsLog() throws Exception
+   {
+      String runKey = GenerationCheckpoint.createRunKey(workbookFile.getPath(), rules);
+      long logLength = GenerationCheckpoint.appendAxioms(checkpointFile, 0, Arrays.asList(declaration("A1")));
+      new GenerationCheckpoint(runKey, completedRows(2), logLength, 1, 4).save(checkpointFile);
+
+      GenerationCheckpoint.delete(checkpointFile);
+
+      assertFalse(checkpointFile.exists());
+      assertFalse(new File(folder.getRoot(), "cellfie.checkpoint.axioms").exists());
+      assertFalse(GenerationCheckpoint.load(checkpointFile, runKey).isPresent());
+   }
+
+   private OWLAxiom declaration(String name)
+   {
+      return dataFactory.getOWLDeclarationAxiom(dataFactory.getOWLClass(IRI.create(NS + name)));
+   }
+
+   /*
+    * Returns the completed rows of the rule at index 0
+    */
+   private static Map<Integer, BitSet> completedRows(int... rows)
+   {
+      BitSet completed = new BitSet();
+      for (int row : rows) {
+         completed.set(row);
+      }
+      Map<Integer, BitSet> completedRows = new HashMap<>();
+      completedRows.put(0, completed);
+      return completedRows;
+   }
+}
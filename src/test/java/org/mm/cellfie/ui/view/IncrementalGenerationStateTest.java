@@ -0,0 +1,232 @@
+package org.mm.cellfie.ui.view;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mm.cellfie.ui.view.IncrementalGenerationState.RowRecord;
+import org.mm.core.TransformationRule;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.AddAxiom;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLAxiom;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyChange;
+import org.semanticweb.owlapi.model.OWLOntologyManager;
+import org.semanticweb.owlapi.model.RemoveAxiom;
+
+public class IncrementalGenerationStateTest
+{
+   private static final String NS = "http://example.org/test#";
+
+   private final TransformationRule ruleA = new TransformationRule("Sheet1", "A", "A", "2", "+", "", "Class: @A*");
+   private final TransformationRule ruleB = new TransformationRule("Sheet1", "B", "B", "2", "+", "", "Class: @B*");
+
+   private OWLOntologyManager manager;
+   private OWLDataFactory dataFactory;
+   private OWLOntology ontology;
+   private IncrementalGenerationState state;
+
+   @Before
+   public void setUp() throws Exception
+   {
+      manager = OWLManager.createOWLOntologyManager();
+      dataFactory = manager.getOWLDataFactory();
+      ontology = manager.createOntology(IRI.create("http://example.org/test"));
+      state = new IncrementalGenerationState();
+   }
+
+   @Test
+   public void firstRunAddsAllGeneratedAxioms()
+   {
+      Set<OWLAxiom> axioms = setOf(declaration("A1"), declaration("B1"));
+      List<OWLOntologyChange> changes = state.createChanges(ontology, Arrays.asList(ruleA, ruleB), axioms);
+      assertEquals(2, changes.size());
+      for (OWLOntologyChange change : changes) {
+         assertTrue(change.isAddAxiom());
+      }
+   }
+
+   @Test
+   public void rerunRemovesOnlyTheAxiomsOfTheRunRule()
+   {
+      run(Arrays.asList(ruleA, ruleB), rowOf(ruleA, declaration("A1")), rowOf(ruleB, declaration("B1")));
+
+      state.getRowRecords(ruleA).put(2, new RowRecord(2, setOf(declaration("A2"))));
+      List<OWLOntologyChange> changes = state.createChanges(ontology, Collections.singletonList(ruleA),
+            setOf(declaration("A2")));
+
+      assertEquals(2, changes.size());
+      assertTrue(changes.contains(new RemoveAxiom(ontology, declaration("A1"))));
+      assertTrue(changes.contains(new AddAxiom(ontology, declaration("A2"))));
+   }
+
+   @Test
+   public void subsetRunKeepsTheAxiomsOfOtherRules()
+   {
+      run(Arrays.asList(ruleA, ruleB), rowOf(ruleA, declaration("A1")), rowOf(ruleB, declaration("B1")));
+
+      List<OWLOntologyChange> changes = state.createChanges(ontology, Collections.singletonList(ruleA),
+            setOf(declaration("A1")));
+
+      assertTrue(changes.isEmpty());
+      assertTrue(ontology.containsAxiom(declaration("B1")));
+   }
+
+   @Test
+   public void axiomSharedWithARuleThatDidNotRunIsKept()
+   {
+      OWLAxiom shared = declaration("Shared");
+      run(Arrays.asList(ruleA, ruleB), rowOf(ruleA, shared), rowOf(ruleB, shared));
+
+      state.getRowRecords(ruleA).put(2, new RowRecord(2, setOf(declaration("A2"))));
+      List<OWLOntologyChange> changes = state.createChanges(ontology, Collections.singletonList(ruleA),
+            setOf(declaration("A2")));
+
+      assertEquals(1, changes.size());
+      assertTrue(changes.get(0).isAddAxiom());
+   }
+
+   @Test
+   public void preexistingAxiomIsNeverRemoved()
+   {
+      OWLAxiom existing = declaration("Existing");
+      manager.addAxiom(ontology, existing);
+      run(Collections.singletonList(ruleA), rowOf(ruleA, existing));
+
+      state.getRowRecords(ruleA).put(2, new RowRecord(2, Collections.emptySet()));
+      List<OWLOntologyChange> changes = state.createChanges(ontology, Collections.singletonList(ruleA),
+            Collections.emptySet());
+
+      assertTrue(changes.isEmpty());
+   }
+
+   @Test
+   public void invalidateAllForgetsTheAppliedAxioms()
+   {
+      run(Collections.singletonList(ruleA), rowOf(ruleA, declaration("A1")));
+      state.invalidateAll();
+
+      List<OWLOntologyChange> changes = state.createChanges(ontology, Collections.singletonList(ruleA),
+            Collections.emptySet());
+
+      assertTrue(changes.isEmpty());
+      assertNull(state.getRowRecords(ruleA).get(2));
+   }
+
+   @Test
+   public void recordsOfARunThatWasNotAppliedAreDropped()
+   {
+      state.startRun(false);
+      state.getRowRecords(ruleA).put(2, new RowRecord(2, setOf(declaration("A2"))));
+      assertNull(state.getRowRecords(ruleA).get(2));
+
+      run(Collections.singletonList(ruleB), rowOf(ruleB, declaration("B1")));
+
+      assertNull(state.getRowRecords(ruleA).get(2));
+   }
+
+   @Test
+   public void resumedRunKeepsTheRecordsOfTheRunItContinues()
+   {
+      state.startRun(false);
+      state.getRowRecords(ruleA).put(3, new RowRecord(3, setOf(declaration("A3"))));
+
+      state.startRun(true);
+      state.getRowRecords(ruleA).put(2, new RowRecord(2, setOf(declaration("A2"))));
+      apply(Collections.singletonList(ruleA), setOf(declaration("A2"), declaration("A3")));
+
+      assertNotNull(state.getRowRecords(ruleA).get(2));
+      assertNotNull(state.getRowRecords(ruleA).get(3));
+   }
+
+   @Test
+   public void rowsNotVisitedByTheLastRunAreDropped()
+   {
+      state.startRun(false);
+      state.getRowRecords(ruleA).put(2, new RowRecord(2, setOf(declaration("A2"))));
+      state.getRowRecords(ruleA).put(3, new RowRecord(3, setOf(declaration("A3"))));
+      apply(Collections.singletonList(ruleA), setOf(declaration("A2"), declaration("A3")));
+      assertNotNull(state.getRowRecords(ruleA).get(3));
+
+      run(Collections.singletonList(ruleA), rowOf(ruleA, declaration("A2")));
+
+      assertNotNull(state.getRowRecords(ruleA).get(2));
+      assertNull(state.getRowRecords(ruleA).get(3));
+   }
+
+   @Test
+   public void equalAxiomsOfARunShareOneInstance()
+   {
+      state.startRun(false);
+      OWLAxiom first = declaration("Person");
+      OWLAxiom second = declaration("Person");
+
+      assertSame(first, state.getRowRecords(ruleA).intern(first));
+      assertSame(first, state.getRowRecords(ruleB).intern(second));
+      assertEquals(1, state.getAxiomPool().getHitCount());
+
+      state.startRun(false);
+      assertSame(second, state.getRowRecords(ruleA).intern(second));
+   }
+
+   /*
+    * Runs the given rules, each producing the axioms of its row 2, and applies the
+    * changes to the ontology
+    */
+   private void run(List<TransformationRule> rules, RuleRow... rows)
+   {
+      state.startRun(false);
+      Set<OWLAxiom> axioms = new HashSet<>();
+      for (RuleRow row : rows) {
+         state.getRowRecords(row.rule).put(2, new RowRecord(2, row.axioms));
+         axioms.addAll(row.axioms);
+      }
+      apply(rules, axioms);
+   }
+
+   private void apply(List<TransformationRule> rules, Set<OWLAxiom> axioms)
+   {
+      List<OWLOntologyChange> changes = state.createChanges(ontology, rules, axioms);
+      manager.applyChanges(changes);
+      state.markApplied(rules, axioms, changes);
+   }
+
+   private OWLAxiom declaration(String name)
+   {
+      return dataFactory.getOWLDeclarationAxiom(dataFactory.getOWLClass(IRI.create(NS + name)));
+   }
+
+   private static Set<OWLAxiom> setOf(OWLAxiom... axioms)
+   {
+      return new HashSet<>(Arrays.asList(axioms));
+   }
+
+   private static RuleRow rowOf(TransformationRule rule, OWLAxiom... axioms)
+   {
+      return new RuleRow(rule, setOf(axioms));
+   }
+
+   private static class RuleRow
+   {
+      private final TransformationRule rule;
+      private final Set<OWLAxiom> axioms;
+
+      RuleRow(TransformationRule rule, Set<OWLAxiom> axioms)
+      {
+         this.rule = rule;
+         this.axioms = axioms;
+      }
+   }
+}
@@ -0,0 +1,39 @@
+package org.mm.cellfie.ui.view;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class InterningPoolTest
+{
+   @Test
+   public void sharesTheFirstEqualInstance()
+   {
+      InterningPool<String> pool = new InterningPool<>(10, 40);
+      String first = new String("Person");
+      String second = new String("Person");
+
+      assertSame(first, pool.intern(first));
+      assertSame(first, pool.intern(second));
+      assertSame(first, pool.intern(first));
+
+      assertEquals(1, pool.getHitCount());
+      assertEquals(40, pool.getSavedBytes());
+   }
+
+   @Test
+   public void returnsNewValuesAsTheyAreOnceFull()
+   {
+      InterningPool<String> pool = new InterningPool<>(1, 40);
+      pool.intern("Person");
+      String first = new String("Company");
+      String second = new String("Company");
+
+      assertSame(first, pool.intern(first));
+      assertSame(second, pool.intern(second));
+
+      assertEquals(1, pool.size());
+      assertEquals(0, pool.getSavedBytes());
+   }
+}